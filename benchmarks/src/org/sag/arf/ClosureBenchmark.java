@@ -0,0 +1,53 @@
+package org.sag.arf;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+//Computing the closure of the entry point graph, with and without the path to every target
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx8g"})
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ClosureBenchmark {
+
+	@Param({"1000", "10000", "100000"})
+	public int entryPoints;
+
+	private EntryPointGraph graph;
+
+	@Setup
+	public void setup() {
+		graph = SyntheticData.generate(entryPoints).getGraph();
+	}
+
+	@Benchmark
+	public void targets(Blackhole bh) {
+		EntryPointClosure closure = EntryPointClosure.build(graph);
+		for(int caller = 0; caller < graph.getSourceCount(); caller++)
+			bh.consume(closure.getTargets(caller));
+	}
+
+	@Benchmark
+	public void paths(Blackhole bh) {
+		EntryPointClosure closure = EntryPointClosure.build(graph);
+		for(int caller = 0; caller < graph.getSourceCount(); caller++) {
+			for(int target : closure.getTargets(caller))
+				bh.consume(closure.getPath(caller, target));
+		}
+	}
+
+}
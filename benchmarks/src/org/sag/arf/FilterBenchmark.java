@@ -0,0 +1,233 @@
+package org.sag.arf;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.sag.acminer.database.acminer.Doublet;
+import org.sag.common.tools.SortingMethods;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx8g"})
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class FilterBenchmark {
+
+	@Param({"1000", "10000", "100000"})
+	public int entryPoints;
+
+	@Param({"1", "4"})
+	public int threads;
+
+	private Set<ResultContainer> results;
+	private Map<EntryPointNode,Set<Doublet>> epsToAuthLogic;
+	private SystemAndroidManifest systemAndroidManifest;
+	private OnlyCallerRestrictions onlyCallerRestrictions;
+	private Set<String> registeredServices;
+	private AllowedPairs allowedPairs;
+	private Map<String,List<String>> methodToArgNames;
+	private ForkJoinPool pool;
+
+	@Setup
+	public void setup() {
+		SyntheticData data = SyntheticData.generate(entryPoints);
+		EntryPointClosure closure = EntryPointClosure.build(data.getGraph());
+		epsToAuthLogic = data.getEpsToAuthLogic();
+		results = new HashSet<>(data.getResults(closure, DoubletTable.build(epsToAuthLogic)));
+		systemAndroidManifest = data.getSystemAndroidManifest();
+		onlyCallerRestrictions = data.getOnlyCallerRestrictions();
+		registeredServices = new HashSet<>();
+		boolean registered = true;
+		for(String service : SortingMethods.sortSet(data.getServices())) {
+			if(registered)
+				registeredServices.add(service);
+			registered = !registered;
+		}
+		allowedPairs = AllowedPairs.getDefault();
+		methodToArgNames = data.getMethodToArgNames();
+		pool = threads > 1 ? new ForkJoinPool(threads) : null;
+	}
+
+	@TearDown
+	public void tearDown() {
+		if(pool != null)
+			pool.shutdown();
+	}
+
+	//A new cache each time like in a run of the analysis
+	private ResultFilter callerAccessableByThirdPartiesFilter() {
+		final Map<EntryPointNode,Boolean> callerToThirdPartyAccessable = new ConcurrentHashMap<>();
+		return new BenchmarkResultFilter("callers_with_system_permissions.txt") {
+			@Override
+			public boolean keep(ResultContainer r) {
+				return ARFAnalysis.keepIfCallerAccessableByThirdParties(r, epsToAuthLogic, systemAndroidManifest, 
+						callerToThirdPartyAccessable);
+			}
+		};
+	}
+
+	private ResultFilter callerRestrictionsFilter() {
+		return new BenchmarkResultFilter("callers_with_system_restrictions.txt") {
+			@Override
+			public boolean keep(ResultContainer r) {
+				return ARFAnalysis.keepIfCallerHasNoSystemOnlyCallerRestrictions(r, onlyCallerRestrictions);
+			}
+		};
+	}
+
+	private ResultFilter registeredServicesFilter() {
+		return new BenchmarkResultFilter("callers_in_unregistered_services.txt") {
+			@Override
+			public boolean keep(ResultContainer r) {
+				return ARFAnalysis.keepIfCallerInRegisteredService(r, registeredServices);
+			}
+		};
+	}
+
+	private static ResultFilter noSecondaryEpsFilter() {
+		return new BenchmarkResultFilter("no_secondary_eps.txt") {
+			@Override
+			public boolean keep(ResultContainer r) {
+				return ARFAnalysis.keepIfHasTarget(r);
+			}
+		};
+	}
+
+	private static ResultFilter noMissingChecksFilter() {
+		return new BenchmarkResultFilter("no_missing_checks.txt") {
+			@Override
+			public boolean keep(ResultContainer r) {
+				return ARFAnalysis.keepIfHasMissingChecks(r);
+			}
+		};
+	}
+
+	private ResultFilter globalSettingsNoiseFilter() {
+		return new BenchmarkResultFilter("removed_global_settings_noise.txt") {
+			@Override
+			public boolean keep(ResultContainer r) {
+				return ARFAnalysis.keepIfNotGlobalSettingsNoise(r, allowedPairs);
+			}
+		};
+	}
+
+	private ResultFilter multiUserNeededFilter() {
+		return new BenchmarkResultFilter("removed_multi_user_not_needed.txt") {
+			@Override
+			public boolean keep(ResultContainer r) {
+				return ARFAnalysis.keepIfMultiUserNeeded(r, allowedPairs, methodToArgNames);
+			}
+		};
+	}
+
+	private Set<ResultContainer> apply(ResultFilterChain chain) {
+		return chain.apply(results, pool, null);
+	}
+
+	@Benchmark
+	public void callerAccessableByThirdParties(Blackhole bh) {
+		ResultFilterChain chain = new ResultFilterChain();
+		chain.add(2, callerAccessableByThirdPartiesFilter());
+		bh.consume(apply(chain));
+	}
+
+	@Benchmark
+	public void callerRestrictions(Blackhole bh) {
+		ResultFilterChain chain = new ResultFilterChain();
+		chain.add(3, callerRestrictionsFilter());
+		bh.consume(apply(chain));
+	}
+
+	@Benchmark
+	public void registeredServices(Blackhole bh) {
+		ResultFilterChain chain = new ResultFilterChain();
+		chain.add(4, registeredServicesFilter());
+		bh.consume(apply(chain));
+	}
+
+	@Benchmark
+	public void noSecondaryEps(Blackhole bh) {
+		ResultFilterChain chain = new ResultFilterChain();
+		chain.add(6, noSecondaryEpsFilter());
+		bh.consume(apply(chain));
+	}
+
+	@Benchmark
+	public void noMissingChecks(Blackhole bh) {
+		ResultFilterChain chain = new ResultFilterChain();
+		chain.add(6, noMissingChecksFilter());
+		bh.consume(apply(chain));
+	}
+
+	//The noise target is never part of the synthetic data so this is the cost of the allowed pairs lookup
+	@Benchmark
+	public void globalSettingsNoise(Blackhole bh) {
+		ResultFilterChain chain = new ResultFilterChain();
+		chain.add(10, globalSettingsNoiseFilter());
+		bh.consume(apply(chain));
+	}
+
+	@Benchmark
+	public void multiUserNeeded(Blackhole bh) {
+		ResultFilterChain chain = new ResultFilterChain();
+		chain.add(13, multiUserNeededFilter());
+		bh.consume(apply(chain));
+	}
+
+	//The stages in the order of the analysis with checks 5 and 7 to 12 left out as they need Soot or the databases
+	@Benchmark
+	public void allStages(Blackhole bh) {
+		ResultFilterChain chain = new ResultFilterChain();
+		chain.add(2, callerAccessableByThirdPartiesFilter());
+		chain.add(3, callerRestrictionsFilter());
+		chain.add(4, registeredServicesFilter());
+		chain.add(6, noSecondaryEpsFilter());
+		chain.add(6, noMissingChecksFilter());
+		chain.add(10, globalSettingsNoiseFilter());
+		chain.add(13, multiUserNeededFilter());
+		bh.consume(apply(chain));
+	}
+
+	private static abstract class BenchmarkResultFilter implements ResultFilter {
+
+		private final String removedFileName;
+
+		public BenchmarkResultFilter(String removedFileName) {
+			this.removedFileName = removedFileName;
+		}
+
+		@Override
+		public String getRemovedFileName() {
+			return removedFileName;
+		}
+
+		@Override
+		public boolean isCheckedForKnownVulns() {
+			return false;
+		}
+
+		@Override
+		public void prepare(ResultContainer r) {}
+
+	}
+
+}
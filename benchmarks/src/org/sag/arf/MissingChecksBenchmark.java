@@ -0,0 +1,57 @@
+package org.sag.arf;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+//The missing checks of every caller and target of the closure, i.e. check 1 without the paths
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx8g"})
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class MissingChecksBenchmark {
+
+	@Param({"1000", "10000", "100000"})
+	public int entryPoints;
+
+	private SyntheticData data;
+	private EntryPointGraph graph;
+	private EntryPointClosure closure;
+	private DoubletTable doubletTable;
+
+	@Setup
+	public void setup() {
+		data = SyntheticData.generate(entryPoints);
+		graph = data.getGraph();
+		closure = EntryPointClosure.build(graph);
+		doubletTable = DoubletTable.build(data.getEpsToAuthLogic());
+	}
+
+	@Benchmark
+	public void doubletTable(Blackhole bh) {
+		bh.consume(DoubletTable.build(data.getEpsToAuthLogic()));
+	}
+
+	@Benchmark
+	public void missingChecks(Blackhole bh) {
+		for(EntryPointNode caller : data.getEpsToAuthLogic().keySet()) {
+			int id = graph.getId(caller);
+			for(int target : closure.getTargets(id))
+				bh.consume(ARFAnalysis.getResult(doubletTable, caller, graph.getNode(target), null));
+		}
+	}
+
+}
@@ -0,0 +1,74 @@
+package org.sag.arf;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.sag.common.tools.SortingMethods;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx8g"})
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class SortBenchmark {
+
+	@Param({"1000", "10000", "100000"})
+	public int entryPoints;
+
+	@Param({"SortByRatioMissingCheckSizeCallerTarget", "SortByCallerTargetDoubletRatio", "SortByDoubletRatio"})
+	public String comparator;
+
+	private List<ResultContainer> results;
+	private Set<ResultContainer> resultSet;
+	private Comparator<ResultContainer> comp;
+
+	@Setup
+	public void setup() {
+		SyntheticData data = SyntheticData.generate(entryPoints);
+		EntryPointClosure closure = EntryPointClosure.build(data.getGraph());
+		results = data.getResults(closure, DoubletTable.build(data.getEpsToAuthLogic()));
+		Collections.shuffle(results, new Random(SyntheticData.defaultSeed));
+		resultSet = new HashSet<>(results);
+		if(comparator.equals("SortByRatioMissingCheckSizeCallerTarget"))
+			comp = new ResultContainer.SortByRatioMissingCheckSizeCallerTarget();
+		else if(comparator.equals("SortByCallerTargetDoubletRatio"))
+			comp = new ResultContainer.SortByCallerTargetDoubletRatio();
+		else if(comparator.equals("SortByDoubletRatio"))
+			comp = new ResultContainer.SortByDoubletRatio();
+		else
+			throw new IllegalArgumentException("Error: Unhandled comparator '" + comparator + "'");
+		ResultContainer.setComp(comp);
+	}
+
+	@Benchmark
+	public void list(Blackhole bh) {
+		List<ResultContainer> copy = new ArrayList<>(results);
+		Collections.sort(copy, comp);
+		bh.consume(copy);
+	}
+
+	@Benchmark
+	public void set(Blackhole bh) {
+		bh.consume(SortingMethods.sortSet(resultSet));
+	}
+
+}
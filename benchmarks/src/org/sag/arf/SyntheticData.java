@@ -0,0 +1,109 @@
+package org.sag.arf;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.sag.acminer.database.acminer.Doublet;
+
+final class SyntheticData {
+
+	public static final long defaultSeed = SyntheticDataSource.defaultSeed;
+
+	private final SyntheticDataSource source;
+
+	private static final Pattern permPattern = Pattern.compile("^`\"([^`\"]+)\"`$");
+
+	private SyntheticData(SyntheticDataSource source) {
+		this.source = source;
+	}
+
+	public EntryPointGraph getGraph() {
+		return source.getGraph();
+	}
+
+	//Sorted by entry point like the map built from the ACMiner database
+	public Map<EntryPointNode,Set<Doublet>> getEpsToAuthLogic() {
+		return source.getEpsToAuthLogic();
+	}
+
+	//The declaring classes of all entry points
+	public Set<String> getServices() {
+		return source.getServices();
+	}
+
+	//The results of check 1 of the analysis in caller order with paths
+	public List<ResultContainer> getResults(EntryPointClosure closure, DoubletTable doubletTable) {
+		EntryPointGraph graph = source.getGraph();
+		List<ResultContainer> ret = new ArrayList<>();
+		for(EntryPointNode caller : source.getEpsToAuthLogic().keySet()) {
+			int id = graph.getId(caller);
+			int[] targets = closure.getTargets(id);
+			if(targets.length == 0) {
+				ret.add(new ResultContainer(caller));
+			} else {
+				for(int t : targets)
+					ret.add(ARFAnalysis.getResult(doubletTable, caller, graph.getNode(t), closure.getPath(id, t)));
+			}
+		}
+		return ret;
+	}
+
+	//Every permission the checks use where the multi user permissions are system only and the rest are split
+	//between signature, dangerous, and normal by their name
+	public SystemAndroidManifest getSystemAndroidManifest() {
+		Map<String,Permission> perms = new HashMap<>();
+		for(Set<Doublet> checks : source.getEpsToAuthLogic().values()) {
+			for(Doublet d : checks) {
+				Matcher m = permPattern.matcher(d.toString());
+				if(m.matches() && !perms.containsKey(m.group(1))) {
+					String name = m.group(1);
+					String level;
+					if(!name.startsWith("android.permission.SYNTHETIC_"))
+						level = "signature|privileged";
+					else if(Math.floorMod(name.hashCode(), 3) == 0)
+						level = "signature";
+					else if(Math.floorMod(name.hashCode(), 3) == 1)
+						level = "dangerous";
+					else
+						level = "normal";
+					perms.put(name, new Permission(name, level));
+				}
+			}
+		}
+		return new SystemAndroidManifest(perms.values());
+	}
+
+	//Every tenth entry point is restricted to the system
+	public OnlyCallerRestrictions getOnlyCallerRestrictions() {
+		Map<String,Set<String>> ret = new LinkedHashMap<>();
+		int i = 0;
+		for(EntryPointNode ep : source.getEpsToAuthLogic().keySet()) {
+			if(i++ % 10 == 0)
+				ret.put(ep.getEntryPoint().getSignature(), Collections.singleton(OnlyCallerRestrictions.SYSTEM_UID_RESTRICTION));
+		}
+		return OnlyCallerRestrictions.of(ret);
+	}
+
+	//Every fourth entry point takes a user id
+	public Map<String,List<String>> getMethodToArgNames() {
+		Map<String,List<String>> ret = new HashMap<>();
+		int i = 0;
+		for(EntryPointNode ep : source.getEpsToAuthLogic().keySet()) {
+			ret.put(ep.getEntryPoint().getSignature(), i++ % 4 == 0 ? Arrays.asList("name", "userId") : Arrays.asList("name", "flags"));
+		}
+		return ret;
+	}
+
+	public static SyntheticData generate(int entryPoints) {
+		return new SyntheticData(SyntheticDataSource.generate(entryPoints, defaultSeed));
+	}
+
+}
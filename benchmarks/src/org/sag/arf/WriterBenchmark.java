@@ -0,0 +1,108 @@
+package org.sag.arf;
+
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.sag.common.io.FileHelpers;
+import org.sag.common.tools.SortingMethods;
+
+//The TSV and summary writers fed every result on the calling thread
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx8g"})
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class WriterBenchmark {
+
+	@Param({"1000", "10000", "100000"})
+	public int entryPoints;
+
+	@Param({"SortByRatioMissingCheckSizeCallerTarget", "SortByCallerTargetDoubletRatio"})
+	public String comparator;
+
+	@Param({"false", "true"})
+	public boolean compress;
+
+	private Set<ResultContainer> results;
+	private int[] bandSizes;
+	private Path dir;
+
+	@Setup
+	public void setup() throws Exception {
+		Comparator<ResultContainer> comp;
+		if(comparator.equals("SortByRatioMissingCheckSizeCallerTarget"))
+			comp = new ResultContainer.SortByRatioMissingCheckSizeCallerTarget();
+		else if(comparator.equals("SortByCallerTargetDoubletRatio"))
+			comp = new ResultContainer.SortByCallerTargetDoubletRatio();
+		else
+			throw new IllegalArgumentException("Error: Unhandled comparator '" + comparator + "'");
+		ResultContainer.setComp(comp);
+		SyntheticData data = SyntheticData.generate(entryPoints);
+		EntryPointClosure closure = EntryPointClosure.build(data.getGraph());
+		results = SortingMethods.sortSet(new HashSet<>(data.getResults(closure,
+				DoubletTable.build(data.getEpsToAuthLogic()))));
+		bandSizes = new int[ARFAnalysis.ratioBandFileNames.length];
+		for(ResultContainer r : results)
+			bandSizes[ARFAnalysis.getRatioBand(r)]++;
+		dir = Files.createTempDirectory("arf_bench");
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		try(DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+			for(Path p : ds)
+				Files.delete(p);
+		}
+		Files.delete(dir);
+	}
+
+	private void write(ResultSink sink) throws Exception {
+		for(ResultContainer r : results)
+			sink.accept(r);
+		sink.finish();
+	}
+
+	@Benchmark
+	public void tsv(Blackhole bh) throws Exception {
+		ResultsTsvWriter writer = new ResultsTsvWriter(FileHelpers.getPath(dir, compress ? "results.tsv.gz" : "results.tsv"),
+				compress, null, true);
+		write(writer);
+		bh.consume(writer);
+	}
+
+	@Benchmark
+	public void summary(Blackhole bh) throws Exception {
+		ResultSink sink = new ARFAnalysis.SummarySink(FileHelpers.getPath(dir, "summary.txt"), results.size(), bandSizes);
+		write(sink);
+		bh.consume(sink);
+	}
+
+	@Benchmark
+	public void groupSummary(Blackhole bh) throws Exception {
+		Map<ResultContainer,GroupContainer> resultToGroup = new HashMap<>();
+		write(new ARFAnalysis.GroupSummarySink(FileHelpers.getPath(dir, "summary.txt"), results.size(), resultToGroup));
+		bh.consume(resultToGroup);
+	}
+
+}
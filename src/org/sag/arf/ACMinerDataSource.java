@@ -0,0 +1,81 @@
+package org.sag.arf;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import org.sag.acminer.IACMinerDataAccessor;
+import org.sag.acminer.database.acminer.Doublet;
+import org.sag.acminer.database.entrypointedges.EntryPointContainer;
+import org.sag.acminer.database.entrypointedges.EntryPointEdge;
+import org.sag.acminer.database.entrypointedges.SourceContainer;
+import org.sag.common.tools.SortingMethods;
+import org.sag.soot.xstream.SootClassContainer;
+import org.sag.soot.xstream.SootMethodContainer;
+import org.sag.soot.xstream.SootUnitContainer;
+
+final class ACMinerDataSource implements ARFDataSource {
+
+	private final IACMinerDataAccessor dataAccessor;
+
+	public ACMinerDataSource(IACMinerDataAccessor dataAccessor) {
+		Objects.requireNonNull(dataAccessor);
+		this.dataAccessor = dataAccessor;
+	}
+
+	@Override
+	public String toString() {
+		return "ACMiner";
+	}
+
+	@Override
+	public IACMinerDataAccessor getDataAccessor() {
+		return dataAccessor;
+	}
+
+	@Override
+	public EntryPointGraph getGraph() {
+		return EntryPointGraph.build(dataAccessor.getEntryPointEdgesDB());
+	}
+
+	@Override
+	public Map<EntryPointNode,Set<Doublet>> getEpsToAuthLogic() {
+		Map<SootClassContainer, Map<SootMethodContainer, Set<Doublet>>> stubToEpsToAuthLogic =
+				dataAccessor.getACMinerDB().getValuePairs();
+		Map<EntryPointNode, Set<Doublet>> ret = new HashMap<>();
+		for(SootClassContainer stub : stubToEpsToAuthLogic.keySet()) {
+			Map<SootMethodContainer, Set<Doublet>> epToAuthLogic = stubToEpsToAuthLogic.get(stub);
+			for(SootMethodContainer ep : epToAuthLogic.keySet()) {
+				ret.put(new EntryPointNode(ep,stub), epToAuthLogic.get(ep));
+			}
+		}
+		for(EntryPointNode ep : ret.keySet()) {
+			ret.put(ep, SortingMethods.sortSet(ret.get(ep)));
+		}
+		return SortingMethods.sortMapKeyAscending(ret);
+	}
+
+	@Override
+	public Map<EntryPointNode,Map<EntryPointNode,Set<SootUnitContainer>>> getDeputyToTargetToSources() {
+		Map<EntryPointNode,Map<EntryPointNode,Set<SootUnitContainer>>> deputyToTargetToSources = new HashMap<>();
+		for(EntryPointContainer epContainer : dataAccessor.getEntryPointEdgesDB().getOutputData()) {
+			Map<EntryPointNode,Set<SootUnitContainer>> targetToSources = new HashMap<>();
+			deputyToTargetToSources.put(new EntryPointNode(epContainer.getEntryPointContainer(),epContainer.getStubContainer()), targetToSources);
+			for(EntryPointEdge other : epContainer.getReferenceEntryPointContainers()) {
+				EntryPointNode tgt = new EntryPointNode(other.getReferencedEntryPointContainer(),other.getReferencedStubContainer());
+				for(SourceContainer sourceC : other.getSourceContainers()) {
+					Set<SootUnitContainer> sources = targetToSources.get(tgt);
+					if(sources == null) {
+						sources = new HashSet<>();
+						targetToSources.put(tgt, sources);
+					}
+					sources.addAll(sourceC.getUnitContainers());
+				}
+			}
+		}
+		return deputyToTargetToSources;
+	}
+
+}
@@ -1,11 +1,14 @@
 package org.sag.arf;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -15,18 +18,17 @@ import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.sag.acminer.IACMinerDataAccessor;
 import org.sag.acminer.database.accesscontrol.IContextQueryDatabase;
 import org.sag.acminer.database.acminer.Doublet;
-import org.sag.acminer.database.acminer.IACMinerDatabase;
-import org.sag.acminer.database.entrypointedges.EntryPointContainer;
-import org.sag.acminer.database.entrypointedges.EntryPointEdge;
-import org.sag.acminer.database.entrypointedges.IEntryPointEdgesDatabase;
-import org.sag.acminer.database.entrypointedges.SourceContainer;
 import org.sag.acminer.database.excludedelements.IExcludeHandler;
 import org.sag.acminer.phases.entrypoints.EntryPoint;
 import org.sag.common.concurrent.IgnorableRuntimeException;
@@ -43,12 +45,9 @@ import org.sag.main.phase.IPhaseOption;
 import org.sag.soot.analysis.AdvLocalDefs;
 import org.sag.soot.analysis.FastDominatorsFinder;
 import org.sag.soot.callgraph.ExcludingJimpleICFG.ExcludingEdgePredicate;
-import org.sag.soot.xstream.SootClassContainer;
 import org.sag.soot.xstream.SootMethodContainer;
 import org.sag.soot.xstream.SootUnitContainer;
 
-import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableSet;
 
 import soot.Body;
 import soot.Local;
@@ -64,21 +63,17 @@ import soot.jimple.NewExpr;
 import soot.jimple.Stmt;
 import soot.jimple.toolkits.callgraph.CallGraph;
 import soot.jimple.toolkits.callgraph.Edge;
-import soot.toolkits.graph.BriefUnitGraph;
-import soot.toolkits.graph.ExceptionalUnitGraph;
 import soot.toolkits.graph.UnitGraph;
-import soot.toolkits.scalar.LiveLocals;
 
 public class ARFAnalysis {
 	
 	private final IPhaseHandler handler;
+	private final ARFDataSource source;
 	private final IACMinerDataAccessor dataAccessor;
 	private final Config config;
 	private final ILogger logger;
 	private final String cn;
-	private final IEntryPointEdgesDatabase ieepsDB;
-	private final IACMinerDatabase acminerDB;
-	private final IContextQueryDatabase cqdb;
+	private IContextQueryDatabase cqdb;
 	private SystemAndroidManifest systemAndroidManifest;
 	private OnlyCallerRestrictions onlyCallerRestrictions;
 	private Set<String> registeredServices;
@@ -86,6 +81,7 @@ public class ARFAnalysis {
 	private List<Pair<String,String>> knownVulnPaths;
 	private Map<String,Pair<Set<String>,Set<String>>> specialCallerContextQueries;
 	private Map<String,List<String>> methodToArgNames;
+	private AllowedPairs allowedPairs;
 	private final boolean onlyPerm;
 	private final boolean onlyPermString;
 	private final boolean toGroup;
@@ -104,42 +100,86 @@ public class ARFAnalysis {
 	private final boolean removeAlreadyHandelingMultiUser;
 	private final boolean removeMultiUserNotNeeded;
 	private final boolean wholeGraph;
+	private int threads;
+	private int reachCacheMB;
+	private int filterThreads;
+	private ForkJoinPool pool;
+	private ForkJoinPool filterPool;
+	//Soot builds bodies lazily and that is not safe to do from multiple threads
+	private final Object bodyLock = new Object();
+	private MethodAnalysisCache methodCache;
+	//What the filters resolved through Soot while holding bodyLock so it can be read from any thread
+	private final ConcurrentHashMap<SootMethodContainer,SootMethod> sootMethods;
+	private final ConcurrentHashMap<EntryPointNode,EntryPoint> sootEntryPoints;
+	private final ConcurrentHashMap<SootUnitContainer,Unit> units;
+	private final ConcurrentHashMap<EntryPointNode,IExcludeHandler> excludeHandlers;
+	private final boolean persistFirstIfVerdicts;
+	private final boolean compressTSV;
+	private final boolean incremental;
+	private final boolean snapshotClosure;
+	private FirstIfVerdicts firstIfVerdicts;
+	//Access ordered and bounded like the method cache, guarded by itself
+	private final LinkedHashMap<EntryPointNode,ContextQueryIndex> contextQueryIndexes;
+	private final ConcurrentHashMap<EntryPointNode,Boolean> callerToThirdPartyAccessable;
+	private DeputyReachabilityCache reachabilityCache;
+	private final ARFProfile profile;
+	private final SharedState shared;
+	private final Path outDir;
+	private ResultStoreWriter resultStore;
+	private final ARFMetrics metrics;
+	//Null for single hops where results have no paths
+	private EntryPointClosure closure;
 	
-	@SuppressWarnings("unchecked")
-	private final Set<Pair<String,String>> allowedPairs = ImmutableSet.of(
-		new Pair<>("<com.android.server.devicepolicy.DevicePolicyManagerService: void startManagedQuickContact(java.lang.String,long,boolean,long,android.content.Intent)>","<com.android.server.devicepolicy.DevicePolicyManagerService: boolean getCrossProfileCallerIdDisabledForUser(int)>"),
-		new Pair<>("<com.android.server.devicepolicy.DevicePolicyManagerService: void startManagedQuickContact(java.lang.String,long,boolean,long,android.content.Intent)>","<com.android.server.devicepolicy.DevicePolicyManagerService: boolean getCrossProfileContactsSearchDisabledForUser(int)>"),
-		new Pair<>("<com.android.server.trust.TrustManagerService$1: boolean isDeviceSecure(int)>","<com.android.server.locksettings.LockSettingsService: long getLong(java.lang.String,long,int)>"),
-		new Pair<>("<com.android.server.trust.TrustManagerService$1: boolean isDeviceSecure(int)>","<com.android.server.locksettings.LockSettingsService: boolean havePassword(int)>"),
-		new Pair<>("<com.android.server.trust.TrustManagerService$1: boolean isDeviceSecure(int)>","<com.android.server.locksettings.LockSettingsService: boolean havePattern(int)>"),
-		new Pair<>("<com.android.server.fingerprint.FingerprintService$FingerprintServiceWrapper: java.util.List getEnrolledFingerprints(int,java.lang.String)>","<com.android.server.am.ActivityManagerService: android.content.pm.UserInfo getCurrentUser()>"),
-		new Pair<>("<com.android.server.fingerprint.FingerprintService$FingerprintServiceWrapper: java.util.List getEnrolledFingerprints(int,java.lang.String)>","<com.android.server.am.ActivityManagerService: java.util.List getRunningAppProcesses()>"),
-		new Pair<>("<com.android.server.fingerprint.FingerprintService$FingerprintServiceWrapper: java.util.List getEnrolledFingerprints(int,java.lang.String)>","<com.android.server.pm.UserManagerService: int[] getProfileIds(int,boolean)>"),
-		new Pair<>("<com.android.server.pm.PackageManagerService: boolean isPackageDeviceAdminOnAnyUser(java.lang.String)>","<com.android.server.devicepolicy.DevicePolicyManagerService: android.content.ComponentName getDeviceOwnerComponent(boolean)>"),
-		new Pair<>("<com.android.server.pm.PackageManagerService: boolean isPackageDeviceAdminOnAnyUser(java.lang.String)>","<com.android.server.devicepolicy.DevicePolicyManagerService: boolean packageHasActiveAdmins(java.lang.String,int)>"),
-		new Pair<>("<com.android.server.am.ActivityManagerService: boolean switchUser(int)>","<com.android.server.pm.UserManagerService: android.content.pm.UserInfo getUserInfo(int)>"),
-		new Pair<>("<com.android.server.notification.NotificationManagerService$7: boolean areNotificationsEnabledForPackage(java.lang.String,int)>","<com.android.server.pm.PackageManagerService: android.content.pm.ApplicationInfo getApplicationInfo(java.lang.String,int,int)>"), //Special case of having the check but not using it properly
-		new Pair<>("<com.android.server.media.MediaResourceMonitorService$MediaResourceMonitorImpl: void notifyResourceGranted(int,int)>","<com.android.server.am.ActivityManagerService: android.content.pm.UserInfo getCurrentUser()>"), //Special case where it is sending out a broadcast to all users
-		new Pair<>("<com.android.server.notification.NotificationManagerService$7: void enqueueNotificationWithTag(java.lang.String,java.lang.String,java.lang.String,int,android.app.Notification,int)>","<com.android.server.am.ActivityManagerService: void setProcessImportant(android.os.IBinder,int,boolean,java.lang.String)>"), //Special case of having the check but not using it properly
-		new Pair<>("<com.android.server.devicepolicy.DevicePolicyManagerService: void startManagedQuickContact(java.lang.String,long,boolean,long,android.content.Intent)>","<com.android.server.pm.PackageManagerService: android.content.pm.ApplicationInfo getApplicationInfo(java.lang.String,int,int)>") //Special case of leaking data from other users
-	);
+	private static final int userProtectionLevels = Permission.PROTECTION_NORMAL | Permission.PROTECTION_DANGEROUS
+			| Permission.PROTECTION_INSTANT | Permission.PROTECTION_RUNTIME | Permission.PROTECTION_PRE23;
+	private static final int contextQueryIndexCacheSize = 256;
+	//The boolean options that only change how the outputs are produced and not the outputs
+	private static final Set<String> optionsNotChangingOutputs = new HashSet<>(Arrays.asList(ARFHandler.optIncremental, 
+			ARFHandler.optSnapshotClosure, ARFHandler.optMultiProfile));
+	//The checks from here on only read the results left by the check before them so a run can resume at any of them
+	private static final int firstResumableCheck = 6;
+	private static final int lastCheck = 13;
+	//The known vuln paths are only read after each check is done so changing them alone reruns no check
+	private static final int afterLastCheck = 14;
+	//The first check whose removed results are tested for known vulns
+	private static final int firstKnownVulnCheck = 7;
+	private static final Pattern permStringPattern = Pattern.compile("^`\"([^`\"]+)\"`$");
+	private static final Pattern userArgNamePattern = Pattern.compile("(?i)^(?:(?:target|)user(?:id|handle|))$|^uid$");
 	
 	public ARFAnalysis(IACMinerDataAccessor dataAccessor, IPhaseHandler handler, ILogger mainLogger) {
+		this(dataAccessor, handler, mainLogger, null, new SharedState());
+	}
+	
+	//Runs the given profile reusing the structures in shared that do not depend on the options of a profile
+	public ARFAnalysis(IACMinerDataAccessor dataAccessor, IPhaseHandler handler, ILogger mainLogger, ARFProfile profile, 
+			SharedState shared) {
+		this(new ACMinerDataSource(dataAccessor), dataAccessor.getConfig(), handler, mainLogger, profile, shared);
+	}
+	
+	//Runs on data from any source where the config only provides the file paths
+	public ARFAnalysis(ARFDataSource source, Config config, IPhaseHandler handler, ILogger mainLogger, ARFProfile profile, 
+			SharedState shared) {
+		Objects.requireNonNull(source);
+		Objects.requireNonNull(shared);
 		this.handler = handler;
-		this.dataAccessor = dataAccessor;
-		this.config = dataAccessor.getConfig();
+		this.source = source;
+		this.dataAccessor = source.getDataAccessor();
+		this.config = config;
+		this.profile = profile;
+		this.shared = shared;
+		this.outDir = profile == null ? config.getFilePath("debug_arf-dir") 
+				: FileHelpers.getPath(config.getFilePath("debug_arf-dir"), profile.getName());
 		this.logger = mainLogger;
 		this.cn = getClass().getSimpleName();
-		this.ieepsDB = dataAccessor.getEntryPointEdgesDB();
-		this.acminerDB = dataAccessor.getACMinerDB();
 		this.systemAndroidManifest = null;
 		this.onlyCallerRestrictions = null;
 		this.registeredServices = null;
 		this.singleHopInput = null;
 		this.knownVulnPaths = null;
-		this.cqdb = dataAccessor.getContextQueriesDB();
+		this.cqdb = null;
 		this.specialCallerContextQueries = null;
 		this.methodToArgNames = null;
+		this.allowedPairs = null;
 		this.onlyPerm = isOptionEnabled(ARFHandler.optPerm);
 		this.onlyPermString = isOptionEnabled(ARFHandler.optPermString);
 		this.toGroup = isOptionEnabled(ARFHandler.optGroup);
@@ -158,9 +198,41 @@ public class ARFAnalysis {
 		this.removeAlreadyHandelingMultiUser = isOptionEnabled(ARFHandler.optRemoveAlreadyHandelingMultiUser);
 		this.removeMultiUserNotNeeded = isOptionEnabled(ARFHandler.optRemoveMultiUserNotNeeded);
 		this.wholeGraph = isOptionEnabled(ARFHandler.optWholeGraph);
+		this.threads = 0;
+		this.reachCacheMB = 0;
+		this.filterThreads = 0;
+		this.methodCache = null;
+		this.sootMethods = new ConcurrentHashMap<>();
+		this.sootEntryPoints = new ConcurrentHashMap<>();
+		this.units = new ConcurrentHashMap<>();
+		this.excludeHandlers = new ConcurrentHashMap<>();
+		this.persistFirstIfVerdicts = isOptionEnabled(ARFHandler.optPersistFirstIfVerdicts);
+		this.compressTSV = isOptionEnabled(ARFHandler.optCompressTSV);
+		this.incremental = isOptionEnabled(ARFHandler.optIncremental);
+		this.snapshotClosure = isOptionEnabled(ARFHandler.optSnapshotClosure);
+		this.firstIfVerdicts = null;
+		this.contextQueryIndexes = new LinkedHashMap<EntryPointNode,ContextQueryIndex>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<EntryPointNode,ContextQueryIndex> eldest) {
+				return size() > contextQueryIndexCacheSize;
+			}
+		};
+		this.callerToThirdPartyAccessable = new ConcurrentHashMap<>();
+		this.pool = null;
+		this.filterPool = null;
+		this.reachabilityCache = null;
+		this.resultStore = null;
+		this.closure = null;
+		this.metrics = isOptionEnabled(ARFHandler.optMetrics) ? new ARFMetrics() : null;
 	}
 	
 	private boolean isOptionEnabled(String name) {
+		if(profile != null) {
+			Boolean ret = profile.getOption(name);
+			if(ret != null)
+				return ret;
+		}
 		IPhaseOption<?> o = handler.getPhaseOptionUnchecked(name);
 		if(o == null || !o.isEnabled())
 			return false;
@@ -168,6 +240,19 @@ public class ARFAnalysis {
 	}
 	
 	public boolean init() {
+		//Not fetched in the constructor as the handler constructs the analysis before Soot is loaded to check if it is up to date
+		cqdb = dataAccessor == null ? null : dataAccessor.getContextQueriesDB();
+		try {
+			threads = ARFHandler.getPositiveIntOption(handler, ARFHandler.optThreads, 1);
+			reachCacheMB = ARFHandler.getPositiveIntOption(handler, ARFHandler.optReachCacheMB, 512);
+			filterThreads = ARFHandler.getPositiveIntOption(handler, ARFHandler.optFilterThreads, 1);
+			methodCache = new MethodAnalysisCache(ARFHandler.getPositiveIntOption(handler, ARFHandler.optMethodCacheSize, 4096), 
+					bodyLock);
+		} catch(Throwable t) {
+			logger.fatal("{}: Invalid value for a numeric option.",t,cn);
+			return false;
+		}
+		
 		if(onlyUserPerm) {
 			Path manifest = config.getFilePath("work_system-android-manifest-file");
 			try {
@@ -265,16 +350,8 @@ public class ARFAnalysis {
 		
 		if(testIfKnownVuln) {
 			Path p = config.getFilePath("arf_known-vuln-paths-temp-file");
-			try(BufferedReader br = Files.newBufferedReader(p)) {
-				this.knownVulnPaths = new ArrayList<>();
-				String line;
-				while((line = br.readLine()) != null) {
-					line = line.trim();
-					if(!line.isEmpty() && !line.startsWith("//")) {
-						String[] temp = line.split("\\t");
-						this.knownVulnPaths.add(new Pair<>(temp[0].trim(),temp[1].trim()));
-					}
-				}
+			try {
+				this.knownVulnPaths = readKnownVulnPaths(p);
 			} catch(Throwable t) {
 				logger.fatal("{}: Could not read known vuln paths file at '{}'.",t,cn,
 						p);
@@ -335,6 +412,19 @@ public class ARFAnalysis {
 			}
 		}
 		
+		Path allowedPairsFile = config.getFilePath("arf_allowed-pairs-file");
+		if(Files.isRegularFile(allowedPairsFile)) {
+			try {
+				allowedPairs = AllowedPairs.parser(allowedPairsFile);
+			} catch(Throwable t) {
+				logger.fatal("{}: Could not read the allowed pairs file at '{}'.",t,cn,
+						allowedPairsFile);
+				return false;
+			}
+		} else {
+			allowedPairs = AllowedPairs.getDefault();
+		}
+		
 		Path debugDir = config.getFilePath("debug-dir");
 		try {
 			FileHelpers.processDirectory(debugDir, true, false);
@@ -344,8 +434,8 @@ public class ARFAnalysis {
 			return false;
 		}
 		
-		Path outDir = config.getFilePath("debug_arf-dir");
 		try {
+			FileHelpers.processDirectory(config.getFilePath("debug_arf-dir"), true, false);
 			FileHelpers.processDirectory(outDir, true, false);
 		} catch(Throwable t) {
 			logger.fatal("{}: Could not access arf output directory '{}'.",t,cn,
@@ -501,327 +591,274 @@ public class ARFAnalysis {
 		return ret;
 	}
 	
-	public boolean outResultsNormal(Set<ResultContainer> results) {
-		Set<ResultContainer> lower25 = new LinkedHashSet<>();
-		Set<ResultContainer> lower50 = new LinkedHashSet<>();
-		Set<ResultContainer> lower75 = new LinkedHashSet<>();
-		Set<ResultContainer> lower100 = new LinkedHashSet<>();
-		Set<ResultContainer> all100 = new LinkedHashSet<>();
+	static final String[] ratioBandFileNames = {"lower_25.txt", "lower_50.txt", "lower_75.txt", "lower_100.txt", 
+			"all_checks_missing.txt"};
+	private static final int allChecksMissingBand = 4;
+	
+	//Anything not in the ratio range (0,1) including empty results is counted as all checks missing
+	static int getRatioBand(ResultContainer r) {
+		double ratio = r.getRatio();
+		if(ratio > 0 && ratio <= 0.25)
+			return 0;
+		else if(ratio > 0.25 && ratio <= 0.5)
+			return 1;
+		else if(ratio > 0.5 && ratio <= 0.75)
+			return 2;
+		else if(ratio > 0.75 && ratio < 1)
+			return 3;
+		return allChecksMissingBand;
+	}
+	
+	//Writes all the result files in a single pass over the sorted results with each file written on its own thread
+	public boolean outResults(Set<ResultContainer> results) {
+		Path dir = outDir;
+		addPaths(results);
+		//Counted up front because the sizes come before the results in the files
+		int[] bandSizes = new int[ratioBandFileNames.length];
+		boolean hasPath = false;
 		for(ResultContainer r : results) {
-			if(r.getRatio() > 0 && r.getRatio() <= 0.25)
-				lower25.add(r);
-			else if(r.getRatio() > 0.25 && r.getRatio() <= 0.5)
-				lower50.add(r);
-			else if(r.getRatio() > 0.5 && r.getRatio() <= 0.75)
-				lower75.add(r);
-			else if(r.getRatio() > 0.75 && r.getRatio() < 1)
-				lower100.add(r);
-			else
-				all100.add(r);
+			bandSizes[getRatioBand(r)]++;
+			if(!hasPath && ResultsTsvWriter.isRow(r) && !r.getPath().isEmpty())
+				hasPath = true;
 		}
-		lower25 = SortingMethods.sortSet(lower25);
-		lower50 = SortingMethods.sortSet(lower50);
-		lower75 = SortingMethods.sortSet(lower75);
-		lower100 = SortingMethods.sortSet(lower100);
-		all100 = SortingMethods.sortSet(all100);
 		
-		Path summaryPath = FileHelpers.getPath(config.getFilePath("debug_arf-dir"), "summary.txt");
-		Path lower25Path = FileHelpers.getPath(config.getFilePath("debug_arf-dir"), "lower_25.txt");
-		Path lower50Path = FileHelpers.getPath(config.getFilePath("debug_arf-dir"), "lower_50.txt");
-		Path lower75Path = FileHelpers.getPath(config.getFilePath("debug_arf-dir"), "lower_75.txt");
-		Path lower100Path = FileHelpers.getPath(config.getFilePath("debug_arf-dir"), "lower_100.txt");
-		Path allChecksMissingPath = FileHelpers.getPath(config.getFilePath("debug_arf-dir"), "all_checks_missing.txt");
+		ResultFanOut fanOut = new ResultFanOut(1024);
+		fanOut.setMetrics(metrics);
+		Map<ResultContainer,GroupContainer> resultToGroup = null;
+		if(toGroup) {
+			resultToGroup = new ConcurrentHashMap<>();
+			//Inline so the group of each result is known before the TSV writes its row
+			fanOut.addInline(new GroupSummarySink(FileHelpers.getPath(dir, "summary.txt"), results.size(), resultToGroup));
+		} else {
+			for(int i = 0; i < ratioBandFileNames.length; i++)
+				fanOut.addBackground(new RatioBandSink(FileHelpers.getPath(dir, ratioBandFileNames[i]), i, bandSizes[i]));
+			fanOut.addBackground(new SummarySink(FileHelpers.getPath(dir, "summary.txt"), results.size(), bandSizes));
+		}
+		fanOut.addBackground(new ResultsTsvWriter(FileHelpers.getPath(dir, compressTSV ? "results.tsv.gz" : "results.tsv"), 
+				compressTSV, results.isEmpty() ? null : resultToGroup, hasPath));
+		fanOut.addBackground(new CallersWithMissingChecksSink(FileHelpers.getPath(dir, "callers_with_missing_checks.txt")));
+		fanOut.addBackground(new ResultStoreSink(getOutputFile("debug_arf-result-store-file")));
 		
 		try {
-			dumpResultsSet(all100,allChecksMissingPath);
+			fanOut.run(results);
 		} catch(Throwable t) {
-			logger.fatal("{}: Failed to output file '{}'",t,cn,allChecksMissingPath);
+			logger.fatal("{}: Failed to output the results.",t,cn);
 			return false;
 		}
-		try {
-			dumpResultsSet(lower25,lower25Path);
-		} catch(Throwable t) {
-			logger.fatal("{}: Failed to output file '{}'",t,cn,lower25Path);
-			return false;
+		return true;
+	}
+	
+	static abstract class FileSink implements ResultSink {
+		
+		protected final Path path;
+		private PrintStreamUnixEOL ps;
+		
+		public FileSink(Path path) {
+			this.path = path;
+			this.ps = null;
 		}
-		try {
-			dumpResultsSet(lower50,lower50Path);
-		} catch(Throwable t) {
-			logger.fatal("{}: Failed to output file '{}'",t,cn,lower50Path);
-			return false;
+		
+		@Override
+		public String getName() {
+			return path.toString();
 		}
-		try {
-			dumpResultsSet(lower75,lower75Path);
-		} catch(Throwable t) {
-			logger.fatal("{}: Failed to output file '{}'",t,cn,lower75Path);
-			return false;
+		
+		protected PrintStreamUnixEOL getStream() throws Exception {
+			if(ps == null) {
+				ps = new PrintStreamUnixEOL(new BufferedOutputStream(Files.newOutputStream(path), 1 << 16));
+				start(ps);
+			}
+			return ps;
 		}
-		try {
-			dumpResultsSet(lower100,lower100Path);
-		} catch(Throwable t) {
-			logger.fatal("{}: Failed to output file '{}'",t,cn,lower100Path);
-			return false;
+		
+		//Writes anything that comes before the results
+		protected void start(PrintStreamUnixEOL ps) throws Exception {}
+		
+		//Writes anything that comes after the results
+		protected void end(PrintStreamUnixEOL ps) throws Exception {}
+		
+		@Override
+		public void finish() throws Exception {
+			try {
+				end(getStream());
+			} finally {
+				if(ps != null)
+					ps.close();
+			}
+		}
+		
+	}
+	
+	private static final class RatioBandSink extends FileSink {
+		
+		private final int band;
+		private final int size;
+		
+		public RatioBandSink(Path path, int band, int size) {
+			super(path);
+			this.band = band;
+			this.size = size;
+		}
+		
+		@Override
+		protected void start(PrintStreamUnixEOL ps) {
+			ps.println("Size: " + size);
+		}
+		
+		@Override
+		public void accept(ResultContainer r) throws Exception {
+			if(getRatioBand(r) == band)
+				getStream().println(r);
+		}
+		
+	}
+	
+	static final class SummarySink extends FileSink {
+		
+		private final int total;
+		private final int[] bandSizes;
+		private final StringBuilder[] bands;
+		
+		public SummarySink(Path path, int total, int[] bandSizes) {
+			super(path);
+			this.total = total;
+			this.bandSizes = bandSizes;
+			this.bands = new StringBuilder[bandSizes.length];
+			for(int i = 0; i < bands.length; i++)
+				bands[i] = new StringBuilder();
+		}
+		
+		@Override
+		public void accept(ResultContainer r) {
+			bands[getRatioBand(r)].append("  (Missing, Ratio): (").append(r.getMissingChecks().size()).append(", ")
+				.append(r.getRatio()).append(") ").append(r.getCallerEp()).append(" ---> ").append(r.getTargetEp()).append('\n');
 		}
-		try(PrintStreamUnixEOL ps = new PrintStreamUnixEOL(Files.newOutputStream(summaryPath))) {
-			ps.println("Total: " + results.size());
-			ps.println("All Checks Missing: " + all100.size());
-			ps.println("(0,0.25] Ratio: " + lower25.size());
-			ps.println("(0.25,0.50] Ratio: " + lower50.size());
-			ps.println("(0.50,0.75] Ratio: " + lower75.size());
-			ps.println("(0.75,1) Ratio: " + lower100.size());
-			ps.println("Missing Some Checks: " + (lower100.size() + lower75.size() + lower50.size() 
-				+ lower25.size() + all100.size()));
+		
+		@Override
+		protected void end(PrintStreamUnixEOL ps) {
+			ps.println("Total: " + total);
+			ps.println("All Checks Missing: " + bandSizes[4]);
+			ps.println("(0,0.25] Ratio: " + bandSizes[0]);
+			ps.println("(0.25,0.50] Ratio: " + bandSizes[1]);
+			ps.println("(0.50,0.75] Ratio: " + bandSizes[2]);
+			ps.println("(0.75,1) Ratio: " + bandSizes[3]);
+			ps.println("Missing Some Checks: " + (bandSizes[3] + bandSizes[2] + bandSizes[1] + bandSizes[0] + bandSizes[4]));
 			
 			ps.println("\nAll Checks Missing:");
-			for(ResultContainer r : all100) {
-				ps.println("  (Missing, Ratio): (" + r.getMissingChecks().size() + ", " + r.getRatio() + ") " + r.getCallerEp() + " ---> " + r.getTargetEp());
-			}
-			
+			ps.print(bands[4]);
 			ps.println("(0.75,1) Ratio:");
-			for(ResultContainer r : lower100) {
-				ps.println("  (Missing, Ratio): (" + r.getMissingChecks().size() + ", " + r.getRatio() + ") " + r.getCallerEp() + " ---> " + r.getTargetEp());
-			}
-			
+			ps.print(bands[3]);
 			ps.println("\n(0.50,0.75] Ratio:");
-			for(ResultContainer r : lower75) {
-				ps.println("  (Missing, Ratio): (" + r.getMissingChecks().size() + ", " + r.getRatio() + ") " + r.getCallerEp() + " ---> " + r.getTargetEp());
-			}
-			
+			ps.print(bands[2]);
 			ps.println("\n(0.25,0.50] Ratio:");
-			for(ResultContainer r : lower50) {
-				ps.println("  (Missing, Ratio): (" + r.getMissingChecks().size() + ", " + r.getRatio() + ") " + r.getCallerEp() + " ---> " + r.getTargetEp());
-			}
-			
+			ps.print(bands[1]);
 			ps.println("\n(0,0.25] Ratio:");
-			for(ResultContainer r : lower25) {
-				ps.println("  (Missing, Ratio): (" + r.getMissingChecks().size() + ", " + r.getRatio() + ") " + r.getCallerEp() + " ---> " + r.getTargetEp());
-			}
-		} catch(Throwable t) {
-			logger.fatal("{}: Failed to output file '{}'",t,cn,summaryPath);
-			return false;
+			ps.print(bands[0]);
 		}
-		return true;
+		
 	}
 	
-	public boolean outTSV(Set<ResultContainer> results, Map<ResultContainer,GroupContainer> resultToGroup) {
-		Map<EntryPointNode,Map<EntryPointNode,Set<ResultContainer>>> callerToTargetToResults = new HashMap<>();
-		for(ResultContainer r : results) {
-			if(!r.isEmptyResult() && r.getRatio() != 0.0) {
-				EntryPointNode caller = r.getCallerEp();
-				EntryPointNode target = r.getTargetEp();
-				Map<EntryPointNode,Set<ResultContainer>> targetToResults = callerToTargetToResults.get(caller);
-				if(targetToResults == null) {
-					targetToResults = new HashMap<>();
-					callerToTargetToResults.put(caller, targetToResults);
-				}
-				Set<ResultContainer> rtemp = targetToResults.get(target);
-				if(rtemp == null) {
-					rtemp = new HashSet<>();
-					targetToResults.put(target, rtemp);
-				}
-				rtemp.add(r);
-			}
-		}
-		for(EntryPointNode caller : callerToTargetToResults.keySet()) {
-			Map<EntryPointNode, Set<ResultContainer>> targetToResults = callerToTargetToResults.get(caller);
-			for(EntryPointNode target : targetToResults.keySet()) {
-				targetToResults.put(target, SortingMethods.sortSet(targetToResults.get(target), new ResultContainer.SortByDoubletRatio()));
-			}
-			callerToTargetToResults.put(caller, SortingMethods.sortMapKeyAscending(targetToResults));
-		}
-		callerToTargetToResults = SortingMethods.sortMapKeyAscending(callerToTargetToResults);
+	static final class GroupSummarySink extends FileSink {
 		
-		Pattern permPattern = Pattern.compile("^`\"([^`\"]+)\"`$");
-		Path tsvPath = FileHelpers.getPath(config.getFilePath("debug_arf-dir"), "results.tsv");
-		try(PrintStreamUnixEOL ps = new PrintStreamUnixEOL(Files.newOutputStream(tsvPath))) {
-			if(resultToGroup != null && !resultToGroup.isEmpty()) {
-				ps.print("Group\t");
-			}
-			boolean hasPath = false;
-			for(EntryPointNode caller : callerToTargetToResults.keySet()) {
-				Map<EntryPointNode,Set<ResultContainer>> targetToResults = callerToTargetToResults.get(caller);
-				for(EntryPointNode target : targetToResults.keySet()) {
-					for(ResultContainer r : targetToResults.get(target)) {
-						List<EntryPointNode> path = r.getPath();
-						if(path != null && !path.isEmpty()) {
-							hasPath = true;
-							break;
-						}
-					}
-					if(hasPath)
-						break;
-				}
-				if(hasPath)
-					break;
-			}
-			
-			ps.print("Ratio\tCaller Stub\tCaller Service\tCaller Name\tCaller Signature\tTarget Stub\tTarget Service\tTarget Name\tTarget Signature\tMissingChecks\tSources");
-			if(hasPath)
-				ps.print("\tPath");
-			ps.print("\r");
-			for(EntryPointNode caller : callerToTargetToResults.keySet()) {
-				Map<EntryPointNode,Set<ResultContainer>> targetToResults = callerToTargetToResults.get(caller);
-				for(EntryPointNode target : targetToResults.keySet()) {
-					for(ResultContainer r : targetToResults.get(target)) {
-						if(resultToGroup != null && !resultToGroup.isEmpty()) {
-							ps.print(resultToGroup.get(r).getName() + "\t");
-						}
-						ps.print(r.getRatio() + "\t");
-						
-						ps.print(caller.getStub().getSignature() + "\t");
-						ps.print(caller.getEntryPoint().getDeclaringClass() + "\t");
-						ps.print(caller.getEntryPoint().getName() + "\t");
-						ps.print(caller.getEntryPoint().getSignature() + "\t");
-						
-						/*StringBuilder callerString = new StringBuilder();
-						callerString.append("\"");
-						callerString.append("Class: ").append(caller.getDeclaringClass()).append("\n");
-						callerString.append("Name: ").append(caller.getName()).append("\n");
-						callerString.append("RetType: ").append(caller.getReturnType()).append("\n");
-						callerString.append("ArgTypes:");
-						for(String arg : caller.getArgumentTypes()) {
-							callerString.append("\n  ").append(arg);
-						}
-						callerString.append("\"");
-						ps.print(callerString.toString() + "\t");*/
-						
-						ps.print(target.getStub().getSignature() + "\t");
-						ps.print(target.getEntryPoint().getDeclaringClass() + "\t");
-						ps.print(target.getEntryPoint().getName() + "\t");
-						ps.print(target.getEntryPoint().getSignature() + "\t");
-						
-						/*StringBuilder targetString = new StringBuilder();
-						targetString.append("\"");
-						targetString.append("Class: ").append(target.getDeclaringClass()).append("\n");
-						targetString.append("Name: ").append(target.getName()).append("\n");
-						targetString.append("RetType: ").append(target.getReturnType()).append("\n");
-						targetString.append("ArgTypes:");
-						for(String arg : target.getArgumentTypes()) {
-							targetString.append("\n  ").append(arg);
-						}
-						targetString.append("\"");
-						ps.print(targetString.toString() + "\t");*/
-						
-						
-						StringBuilder missingChecks = new StringBuilder();
-						StringBuilder sources = new StringBuilder();
-						missingChecks.append("\"");
-						sources.append("\"");
-						boolean first = true;
-						for(Doublet d : SortingMethods.sortSet(r.getMissingChecks())) {
-							String s = d.toString();
-							Matcher m = permPattern.matcher(s);
-							if(m.matches()) {
-								s = m.group(1);
-							} else {
-								s = s.replace('"', '\'').replace("`", "");
-							}
-							if(first) {
-								first = false;
-							} else {
-								missingChecks.append("\n");
-								sources.append("\n");
-							}
-							missingChecks.append(s);
-							sources.append(s);
-							for(SootMethodContainer source : SortingMethods.sortSet(d.getSourceMethodContainers())) {
-								sources.append("\n  ").append(source.getDeclaringClass()).append(" : ").append(source.getName());
-							}
-						}
-						missingChecks.append("\"");
-						sources.append("\"");
-						ps.print(missingChecks.toString() + "\t");
-						ps.print(sources.toString() + "\t");
-						
-						StringBuilder pathStr = new StringBuilder();
-						first = true;
-						pathStr.append("\"");
-						for(EntryPointNode s : r.getPath()) {
-							if(first) {
-								first = false;
-							} else {
-								pathStr.append("\n");
-							}
-							pathStr.append(s);
-						}
-						pathStr.append("\"");
-						ps.print(pathStr.toString() + "\r");
-						
-					}
-				}
-			}
-		} catch(Throwable t) {
-			logger.fatal("{}: Failed to output file '{}'",t,cn,tsvPath);
-			return false;
+		private final int total;
+		private final Map<ResultContainer,GroupContainer> resultToGroup;
+		private final Map<Set<Doublet>,GroupContainer> missingChecksToGroup;
+		
+		public GroupSummarySink(Path path, int total, Map<ResultContainer,GroupContainer> resultToGroup) {
+			super(path);
+			this.total = total;
+			this.resultToGroup = resultToGroup;
+			this.missingChecksToGroup = new HashMap<>();
 		}
-		return true;
-	}
-	
-	public Map<ResultContainer,GroupContainer> outResultsGroup(Set<ResultContainer> results) {
-		Map<Set<Doublet>,GroupContainer> missingChecksToGroup = new HashMap<>();
-		Map<ResultContainer,GroupContainer> ret = new HashMap<>();
-		for(ResultContainer r : results) {
+		
+		@Override
+		public void accept(ResultContainer r) throws Exception {
 			Set<Doublet> missingChecks = r.getMissingChecks();
 			GroupContainer g = missingChecksToGroup.get(missingChecks);
 			if(g == null) {
 				try {
-				g = new GroupContainer(FileHelpers.getHashOfString("MD5", missingChecks.toString()), missingChecks);
+					g = new GroupContainer(FileHelpers.getHashOfString("MD5", missingChecks.toString()), missingChecks);
 				} catch(Throwable t) {
-					logger.fatal("{}: Exception when generating group name for {}",t,cn,missingChecks.toString());
-					return null;
+					throw new Exception("Error: Exception when generating group name for " + missingChecks.toString(), t);
 				}
 				missingChecksToGroup.put(missingChecks, g);
 			}
 			g.addResult(r);
-			ret.put(r, g);
+			resultToGroup.put(r, g);
 		}
-		Set<GroupContainer> groups = new HashSet<>();
-		for(GroupContainer g : missingChecksToGroup.values()) {
-			g.finalizeData();
-			groups.add(g);
-		}
-		groups = SortingMethods.sortSet(groups);
 		
-		Path summaryPath = FileHelpers.getPath(config.getFilePath("debug_arf-dir"), "summary.txt");
-		try(PrintStreamUnixEOL ps = new PrintStreamUnixEOL(Files.newOutputStream(summaryPath))) {
-			ps.println("Total: " + results.size());
-			ps.println("Some Missing Checks: " + results.size());
+		@Override
+		protected void end(PrintStreamUnixEOL ps) {
+			Set<GroupContainer> groups = new HashSet<>();
+			for(GroupContainer g : missingChecksToGroup.values()) {
+				g.finalizeData();
+				groups.add(g);
+			}
+			groups = SortingMethods.sortSet(groups);
+			ps.println("Total: " + total);
+			ps.println("Some Missing Checks: " + total);
 			ps.println("Groups: " + groups.size());
-			
 			for(GroupContainer g : groups) {
 				ps.print(g.toString());
 			}
-			
-		} catch(Throwable t) {
-			logger.fatal("{}: Failed to output file '{}'",t,cn,summaryPath);
-			return null;
 		}
 		
-		return ret;
 	}
 	
-	private boolean outputCallersWithMissingChecks(Set<ResultContainer> results) {
-		Path callersWithMissingChecksPath = FileHelpers.getPath(config.getFilePath("debug_arf-dir"), "callers_with_missing_checks.txt");
-		Set<EntryPointNode> callers = new HashSet<>();
-		for(ResultContainer r : results) {
+	private static final class CallersWithMissingChecksSink extends FileSink {
+		
+		private final Set<EntryPointNode> callers;
+		
+		public CallersWithMissingChecksSink(Path path) {
+			super(path);
+			this.callers = new HashSet<>();
+		}
+		
+		@Override
+		public void accept(ResultContainer r) {
 			if(!r.isEmptyResult() && r.getRatio() != 0.0)
 				callers.add(r.getCallerEp());
 		}
-		try(PrintStreamUnixEOL ps = new PrintStreamUnixEOL(Files.newOutputStream(callersWithMissingChecksPath))) {
+		
+		@Override
+		protected void end(PrintStreamUnixEOL ps) {
 			for(EntryPointNode sc : callers) {
 				ps.println(sc);
 			}
-		} catch(Throwable t) {
-			logger.fatal("{}: Failed to output file '{}'",t,cn,callersWithMissingChecksPath);
-			return false;
 		}
-		return true;
+		
+	}
+	
+	//The removed results were added to the store by the filter stages
+	private final class ResultStoreSink implements ResultSink {
+		
+		private final Path path;
+		
+		public ResultStoreSink(Path path) {
+			this.path = path;
+		}
+		
+		@Override
+		public String getName() {
+			return path.toString();
+		}
+		
+		@Override
+		public void accept(ResultContainer r) {
+			resultStore.addKept(r);
+		}
+		
+		@Override
+		public void finish() throws Exception {
+			resultStore.write(path);
+		}
+		
 	}
 	
 	private boolean outputCallersWithNoPermissionChecks(Set<ResultContainer> results, Map<EntryPointNode, Set<Doublet>> epsToAuthLogicPermOnly) {
-		Path callersWithNoPermissionChecks = FileHelpers.getPath(config.getFilePath("debug_arf-dir"), "callers_with_no_permission_checks.txt");
-		Path callersWithNoPermissionChecksWithSources = FileHelpers.getPath(config.getFilePath("debug_arf-dir"), "callers_with_no_permission_checks_with_sources.txt");
-		Map<EntryPointNode, Set<Doublet>> epsToAuthLogic = getEpsToAuthLogic(acminerDB.getValuePairs());
+		Path callersWithNoPermissionChecks = FileHelpers.getPath(outDir, "callers_with_no_permission_checks.txt");
+		Path callersWithNoPermissionChecksWithSources = FileHelpers.getPath(outDir, "callers_with_no_permission_checks_with_sources.txt");
+		Map<EntryPointNode, Set<Doublet>> epsToAuthLogic = shared.epsToAuthLogic;
 		Set<EntryPointNode> callers = new HashSet<>();
 		for(ResultContainer r : results) {
 			Set<Doublet> ds = epsToAuthLogicPermOnly.get(r.getCallerEp());
@@ -873,13 +910,16 @@ public class ARFAnalysis {
 		return true;
 	}
 	
-	private void outputGraph(Map<EntryPointNode, Set<EntryPointNode>> allEpsToEps) {
-		ReachingCGTransformer trans = new ReachingCGTransformer(ieepsDB);
+	private void outputGraph(EntryPointClosure closure) {
+		EntryPointGraph graph = closure.getGraph();
+		ReachingCGTransformer trans = new ReachingCGTransformer(dataAccessor.getEntryPointEdgesDB());
 		trans.transform();
 		trans.setExtraDataToCallSources();
 		int i = 0;
-		for(EntryPointNode ep : SortingMethods.sortSet(allEpsToEps.keySet())) {
-			if(!allEpsToEps.get(ep).isEmpty()) {
+		for(int rank = 0; rank < graph.size(); rank++) {
+			int id = graph.getIdByRank(rank);
+			if(id < graph.getSourceCount() && closure.getTargetCount(id) > 0) {
+				EntryPointNode ep = graph.getNode(id);
 				Map<EntryPointNode,List<Color>> colorMap = new HashMap<>();
 				colorMap.put(ep, Collections.singletonList(Color.GREEN));
 				long nodeColorIndex = trans.applyColorsToNodes(colorMap);
@@ -891,8 +931,8 @@ public class ARFAnalysis {
 		}
 	}
 	
-	private void outputWholeGraph(Map<EntryPointNode, Set<EntryPointNode>> directlyCalledEpsForEps) {
-		MultiPathCGTransformer trans = new MultiPathCGTransformer(directlyCalledEpsForEps);
+	private void outputWholeGraph(EntryPointGraph graph) {
+		MultiPathCGTransformer trans = new MultiPathCGTransformer(graph);
 		trans.transform();
 		Path out = FileHelpers.getPath(config.getFilePath("debug_arf-graph-dir"),"whole_graph.graphml");
 		MultiPathCGFormatter formatter = new MultiPathCGFormatter(trans,out);
@@ -938,25 +978,73 @@ public class ARFAnalysis {
 		try {
 			logger.info("{}: Starting the cross entry points analysis.",cn);
 			
-			Map<EntryPointNode, Set<EntryPointNode>> allEpsToEps;
-			Map<EntryPointNode,Map<EntryPointNode,List<EntryPointNode>>> callerToTargetToPath;
+			if(dataAccessor == null && ((reachingGraph && !singleHop) || removeDeputyTargetChecks || removeTargetsPartOfChecks 
+					|| (singleHop && removeSameCallingId) || removeSpecialCallersRequired || removeAlreadyHandelingMultiUser)) {
+				logger.fatal("{}: The data source '{}' does not provide the ACMiner databases needed by the enabled options.",
+						cn,source);
+				return false;
+			}
+			
+			RunManifest manifest = null;
+			int resumeCheck = 0;
+			if(incremental) {
+				manifest = getRunManifest();
+				if(manifest == null)
+					return false;
+				int check = getFirstChangedCheck(manifest);
+				if(reuseLastRun(manifest, check)) {
+					logger.info("{}: The inputs are unchanged since the last run. Reusing its outputs.",cn);
+					return true;
+				}
+				if(check >= firstResumableCheck && check <= lastCheck)
+					resumeCheck = check;
+			}
+			
+			if(threads > 1) {
+				pool = new ForkJoinPool(threads);
+				logger.info("{}: Using {} worker threads.",cn,threads);
+			}
+			if(filterThreads > 1) {
+				filterPool = new ForkJoinPool(filterThreads);
+				logger.info("{}: Using {} worker threads for the result filters.",cn,filterThreads);
+			}
+			
+			if(shared.graph == null) {
+				if(snapshotClosure && !loadClosureSnapshot())
+					return false;
+				if(shared.graph == null)
+					shared.graph = source.getGraph();
+			}
+			EntryPointGraph graph = shared.graph;
+			EntryPointClosure closure;
 			if(singleHop) {
-				allEpsToEps = getDirectlyCalledEpsForEps();
-				callerToTargetToPath = null;
+				closure = null;
 			} else {
-				callerToTargetToPath = getAllEpsForEps();
-				allEpsToEps = new LinkedHashMap<>();
-				for(EntryPointNode caller : callerToTargetToPath.keySet())
-					allEpsToEps.put(caller, new LinkedHashSet<>(callerToTargetToPath.get(caller).keySet()));
+				if(shared.closure == null) {
+					StageScope stage = beginStage("closure", true);
+					shared.closure = getClosure(graph);
+					if(shared.closure != null && stage.isRecording()) {
+						long pairs = 0;
+						for(int i = 0; i < graph.getSourceCount(); i++)
+							pairs += shared.closure.getTargetCount(i);
+						stage.end(graph.getSourceCount(), pairs);
+					}
+				}
+				closure = shared.closure;
+				if(closure == null)
+					return false;
 			}
-			Map<EntryPointNode, Set<Doublet>> epsToAuthLogic = getEpsToAuthLogic(acminerDB.getValuePairs());
+			this.closure = closure;
+			if(shared.epsToAuthLogic == null)
+				shared.epsToAuthLogic = source.getEpsToAuthLogic();
+			Map<EntryPointNode, Set<Doublet>> epsToAuthLogic = shared.epsToAuthLogic;
 			
-			if(reachingGraph && !singleHop) {
-				outputGraph(allEpsToEps);
+			if(reachingGraph && !singleHop && resumeCheck == 0) {
+				outputGraph(closure);
 			}
 			
-			if(wholeGraph && singleHop) {
-				outputWholeGraph(allEpsToEps);
+			if(wholeGraph && singleHop && resumeCheck == 0) {
+				outputWholeGraph(graph);
 			}
 			
 			if(onlyPerm) {
@@ -965,155 +1053,230 @@ public class ARFAnalysis {
 				epsToAuthLogic = keepOnlyPermString(epsToAuthLogic);
 			}
 			
+			//Always set as an earlier profile may have changed it
 			if(!onlyPerm && !onlyPermString)
 				ResultContainer.setComp(new ResultContainer.SortByRatioMissingCheckSizeCallerTarget());
+			else
+				ResultContainer.setComp(new ResultContainer.SortByCallerTargetDoubletRatio());
 			
-			Set<ResultContainer> results = new HashSet<>();
-			for(EntryPointNode ep : epsToAuthLogic.keySet()) {
-				Set<Doublet> authLogic = epsToAuthLogic.get(ep);
-				Set<EntryPointNode> targets = allEpsToEps.get(ep);
-				if(targets == null || targets.isEmpty()) {
-					results.add(new ResultContainer(ep));
-				} else {
-					for(EntryPointNode target : targets) {
-						Set<Doublet> targetAuthLogic = epsToAuthLogic.get(target);
-						Set<Doublet> difference = new HashSet<>(targetAuthLogic);
-						difference.removeAll(authLogic);
-						double ratio = 0;
-						if(!difference.isEmpty())
-							ratio = (double)(difference.size()) / (double)(targetAuthLogic.size());
-						List<EntryPointNode> path = null;
-						if(callerToTargetToPath != null) {
-							Map<EntryPointNode,List<EntryPointNode>> targetToPath = callerToTargetToPath.get(ep);
-							if(targetToPath != null) {
-								path = targetToPath.get(target);
-							}
-						}
-						results.add(new ResultContainer(ep, target, difference, ratio, path));
-					}
-				}
-			}
-			
-			logger.info("{}: Size of results check 1 {}",cn,results.size());
-			
-			if(onlyPermString && onlyUserPerm) {
-				results = keepOnlyCallersAccessableByThirdParties(results,epsToAuthLogic);
-				if(results == null)
-					return false;
-			}
-			
-			logger.info("{}: Size of results check 2 {}",cn,results.size());
-			
-			if(onlyCallerRes) {
-				results = removeAllCallersWithSystemOnlyCallerRestrictions(results);
-				if(results == null)
-					return false;
-			}
-			
-			logger.info("{}: Size of results check 3 {}",cn,results.size());
+			DoubletTable doubletTable = DoubletTable.build(epsToAuthLogic);
+			logger.info("{}: Interned {} unique doublets.",cn,doubletTable.size());
 			
-			if(onlyRegisteredCallers) {
-				results = keepOnlyCallersWithRegisteredServices(results);
+			resultStore = new ResultStoreWriter();
+			Set<ResultContainer> results;
+			if(resumeCheck > 0) {
+				logger.info("{}: Only the inputs of check {} on changed. Resuming from the results of the last run.",cn,
+						resumeCheck);
+				results = loadResultsBefore(resumeCheck, graph, doubletTable);
 				if(results == null)
 					return false;
-			}
-			
-			logger.info("{}: Size of results check 4 {}",cn,results.size());
-			
-			if(onlyResultsReachingOthers) {
-				logger.info("{}: Size of results before results that reach other results {}",cn,results.size());
-				results = keepOnlyResultsThatReachOtherResults(results,epsToAuthLogic);
+			} else {
+				StageScope resultsStage = beginStage("results", true);
+				results = getResults(new ArrayList<>(epsToAuthLogic.keySet()), graph, closure, doubletTable);
+				resultsStage.end(epsToAuthLogic.size(), results.size());
+				
+				logger.info("{}: Size of results check 1 {}",cn,results.size());
+				
+				final Map<EntryPointNode, Set<Doublet>> fEpsToAuthLogic = epsToAuthLogic;
+				ResultFilterChain chain = new ResultFilterChain();
+				chain.setMetrics(metrics);
+				if(onlyPermString && onlyUserPerm) {
+					chain.add(2, new AbstractResultFilter("callers_with_system_permissions.txt", false) {
+						@Override
+						public boolean keep(ResultContainer r) {
+							return keepIfCallerAccessableByThirdParties(r, fEpsToAuthLogic, systemAndroidManifest, 
+									callerToThirdPartyAccessable);
+						}
+					});
+				}
+				if(onlyCallerRes) {
+					chain.add(3, new AbstractResultFilter("callers_with_system_restrictions.txt", false) {
+						@Override
+						public boolean keep(ResultContainer r) {
+							return keepIfCallerHasNoSystemOnlyCallerRestrictions(r, onlyCallerRestrictions);
+						}
+					});
+				}
+				if(onlyRegisteredCallers) {
+					chain.add(4, new AbstractResultFilter("callers_in_unregistered_services.txt", false) {
+						@Override
+						public boolean keep(ResultContainer r) {
+							return keepIfCallerInRegisteredService(r, registeredServices);
+						}
+					});
+				}
+				results = filterResults(chain, results, 2, 4);
 				if(results == null)
 					return false;
-				logger.info("{}: Size of results after results that reach other results {}",cn,results.size());
-			}
-			
-			logger.info("{}: Size of results check 5 {}",cn,results.size());
-			
-			results = removeEmptyResults(results);
-			if(results == null)
-				return false;
-			
-			logger.info("{}: Size of results check 6 {}",cn,results.size());
-			
+				
+				if(onlyResultsReachingOthers) {
+					logger.info("{}: Size of results before results that reach other results {}",cn,results.size());
+					Set<ResultContainer> before = results;
+					StageScope stage = beginStage("results_not_reaching_other_results", true);
+					results = keepOnlyResultsThatReachOtherResults(results,doubletTable);
+					if(results == null)
+						return false;
+					stage.end(before.size(), results.size());
+					Set<ResultContainer> removed = new LinkedHashSet<>(before);
+					removed.removeAll(results);
+					resultStore.addRemoved(resultStore.addStage(5, "results_not_reaching_other_results"), SortingMethods.sortSet(removed));
+					logger.info("{}: Size of results after results that reach other results {}",cn,results.size());
+				}
+				
+				logger.info("{}: Size of results check 5 {}",cn,results.size());
+			}
+			
+			if(shared.deputyToTargetToSources == null)
+				shared.deputyToTargetToSources = source.getDeputyToTargetToSources();
+			final Map<EntryPointNode,Map<EntryPointNode,Set<SootUnitContainer>>> deputyToTargetToSources = shared.deputyToTargetToSources;
+			if(removeSpecialCallersRequired)
+				firstIfVerdicts = loadFirstIfVerdicts();
+			if(removeSpecialCallersRequired || removeAlreadyHandelingMultiUser)
+				reachabilityCache = new DeputyReachabilityCache(dataAccessor, Scene.v().getCallGraph(), reachCacheMB * 1024L * 1024L, 
+						bodyLock);
+			final EntryPointClosure fClosure = closure;
+			
+			ResultFilterChain chain = new ResultFilterChain();
+			chain.setMetrics(metrics);
+			chain.add(6, new AbstractResultFilter("no_secondary_eps.txt", false) {
+				@Override
+				public boolean keep(ResultContainer r) {
+					return keepIfHasTarget(r);
+				}
+			});
+			chain.add(6, new AbstractResultFilter("no_missing_checks.txt", false) {
+				@Override
+				public boolean keep(ResultContainer r) {
+					return keepIfHasMissingChecks(r);
+				}
+			});
+			//The stages that need methods, bodies, units, or exclude handlers from Soot build them in prepare on
+			//the calling thread as Soot is not thread safe and only read them in keep
 			if(removeDeputyTargetChecks) {
-				results = removeDeputyTargetChecks(results);
-				if(results == null)
-					return false;
+				chain.addPrepared(7, new AbstractResultFilter("removed_paths_deputy_target_are_checks.txt", true) {
+					@Override
+					public void prepare(ResultContainer r) {
+						getSootMethod(r.getCallerEp().getEntryPoint());
+						getSootMethod(r.getTargetEp().getEntryPoint());
+					}
+					@Override
+					public boolean keep(ResultContainer r) {
+						return keepIfDeputyTargetNotChecks(r);
+					}
+				});
 			}
-			
-			logger.info("{}: Size of results check 7 {}",cn,results.size());
-			
-			Map<EntryPointNode,Map<EntryPointNode,Set<SootUnitContainer>>> deputyToTargetToSources = getsourcesForSingleEdgePaths();
-			
 			if(removeTargetsPartOfChecks) {
-				results = removeTargetsUsedInChecks(results,callerToTargetToPath,deputyToTargetToSources);
-				if(results == null)
-					return false;
+				chain.addPrepared(8, new AbstractResultFilter("removed_paths_target_part_of_checks.txt", true) {
+					@Override
+					public void prepare(ResultContainer r) {
+						prepareTargetNotUsedInChecks(r, fClosure, deputyToTargetToSources);
+					}
+					@Override
+					public boolean keep(ResultContainer r) {
+						return keepIfTargetNotUsedInChecks(r, fClosure, deputyToTargetToSources);
+					}
+				});
 			}
-			
-			logger.info("{}: Size of results check 8 {}",cn,results.size());
-			
 			if(singleHop && removeSameCallingId) {
-				results = removeAllSameCallingIdentity(results,deputyToTargetToSources);
-				if(results == null)
-					return false;
+				chain.addPrepared(9, new AbstractResultFilter("removed_paths_with_same_calling_id.txt", true) {
+					@Override
+					public void prepare(ResultContainer r) {
+						prepareNotSameCallingIdentity(r, deputyToTargetToSources);
+					}
+					@Override
+					public boolean keep(ResultContainer r) {
+						return keepIfNotSameCallingIdentity(r, deputyToTargetToSources);
+					}
+				});
 			}
-			
-			logger.info("{}: Size of results check 9 {}",cn,results.size());
-			
 			if(removeGlobalSettingsNoise) {
-				results = removeGlobalSettingsNoise(results);
-				if(results == null)
-					return false;
+				chain.add(10, new AbstractResultFilter("removed_global_settings_noise.txt", true) {
+					@Override
+					public boolean keep(ResultContainer r) {
+						return keepIfNotGlobalSettingsNoise(r, allowedPairs);
+					}
+				});
 			}
-			
-			logger.info("{}: Size of results check 10 {}",cn,results.size());
-			
 			if(removeSpecialCallersRequired) {
-				results = removeIfProtectedBySpecialCallerContextQueries(results);
-				if(results == null)
-					return false;
-				results = removeIfFirstIfIsSystemRestricting(results);
-				if(results == null)
-					return false;
+				chain.addPrepared(11, new AbstractResultFilter("removed_if_protected_by_special_callers.txt", true) {
+					@Override
+					public void prepare(ResultContainer r) {
+						if(!allowedPairs.contains(r.getCallerEp(), r.getTargetEp()) 
+								&& getSpecialCallerContextQueries(r.getCallerEp(), r.getTargetEp()) != null)
+							reachabilityCache.prepare(r.getCallerEp());
+					}
+					@Override
+					public boolean keep(ResultContainer r) {
+						return keepIfNotProtectedBySpecialCallerContextQueries(r);
+					}
+				});
+				chain.addPrepared(11, new AbstractResultFilter("removed_if_first_if_is_system_restricting.txt", true) {
+					@Override
+					public void prepare(ResultContainer r) {
+						prepareFirstIfIsNotSystemRestricting(r);
+					}
+					@Override
+					public boolean keep(ResultContainer r) {
+						return keepIfFirstIfIsNotSystemRestricting(r);
+					}
+				});
 			}
-			
-			logger.info("{}: Size of results check 11 {}",cn,results.size());
-			
 			if(removeAlreadyHandelingMultiUser) {
-				results = removeAlreadyHandelingMultiUser(results);
-				if(results == null)
-					return false;
+				chain.addPrepared(12, new AbstractResultFilter("removed_handle_multi_user_already.txt", true) {
+					@Override
+					public void prepare(ResultContainer r) {
+						if(!allowedPairs.contains(r.getCallerEp(), r.getTargetEp()) && isMissingOnlyMultiUserChecks(r.getMissingChecks()))
+							reachabilityCache.prepare(r.getCallerEp());
+					}
+					@Override
+					public boolean keep(ResultContainer r) {
+						return keepIfNotAlreadyHandelingMultiUser(r);
+					}
+				});
 			}
-			
-			logger.info("{}: Size of results check 12 {}",cn,results.size());
-			
 			if(removeMultiUserNotNeeded) {
-				results = removeMultiUserNotNeeded(results);
-				if(results == null)
-					return false;
+				chain.add(13, new AbstractResultFilter("removed_multi_user_not_needed.txt", true) {
+					@Override
+					public boolean keep(ResultContainer r) {
+						return keepIfMultiUserNeeded(r, allowedPairs, methodToArgNames);
+					}
+				});
 			}
+			boolean verdictsWritten;
+			try {
+				chain.removeChecksBefore(resumeCheck);
+				results = filterResults(chain, results, Math.max(firstResumableCheck, resumeCheck), lastCheck);
+			} finally {
+				//Written even when a stage failed so the verdicts computed before it are not lost
+				verdictsWritten = writeFirstIfVerdicts();
+			}
+			//Only the filters use the exclude handlers
+			excludeHandlers.clear();
+			if(results == null || !verdictsWritten)
+				return false;
 			
-			logger.info("{}: Size of results check 13 {}",cn,results.size());
-			
-			boolean ret = false;
-			Map<ResultContainer,GroupContainer> resultToGroup = null;
+			StageScope sortStage = beginStage("sort", false);
 			results = SortingMethods.sortSet(results);
-			if(!toGroup) {
-				ret = outResultsNormal(results);
-			} else {
-				resultToGroup = outResultsGroup(results);
-				if(resultToGroup != null)
-					ret = true;
-			}
-			
-			if(ret)
-				ret = outTSV(results,resultToGroup);
-			if(ret)
-				ret = outputCallersWithMissingChecks(results);
+			sortStage.end(results.size(), results.size());
+			ARFEvents.StageEvent outEvent = beginStageEvent();
+			boolean ret = outResults(results);
 			if(ret && (onlyPerm || onlyPermString))
 				ret = outputCallersWithNoPermissionChecks(results, epsToAuthLogic);
+			endStageEvent(outEvent, "output", results.size(), results.size());
+			
+			if(reachabilityCache != null)
+				logger.info("{}: Deputy reachability cache - Methods: {}, Hits: {}, Misses: {}, Evictions: {}",cn,
+						reachabilityCache.getMethodCount(),reachabilityCache.getHits(),reachabilityCache.getMisses(),
+						reachabilityCache.getEvictions());
+			
+			logger.info("{}: Method analysis cache - Methods: {}, Hits: {}, Misses: {}",cn,
+					methodCache.size(),methodCache.getHits(),methodCache.getMisses());
+			
+			if(ret && metrics != null)
+				ret = writeMetrics();
+			
+			if(ret && manifest != null)
+				ret = writeRunManifest(manifest);
 			
 			if(ret)
 				logger.info("{}: Finished the cross entry points analysis.",cn);
@@ -1121,591 +1284,678 @@ public class ARFAnalysis {
 		} catch(Throwable t) {
 			logger.fatal("{}: Unexpected error occured during the cross entry points analysis.",t,cn);
 			return false;
+		} finally {
+			if(pool != null) {
+				pool.shutdown();
+				pool = null;
+			}
+			if(filterPool != null) {
+				filterPool.shutdown();
+				filterPool = null;
+			}
 		}
 	}
 	
-	private Set<ResultContainer> removeMultiUserNotNeeded(Set<ResultContainer> results) {
-		Set<ResultContainer> ret = new LinkedHashSet<>();
-		Set<ResultContainer> removed = new LinkedHashSet<>();
-		Pattern pat = Pattern.compile("(?i)^(?:(?:target|)user(?:id|handle|))$|^uid$");
-		for(ResultContainer r : results) {
-			EntryPointNode deputy = r.getCallerEp();
-			EntryPointNode target = r.getTargetEp();
-			
-			boolean found = false;
-			for(Pair<String,String> p : allowedPairs) {
-				if(p.getFirst().equals(deputy.getEntryPoint().getSignature()) && p.getSecond().equals(target.getEntryPoint().getSignature())) {
-					ret.add(r);
-					found = true;
-					break;
+	//Writes out what each stage of a check removed as soon as the check is done, stopping the chain before the
+	//next check if a stage removed a known vulnerable path
+	private Set<ResultContainer> filterResults(final ResultFilterChain chain, Set<ResultContainer> results, 
+			final int firstCheck, int lastCheck) {
+		final int inputSize = results.size();
+		ARFEvents.StageEvent event = beginStageEvent();
+		ResultFilterChain.CheckListener listener = new ResultFilterChain.CheckListener() {
+			private int nextCheck = firstCheck;
+			private int i = 0;
+			@Override
+			public boolean checkDone(int check) {
+				for(; i < chain.size() && chain.getCheck(i) == check; i++) {
+					ResultFilter filter = chain.getFilter(i);
+					Set<ResultContainer> removed = SortingMethods.sortSet(chain.getRemoved(i));
+					addPaths(removed);
+					Path out = FileHelpers.getPath(outDir, filter.getRemovedFileName());
+					try {
+						dumpResultsSet(removed, out);
+					} catch(Throwable t) {
+						logger.fatal("{}: Failed to output file '{}'",t,cn,out);
+						return false;
+					}
+					resultStore.addRemoved(resultStore.addStage(check, chain.getStageName(i)), removed);
+					if(filter.isCheckedForKnownVulns() && !testIfKnownVulnWereRemoved(removed))
+						return false;
 				}
+				logSizesUpTo(check);
+				return true;
 			}
-			if(found)
-				continue;
-			
-			Set<Doublet> missingChecks = r.getMissingChecks();
-			boolean[] tests = {false,false,false,false,false};
-			for(Doublet mc : missingChecks) {
-				if(mc.toString().equals("`\"android.permission.INTERACT_ACROSS_USERS\"`"))
-					tests[0] = true;
-				else if(mc.toString().equals("`\"android.permission.INTERACT_ACROSS_USERS_FULL\"`"))
-					tests[1] = true;
-				else if(mc.toString().equals("`\"android.permission.ACCESS_INSTANT_APPS\"`"))
-					tests[2] = true;
-				else if(mc.toString().equals("`\"android.permission.VIEW_INSTANT_APPS\"`"))
-					tests[3] = true;
-				else
-					tests[4] = true;
-			}
-			if(tests[4]) {
-				ret.add(r);
-			} else if((tests[3] && tests[2] && tests[1] && tests[0]) || (!tests[3] && !tests[2] && (tests[0] || tests[1]))) {
-				List<String> argNames = methodToArgNames.get(deputy.getEntryPoint().getSignature());
-				found = false;
-				for(String argName : argNames) {
-					if(pat.matcher(argName).matches()) {
-						found = true;
-						break;
-					}
+			//Checks without any stages still get their size logged
+			private void logSizesUpTo(int check) {
+				for(; nextCheck <= check; nextCheck++)
+					logger.info("{}: Size of results check {} {}",cn,nextCheck,chain.getSizeAfter(inputSize, nextCheck));
+			}
+		};
+		Set<ResultContainer> ret = chain.apply(results, filterPool, listener);
+		if(ret == null)
+			return null;
+		endStageEvent(event, "filters_" + firstCheck + "_" + lastCheck, inputSize, ret.size());
+		//Every stage is done so this only logs the sizes of the checks after the last one with stages
+		listener.checkDone(lastCheck);
+		return ret;
+	}
+	
+	//Only samples the calling thread unless allThreads is set as the stage runs on the worker threads
+	private StageScope beginStage(String name, boolean allThreads) {
+		return new StageScope(name, allThreads);
+	}
+	
+	private ARFEvents.StageEvent beginStageEvent() {
+		ARFEvents.StageEvent ret = new ARFEvents.StageEvent();
+		ret.begin();
+		return ret;
+	}
+	
+	private void endStageEvent(ARFEvents.StageEvent event, String stage, long in, long out) {
+		if(event.shouldCommit()) {
+			event.stage = stage;
+			event.profile = profile == null ? null : profile.getName();
+			event.resultsIn = in;
+			event.resultsOut = out;
+			event.commit();
+		}
+	}
+	
+	//Sets the shortest path of each result that does not have one yet. The results are grouped by caller so the
+	//search tree of each caller is built by a single task, possibly across the pool, and the paths are then set
+	//in the iteration order of the results.
+	private void addPaths(Collection<ResultContainer> results) {
+		if(closure == null)
+			return;
+		List<ResultContainer> pending = new ArrayList<>();
+		Map<EntryPointNode,List<Integer>> callerToPending = new LinkedHashMap<>();
+		for(ResultContainer r : results) {
+			if(!r.isEmptyResult() && !r.hasPath()) {
+				List<Integer> group = callerToPending.get(r.getCallerEp());
+				if(group == null) {
+					group = new ArrayList<>();
+					callerToPending.put(r.getCallerEp(), group);
+				}
+				group.add(pending.size());
+				pending.add(r);
+			}
+		}
+		if(pending.isEmpty())
+			return;
+		List<List<Integer>> groups = new ArrayList<>(callerToPending.values());
+		List<EntryPointNode>[] paths = newPaths(pending.size());
+		PathTask task = new PathTask(pending, groups, paths, 0, groups.size(), 
+				pool == null ? groups.size() : Math.max(1, groups.size() / (pool.getParallelism() * 8)));
+		if(pool == null)
+			task.invoke();
+		else
+			pool.invoke(task);
+		for(int i = 0; i < paths.length; i++)
+			pending.get(i).setPath(paths[i]);
+	}
+	
+	@SuppressWarnings("unchecked")
+	private static List<EntryPointNode>[] newPaths(int size) {
+		return new List[size];
+	}
+	
+	private final class PathTask extends RecursiveAction {
+		
+		private static final long serialVersionUID = 1L;
+		private final List<ResultContainer> pending;
+		private final List<List<Integer>> groups;
+		private final List<EntryPointNode>[] paths;
+		private final int start;
+		private final int end;
+		private final int chunk;
+		
+		public PathTask(List<ResultContainer> pending, List<List<Integer>> groups, List<EntryPointNode>[] paths, 
+				int start, int end, int chunk) {
+			this.pending = pending;
+			this.groups = groups;
+			this.paths = paths;
+			this.start = start;
+			this.end = end;
+			this.chunk = chunk;
+		}
+		
+		@Override
+		protected void compute() {
+			if(end - start <= chunk) {
+				EntryPointGraph graph = closure.getGraph();
+				for(int i = start; i < end; i++) {
+					List<Integer> group = groups.get(i);
+					int caller = graph.getId(pending.get(group.get(0)).getCallerEp());
+					for(int j : group)
+						paths[j] = closure.getPath(caller, graph.getId(pending.get(j).getTargetEp()));
 				}
-				if(found)
-					ret.add(r);
-				else
-					removed.add(r);
 			} else {
-				ret.add(r);
+				int mid = (start + end) >>> 1;
+				invokeAll(new PathTask(pending, groups, paths, start, mid, chunk),
+						new PathTask(pending, groups, paths, mid, end, chunk));
 			}
-			
 		}
 		
-		removed = SortingMethods.sortSet(removed);
-		Path out = FileHelpers.getPath(config.getFilePath("debug_arf-dir"), "removed_multi_user_not_needed.txt");
+	}
+	
+	private boolean writeMetrics() {
+		metrics.addCache("method_analysis", methodCache.getHits(), methodCache.getMisses());
+		if(reachabilityCache != null)
+			metrics.addCache("deputy_reachability", reachabilityCache.getHits(), reachabilityCache.getMisses());
+		Path json = FileHelpers.getPath(outDir, "metrics.json");
+		Path prom = FileHelpers.getPath(outDir, "metrics.prom");
 		try {
-			dumpResultsSet(removed, out);
+			metrics.writeJson(json);
+			metrics.writePrometheus(prom);
 		} catch(Throwable t) {
-			logger.fatal("{}: Failed to output file '{}'",t,cn,out);
-			return null;
+			logger.fatal("{}: Failed to output the metrics to '{}' and '{}'.",t,cn,json,prom);
+			return false;
+		}
+		return true;
+	}
+	
+	//The structures built from the databases that every profile of a multi-profile run shares
+	public static final class SharedState {
+		
+		private EntryPointGraph graph;
+		private EntryPointClosure closure;
+		private Map<EntryPointNode, Set<Doublet>> epsToAuthLogic;
+		private Map<EntryPointNode,Map<EntryPointNode,Set<SootUnitContainer>>> deputyToTargetToSources;
+		//The hash of the inputs the closure snapshot is keyed by
+		private String snapshotKey;
+		//The hashes of the dependencies which every profile and the snapshot key share
+		private final Map<Path,String> dependencyHashes;
+		
+		public SharedState() {
+			this.graph = null;
+			this.closure = null;
+			this.epsToAuthLogic = null;
+			this.deputyToTargetToSources = null;
+			this.snapshotKey = null;
+			this.dependencyHashes = new HashMap<>();
 		}
 		
-		if(testIfKnownVulnWereRemoved(removed))
-			return ret;
-		return null;
 	}
-
-	private Set<ResultContainer> removeAlreadyHandelingMultiUser(Set<ResultContainer> results) {
-		Set<ResultContainer> ret = new LinkedHashSet<>();
-		Set<ResultContainer> removed = new LinkedHashSet<>();
-		CallGraph cg = Scene.v().getCallGraph();
-		for(ResultContainer r : results) {
-			EntryPointNode deputy = r.getCallerEp();
-			EntryPointNode target = r.getTargetEp();
-			
-			boolean found = false;
-			for(Pair<String,String> p : allowedPairs) {
-				if(p.getFirst().equals(deputy.getEntryPoint().getSignature()) && p.getSecond().equals(target.getEntryPoint().getSignature())) {
-					ret.add(r);
-					found = true;
-					break;
-				}
-			}
-			if(found)
-				continue;
-			
-			Set<Doublet> missingChecks = r.getMissingChecks();
-			boolean[] tests = {false,false,false,false,false};
-			for(Doublet mc : missingChecks) {
-				if(mc.toString().equals("`\"android.permission.INTERACT_ACROSS_USERS\"`"))
-					tests[0] = true;
-				else if(mc.toString().equals("`\"android.permission.INTERACT_ACROSS_USERS_FULL\"`"))
-					tests[1] = true;
-				else if(mc.toString().equals("`\"android.permission.ACCESS_INSTANT_APPS\"`"))
-					tests[2] = true;
-				else if(mc.toString().equals("`\"android.permission.VIEW_INSTANT_APPS\"`"))
-					tests[3] = true;
+	
+	//The metrics and JFR event of one stage of the analysis from its start to end
+	private final class StageScope {
+		
+		private final String name;
+		private final ARFMetrics.Sample allStart;
+		private final long[] threadStart;
+		private final ARFEvents.StageEvent event;
+		
+		public StageScope(String name, boolean allThreads) {
+			this.name = name;
+			this.allStart = metrics != null && allThreads ? metrics.sampleAll() : null;
+			this.threadStart = metrics != null && !allThreads ? metrics.sampleThread() : null;
+			this.event = beginStageEvent();
+		}
+		
+		//False if neither the metrics nor the event will record the sizes passed to end
+		public boolean isRecording() {
+			return metrics != null || event.shouldCommit();
+		}
+		
+		public void end(long in, long out) {
+			endStageEvent(event, name, in, out);
+			if(metrics != null) {
+				ARFMetrics.Stage stage = metrics.addStage(name);
+				if(allStart != null)
+					stage.addAll(allStart);
 				else
-					tests[4] = true;
+					stage.addThread(threadStart);
+				stage.addIn(in);
+				stage.addOut(out);
 			}
-			if(tests[4]) {
-				ret.add(r);
+		}
+		
+	}
+	
+	private static abstract class AbstractResultFilter implements ResultFilter {
+		
+		private final String removedFileName;
+		private final boolean checkedForKnownVulns;
+		
+		public AbstractResultFilter(String removedFileName, boolean checkedForKnownVulns) {
+			this.removedFileName = removedFileName;
+			this.checkedForKnownVulns = checkedForKnownVulns;
+		}
+		
+		@Override
+		public String getRemovedFileName() {
+			return removedFileName;
+		}
+		
+		@Override
+		public boolean isCheckedForKnownVulns() {
+			return checkedForKnownVulns;
+		}
+		
+		@Override
+		public void prepare(ResultContainer r) {}
+		
+	}
+	
+	//The results of each caller are gathered into their own buffer, possibly across the pool, and then
+	//merged in caller order so the result set is the same no matter how the callers were split
+	private Set<ResultContainer> getResults(List<EntryPointNode> callers, EntryPointGraph graph, EntryPointClosure closure, 
+			DoubletTable doubletTable) {
+		List<ResultContainer>[] buffers = newBuffers(callers.size());
+		ResultTask task = new ResultTask(callers, graph, closure, doubletTable, buffers, 0, callers.size(), 
+				pool == null ? callers.size() : Math.max(16, callers.size() / (pool.getParallelism() * 8)));
+		if(pool == null)
+			task.invoke();
+		else
+			pool.invoke(task);
+		Set<ResultContainer> ret = new HashSet<>();
+		for(List<ResultContainer> buffer : buffers)
+			ret.addAll(buffer);
+		return ret;
+	}
+	
+	@SuppressWarnings("unchecked")
+	private static List<ResultContainer>[] newBuffers(int size) {
+		return new List[size];
+	}
+	
+	private final class ResultTask extends RecursiveAction {
+		
+		private static final long serialVersionUID = 1L;
+		private final List<EntryPointNode> callers;
+		private final EntryPointGraph graph;
+		private final EntryPointClosure closure;
+		private final DoubletTable doubletTable;
+		private final List<ResultContainer>[] buffers;
+		private final int start;
+		private final int end;
+		private final int chunk;
+		
+		public ResultTask(List<EntryPointNode> callers, EntryPointGraph graph, EntryPointClosure closure, 
+				DoubletTable doubletTable, List<ResultContainer>[] buffers, int start, int end, int chunk) {
+			this.callers = callers;
+			this.graph = graph;
+			this.closure = closure;
+			this.doubletTable = doubletTable;
+			this.buffers = buffers;
+			this.start = start;
+			this.end = end;
+			this.chunk = chunk;
+		}
+		
+		@Override
+		protected void compute() {
+			if(end - start <= chunk) {
+				for(int i = start; i < end; i++)
+					buffers[i] = getResults(callers.get(i));
 			} else {
-				if((tests[3] && tests[2] && tests[1] && tests[0]) || (!tests[3] && !tests[2] && (tests[0] || tests[1]))) {
-					EntryPoint ep = deputy.getSootEntryPoint();
-					Set<SootMethod> visited = new HashSet<>();
-					ArrayDeque<SootMethod> toVisit = new ArrayDeque<>();
-					//Assume 1-1 mapping between method and entry point which should be true because Binder methods have been removed
-					IExcludeHandler excludeHandler = dataAccessor.getExcludedElementsDB().createNewExcludeHandler(ep);
-					toVisit.add(ep.getEntryPoint());
-					found = false;
-					while(!toVisit.isEmpty()) {
-						SootMethod cur = toVisit.poll();
-						if(cur.getSignature().equals("<com.android.server.am.ActivityManagerService: int handleIncomingUser(int,int,int,boolean,boolean,java.lang.String,java.lang.String)>")) {
-							found = true;
-							break;
-						}
-						if(visited.add(cur) && !excludeHandler.isExcludedMethodWithOverride(cur)) {
-							Iterator<Edge> it = cg.edgesOutOf(cur);
-							while(it.hasNext()) {
-								Edge e = it.next();
-								toVisit.add(e.tgt());
-							}
-						}
-					}
-					if(found)
-						removed.add(r);
-					else
-						ret.add(r);
-				} else {
-					ret.add(r);
-				}
+				int mid = (start + end) >>> 1;
+				invokeAll(new ResultTask(callers, graph, closure, doubletTable, buffers, start, mid, chunk),
+						new ResultTask(callers, graph, closure, doubletTable, buffers, mid, end, chunk));
 			}
-			
 		}
 		
-		removed = SortingMethods.sortSet(removed);
-		Path out = FileHelpers.getPath(config.getFilePath("debug_arf-dir"), "removed_handle_multi_user_already.txt");
-		try {
-			dumpResultsSet(removed, out);
-		} catch(Throwable t) {
-			logger.fatal("{}: Failed to output file '{}'",t,cn,out);
-			return null;
+		private List<ResultContainer> getResults(EntryPointNode ep) {
+			int id = graph.getId(ep);
+			List<EntryPointNode> targets = null;
+			if(id >= 0 && id < graph.getSourceCount())
+				targets = closure != null ? closure.getTargetNodes(id) : graph.getTargetNodes(id);
+			if(targets == null || targets.isEmpty())
+				return Collections.singletonList(new ResultContainer(ep));
+			List<ResultContainer> ret = new ArrayList<>(targets.size());
+			for(EntryPointNode target : targets)
+				ret.add(getResult(doubletTable, ep, target, null));
+			return ret;
 		}
 		
-		if(testIfKnownVulnWereRemoved(removed))
-			return ret;
-		return null;
 	}
 	
+	//Results with no missing checks are still produced as they are reported in no_missing_checks.txt
+	//and single hop results are joined against them but their Doublet sets are never built
+	static ResultContainer getResult(DoubletTable doubletTable, EntryPointNode caller, EntryPointNode target, 
+			List<EntryPointNode> path) {
+		BitSet missing = doubletTable.getMissing(caller, target);
+		if(missing.isEmpty())
+			return new ResultContainer(caller, target, null, 0, path);
+		double ratio = (double)(missing.cardinality()) / (double)(doubletTable.getCheckCount(target));
+		return new ResultContainer(caller, target, doubletTable.getDoublets(target, missing), ratio, path);
+	}
 	
-	private Set<ResultContainer> removeIfFirstIfIsSystemRestricting(Set<ResultContainer> results) {
-		Set<ResultContainer> ret = new LinkedHashSet<>();
-		Set<ResultContainer> removed = new LinkedHashSet<>();
-		for(ResultContainer r : results) {
-			EntryPointNode deputy = r.getCallerEp();
-			EntryPointNode target = r.getTargetEp();
-			
-			boolean found = false;
-			for(Pair<String,String> p : allowedPairs) {
-				if(p.getFirst().equals(deputy.getEntryPoint().getSignature()) && p.getSecond().equals(target.getEntryPoint().getSignature())) {
-					ret.add(r);
-					found = true;
-					break;
-				}
+	//True if the only missing checks are the multi user permissions and they are missing in a combination
+	//where the deputy must handle the user itself
+	private static boolean isMissingOnlyMultiUserChecks(Set<Doublet> missingChecks) {
+		boolean[] tests = {false,false,false,false,false};
+		for(Doublet mc : missingChecks) {
+			if(mc.toString().equals("`\"android.permission.INTERACT_ACROSS_USERS\"`"))
+				tests[0] = true;
+			else if(mc.toString().equals("`\"android.permission.INTERACT_ACROSS_USERS_FULL\"`"))
+				tests[1] = true;
+			else if(mc.toString().equals("`\"android.permission.ACCESS_INSTANT_APPS\"`"))
+				tests[2] = true;
+			else if(mc.toString().equals("`\"android.permission.VIEW_INSTANT_APPS\"`"))
+				tests[3] = true;
+			else
+				tests[4] = true;
+		}
+		if(tests[4])
+			return false;
+		return (tests[3] && tests[2] && tests[1] && tests[0]) || (!tests[3] && !tests[2] && (tests[0] || tests[1]));
+	}
+	
+	static boolean keepIfMultiUserNeeded(ResultContainer r, AllowedPairs allowedPairs, Map<String,List<String>> methodToArgNames) {
+		EntryPointNode deputy = r.getCallerEp();
+		EntryPointNode target = r.getTargetEp();
+		
+		if(allowedPairs.contains(deputy, target))
+			return true;
+		
+		if(isMissingOnlyMultiUserChecks(r.getMissingChecks())) {
+			List<String> argNames = methodToArgNames.get(deputy.getEntryPoint().getSignature());
+			for(String argName : argNames) {
+				if(userArgNamePattern.matcher(argName).matches())
+					return true;
 			}
-			if(found)
-				continue;
-			
-			boolean keep = true;
-			Body b = deputy.getEntryPoint().toSootMethod().retrieveActiveBody();
-			UnitGraph g = new BriefUnitGraph(b);
-			Set<IfStmt> firstIfs = new HashSet<>();
-			
-			//The first if throws a security exception
-			for(Unit u : b.getUnits()) {
-				if(u instanceof IfStmt) {
+			return false;
+		}
+		return true;
+	}
+
+	private boolean keepIfNotAlreadyHandelingMultiUser(ResultContainer r) {
+		EntryPointNode deputy = r.getCallerEp();
+		EntryPointNode target = r.getTargetEp();
+		
+		if(allowedPairs.contains(deputy, target))
+			return true;
+		
+		if(isMissingOnlyMultiUserChecks(r.getMissingChecks())) {
+			return !reachabilityCache.reaches(deputy, 
+					"<com.android.server.am.ActivityManagerService: int handleIncomingUser(int,int,int,boolean,boolean,java.lang.String,java.lang.String)>");
+		}
+		return true;
+	}
+	
+	
+	private boolean keepIfFirstIfIsNotSystemRestricting(ResultContainer r) {
+		EntryPointNode deputy = r.getCallerEp();
+		EntryPointNode target = r.getTargetEp();
+		
+		if(allowedPairs.contains(deputy, target))
+			return true;
+		
+		String deputySig = deputy.getEntryPoint().getSignature();
+		Boolean restricting = firstIfVerdicts.get(deputySig);
+		if(restricting == null) {
+			restricting = isFirstIfSystemRestricting(getSootMethod(deputy.getEntryPoint()));
+			firstIfVerdicts.put(deputySig, restricting);
+		}
+		return !restricting;
+	}
+	
+	private void prepareFirstIfIsNotSystemRestricting(ResultContainer r) {
+		EntryPointNode deputy = r.getCallerEp();
+		if(allowedPairs.contains(deputy, r.getTargetEp()) || firstIfVerdicts.get(deputy.getEntryPoint().getSignature()) != null)
+			return;
+		SootMethod deputyMethod = getSootMethod(deputy.getEntryPoint());
+		methodCache.getBody(deputyMethod);
+		methodCache.getBriefUnitGraph(deputyMethod);
+		methodCache.getLocalDefs(deputyMethod);
+	}
+	
+	private boolean isFirstIfSystemRestricting(SootMethod deputyMethod) {
+		boolean keep = true;
+		Body b = methodCache.getBody(deputyMethod);
+		UnitGraph g = methodCache.getBriefUnitGraph(deputyMethod);
+		Set<IfStmt> firstIfs = new HashSet<>();
+		
+		//The first if throws a security exception
+		for(Unit u : b.getUnits()) {
+			if(u instanceof IfStmt) {
+				firstIfs.add((IfStmt)u);
+				break;
+			}
+		}
+		
+		//Some number of check Preconditions.checkArgument functions occur before the actual first if
+		//the others are used as part of this method
+		int numOfIf = 0;
+		int numOfInvoke = 0;
+		for(Unit u : b.getUnits()) {
+			if(((Stmt)u).containsInvokeExpr() && 
+					((Stmt)u).getInvokeExpr().getMethodRef().getSignature().equals("<com.android.internal.util.Preconditions: void checkArgument(boolean,java.lang.Object)>")) {
+				numOfInvoke++;
+			} else if(u instanceof IfStmt) {
+				if(numOfIf == numOfInvoke) {
 					firstIfs.add((IfStmt)u);
+					numOfIf++;
+				} else {
 					break;
 				}
 			}
-			
-			//Some number of check Preconditions.checkArgument functions occur before the actual first if
-			//the others are used as part of this method
-			int numOfIf = 0;
-			int numOfInvoke = 0;
-			for(Unit u : b.getUnits()) {
-				if(((Stmt)u).containsInvokeExpr() && 
-						((Stmt)u).getInvokeExpr().getMethodRef().getSignature().equals("<com.android.internal.util.Preconditions: void checkArgument(boolean,java.lang.Object)>")) {
-					numOfInvoke++;
-				} else if(u instanceof IfStmt) {
-					if(numOfIf == numOfInvoke) {
-						firstIfs.add((IfStmt)u);
-						numOfIf++;
-					} else {
-						break;
-					}
-				}
-			}
-			
-			
-			if(!firstIfs.isEmpty()) {
-				boolean hasSE = false;
-				for(IfStmt firstIf : firstIfs) {
-					IfStmt cur = firstIf;
-					while(cur != null) {
-						IfStmt next = null;
-						for(Unit succ : g.getSuccsOf(cur)) {
-							if(succ instanceof DefinitionStmt) {
-								Value v = ((DefinitionStmt)succ).getRightOp();
-								if(v instanceof NewExpr && ((NewExpr)v).getBaseType().toString().equals("java.lang.SecurityException")) {
-									hasSE = true;
-									break;
-								}
-							} else if(succ instanceof IfStmt) {
-								next = (IfStmt)succ;
+		}
+		
+		
+		if(!firstIfs.isEmpty()) {
+			boolean hasSE = false;
+			for(IfStmt firstIf : firstIfs) {
+				IfStmt cur = firstIf;
+				while(cur != null) {
+					IfStmt next = null;
+					for(Unit succ : g.getSuccsOf(cur)) {
+						if(succ instanceof DefinitionStmt) {
+							Value v = ((DefinitionStmt)succ).getRightOp();
+							if(v instanceof NewExpr && ((NewExpr)v).getBaseType().toString().equals("java.lang.SecurityException")) {
+								hasSE = true;
+								break;
 							}
+						} else if(succ instanceof IfStmt) {
+							next = (IfStmt)succ;
 						}
-						if(hasSE)
-							break;
-						else if(next != null)
-							cur = next;
-						else
-							cur = null;
 					}
 					if(hasSE)
 						break;
+					else if(next != null)
+						cur = next;
+					else
+						cur = null;
 				}
 				if(hasSE)
-					keep = false;
+					break;
 			}
-			
-			if(keep) {
-				IfStmt firstIf = null;
-				Stmt invokeStmt = null;
-				for(Unit u : b.getUnits()) {
-					if(u instanceof IfStmt && firstIf == null) {
-						firstIf = (IfStmt)u;
-					} else if(((Stmt)u).containsInvokeExpr() && 
-							((Stmt)u).getInvokeExpr().getMethodRef().getSignature().equals("<com.android.internal.util.Preconditions: void checkArgument(boolean,java.lang.Object)>") && invokeStmt == null) {
-						invokeStmt = (Stmt)u;
-					}
+			if(hasSE)
+				keep = false;
+		}
+		
+		if(keep) {
+			IfStmt firstIf = null;
+			Stmt invokeStmt = null;
+			for(Unit u : b.getUnits()) {
+				if(u instanceof IfStmt && firstIf == null) {
+					firstIf = (IfStmt)u;
+				} else if(((Stmt)u).containsInvokeExpr() && 
+						((Stmt)u).getInvokeExpr().getMethodRef().getSignature().equals("<com.android.internal.util.Preconditions: void checkArgument(boolean,java.lang.Object)>") && invokeStmt == null) {
+					invokeStmt = (Stmt)u;
 				}
-				if(firstIf != null && invokeStmt != null) {
-					Value v = invokeStmt.getInvokeExpr().getArg(0);
-					boolean areLinked = false;
-					if(v instanceof Local) {
-						for(Unit succ : g.getSuccsOf(firstIf)) {
-							if(succ instanceof DefinitionStmt && ((DefinitionStmt)succ).getLeftOp().equals(v)) {
-								areLinked = true;
-							}
+			}
+			if(firstIf != null && invokeStmt != null) {
+				Value v = invokeStmt.getInvokeExpr().getArg(0);
+				boolean areLinked = false;
+				if(v instanceof Local) {
+					for(Unit succ : g.getSuccsOf(firstIf)) {
+						if(succ instanceof DefinitionStmt && ((DefinitionStmt)succ).getLeftOp().equals(v)) {
+							areLinked = true;
 						}
 					}
-					if(areLinked) {
-						Value cond = firstIf.getCondition();
-						if(cond instanceof BinopExpr) {
-							AdvLocalDefs f = new AdvLocalDefs(g,LiveLocals.Factory.newLiveLocals(g));
-							List<Value> ops = new ArrayList<>();
-							ops.add(((BinopExpr)cond).getOp1());
-							ops.add(((BinopExpr)cond).getOp2());
-							for(Value op : ops) {
-								if(op instanceof Local) {
-									for(Unit u : f.getDefsOfAt((Local)op, firstIf)) {
-										DefinitionStmt def = ((DefinitionStmt)u);
-										if(def.containsInvokeExpr() && def.getInvokeExpr().getMethodRef().name().equals("binderGetCallingUid")) {
-											keep = false;
-											break;
-										}
+				}
+				if(areLinked) {
+					Value cond = firstIf.getCondition();
+					if(cond instanceof BinopExpr) {
+						AdvLocalDefs f = methodCache.getLocalDefs(deputyMethod);
+						List<Value> ops = new ArrayList<>();
+						ops.add(((BinopExpr)cond).getOp1());
+						ops.add(((BinopExpr)cond).getOp2());
+						for(Value op : ops) {
+							if(op instanceof Local) {
+								for(Unit u : f.getDefsOfAt((Local)op, firstIf)) {
+									DefinitionStmt def = ((DefinitionStmt)u);
+									if(def.containsInvokeExpr() && def.getInvokeExpr().getMethodRef().name().equals("binderGetCallingUid")) {
+										keep = false;
+										break;
 									}
 								}
-								if(!keep)
-									break;
 							}
+							if(!keep)
+								break;
 						}
 					}
 				}
 			}
-			
-			
-			if(keep) {
-				ret.add(r);
-			} else {
-				removed.add(r);
-			}
-		}
-		
-		removed = SortingMethods.sortSet(removed);
-		Path out = FileHelpers.getPath(config.getFilePath("debug_arf-dir"), "removed_if_first_if_is_system_restricting.txt");
-		try {
-			dumpResultsSet(removed, out);
-		} catch(Throwable t) {
-			logger.fatal("{}: Failed to output file '{}'",t,cn,out);
-			return null;
 		}
 		
-		if(testIfKnownVulnWereRemoved(removed))
-			return ret;
-		return null;
+		return !keep;
 	}
 	
-	private Set<ResultContainer> removeIfProtectedBySpecialCallerContextQueries(Set<ResultContainer> results) {
-		Set<ResultContainer> ret = new LinkedHashSet<>();
-		Set<ResultContainer> removed = new LinkedHashSet<>();
-		CallGraph cg = Scene.v().getCallGraph();
-		for(ResultContainer r : results) {
-			EntryPointNode deputy = r.getCallerEp();
-			EntryPointNode	target = r.getTargetEp();
-			
-			boolean found = false;
-			for(Pair<String,String> p : allowedPairs) {
-				if(p.getFirst().equals(deputy.getEntryPoint().getSignature()) && p.getSecond().equals(target.getEntryPoint().getSignature())) {
-					ret.add(r);
-					found = true;
-					break;
-				}
-			}
-			if(found)
-				continue;
-			
-			boolean hasSpecialCallerContextQuery = false;
-			Pair<Set<String>,Set<String>> p = specialCallerContextQueries.get(deputy.getEntryPoint().getDeclaringClass());
-			if(p != null && !p.getSecond().contains(target.getEntryPoint().getSignature())) {
-				Set<String> specialCallers = p.getFirst();
-				Set<SootMethod> visited = new HashSet<>();
-				ArrayDeque<SootMethod> toVisit = new ArrayDeque<>();
-				EntryPoint ep = deputy.getSootEntryPoint();
-				//Assume 1-1 mapping between method and entry point which should be true because Binder methods have been removed
-				IExcludeHandler excludeHandler = dataAccessor.getExcludedElementsDB().createNewExcludeHandler(ep);
-				toVisit.add(ep.getEntryPoint());
-				while(!toVisit.isEmpty()) {
-					SootMethod cur = toVisit.poll();
-					if(specialCallers.contains(cur.toString())) {
-						hasSpecialCallerContextQuery = true;
-						break;
-					}
-					if(visited.add(cur) && !excludeHandler.isExcludedMethodWithOverride(cur)) {
-						Iterator<Edge> it = cg.edgesOutOf(cur);
-						while(it.hasNext()) {
-							Edge e = it.next();
-							toVisit.add(e.tgt());
-						}
-					}
-				}
-			}
-			
-			if(hasSpecialCallerContextQuery) {
-				removed.add(r);
-			} else {
-				ret.add(r);
-			}
-		}
+	private boolean keepIfNotProtectedBySpecialCallerContextQueries(ResultContainer r) {
+		EntryPointNode deputy = r.getCallerEp();
+		EntryPointNode	target = r.getTargetEp();
 		
-		removed = SortingMethods.sortSet(removed);
-		Path out = FileHelpers.getPath(config.getFilePath("debug_arf-dir"), "removed_if_protected_by_special_callers.txt");
-		try {
-			dumpResultsSet(removed, out);
-		} catch(Throwable t) {
-			logger.fatal("{}: Failed to output file '{}'",t,cn,out);
-			return null;
-		}
+		if(allowedPairs.contains(deputy, target))
+			return true;
 		
-		if(testIfKnownVulnWereRemoved(removed))
-			return ret;
-		return null;
-	}
-
-	private Set<ResultContainer> removeEmptyResults(Set<ResultContainer> results) {
-		Set<ResultContainer> ret = new LinkedHashSet<>();
-		Set<ResultContainer> noSecondaryEps = new HashSet<>();
-		Set<ResultContainer> noMissingChecks = new HashSet<>();
-		for(ResultContainer r : results) {
-			if(r.isEmptyResult()) {
-				noSecondaryEps.add(r);
-			} else if(r.getRatio() == 0.0) {
-				noMissingChecks.add(r);
-			} else {
-				ret.add(r);
-			}
-		}
+		boolean hasSpecialCallerContextQuery = false;
+		Set<String> queries = getSpecialCallerContextQueries(deputy, target);
+		if(queries != null)
+			hasSpecialCallerContextQuery = reachabilityCache.reachesAny(deputy, queries);
 		
-		noSecondaryEps = SortingMethods.sortSet(noSecondaryEps);
-		noMissingChecks = SortingMethods.sortSet(noMissingChecks);
-		Path noSecondaryEpsPath = FileHelpers.getPath(config.getFilePath("debug_arf-dir"), "no_secondary_eps.txt");
-		try {
-			dumpResultsSet(noSecondaryEps, noSecondaryEpsPath);
-		} catch(Throwable t) {
-			logger.fatal("{}: Failed to output file '{}'",t,cn,noSecondaryEpsPath);
-			return null;
-		}
-		Path noMissingChecksPath = FileHelpers.getPath(config.getFilePath("debug_arf-dir"), "no_missing_checks.txt");
-		try {
-			dumpResultsSet(noMissingChecks, noMissingChecksPath);
-		} catch(Throwable t) {
-			logger.fatal("{}: Failed to output file '{}'",t,cn,noMissingChecksPath);
-			return null;
-		}
-		
-		return ret;
+		return !hasSpecialCallerContextQuery;
+	}
+	
+	//Null if the service of the deputy has no special caller context queries that apply to the target
+	private Set<String> getSpecialCallerContextQueries(EntryPointNode deputy, EntryPointNode target) {
+		Pair<Set<String>,Set<String>> p = specialCallerContextQueries.get(deputy.getEntryPoint().getDeclaringClass());
+		if(p != null && !p.getSecond().contains(target.getEntryPoint().getSignature()))
+			return p.getFirst();
+		return null;
 	}
 	
 	//TODO the format for single hops needs to be updated to include stubs
 	private Set<ResultContainer> keepOnlyResultsThatReachOtherResults(Set<ResultContainer> results, 
-			Map<EntryPointNode, Set<Doublet>> epsToAuthLogic) {
+			DoubletTable doubletTable) {
+		//Every result is either written out or extended by a single hop below
+		addPaths(results);
 		Set<ResultContainer> ret = new LinkedHashSet<>();
 		Set<ResultContainer> singleHopRes = new HashSet<>();
+		//Both indexes keep the iteration order of results so the first match and the join order are unchanged
+		Map<Pair<String,String>,ResultContainer> sigsToResult = new HashMap<>();
+		Map<EntryPointNode,List<ResultContainer>> targetToResults = new HashMap<>();
+		for(ResultContainer result : results) {
+			EntryPointNode caller = result.getCallerEp();
+			EntryPointNode target = result.getTargetEp();
+			if(caller != null && target != null) {
+				Pair<String,String> key = new Pair<>(caller.getEntryPoint().getSignature(),target.getEntryPoint().getSignature());
+				if(!sigsToResult.containsKey(key))
+					sigsToResult.put(key, result);
+				List<ResultContainer> byTarget = targetToResults.get(target);
+				if(byTarget == null) {
+					byTarget = new ArrayList<>();
+					targetToResults.put(target, byTarget);
+				}
+				byTarget.add(result);
+			}
+		}
+		
 		for(Pair<String,String> p : this.singleHopInput) {
 			String callerSig = p.getFirst();
 			String targetSig = p.getSecond();
-			ResultContainer found = null;
-			for(ResultContainer result : results) {
-				EntryPointNode caller = result.getCallerEp();
-				EntryPointNode target = result.getTargetEp();
-				if(caller != null && callerSig.equals(caller.getEntryPoint().getSignature()) 
-						&& target != null && targetSig.equals(target.getEntryPoint().getSignature())) {
-					found = result;
-					break;
-				}
-			}
+			ResultContainer found = sigsToResult.get(new Pair<>(callerSig,targetSig));
 			if(found == null) {
 				logger.fatal("{}: Could not find a result container for Caller='{}' and Target='{}'",cn,callerSig,targetSig);
-				return null;
-			}
-			singleHopRes.add(found);
-		}
-		
-		for(ResultContainer singleHopResult : singleHopRes) {
-			EntryPointNode singleHopCaller = singleHopResult.getCallerEp();
-			EntryPointNode singleHopTarget = singleHopResult.getTargetEp();
-			for(ResultContainer result : results) {
-				if(singleHopCaller.equals(result.getTargetEp())) {
-					EntryPointNode caller = result.getCallerEp();
-					Set<Doublet> difference = new HashSet<>(epsToAuthLogic.get(singleHopTarget));
-					int targetAuthLogicSize = difference.size();
-					difference.removeAll(epsToAuthLogic.get(caller));
-					double ratio = 0;
-					if(!difference.isEmpty())
-						ratio = (double)(difference.size()) / (double)(targetAuthLogicSize);
-					List<EntryPointNode> path = result.getPath();
-					if(path.isEmpty()) {
-						path = new ArrayList<>();
-						path.add(caller);
-						path.add(result.getTargetEp());
-					}
-					path.add(singleHopTarget);
-					ret.add(new ResultContainer(caller, singleHopTarget, difference, ratio, path));
-				}
-			}
-		}
-		
-		results.removeAll(singleHopRes);
-		results.removeAll(ret);
-		results = SortingMethods.sortSet(results);
-		Path out = FileHelpers.getPath(config.getFilePath("debug_arf-dir"), "do_not_reach_single_hops.txt");
-		try {
-			dumpResultsSet(results, out);
-		} catch(Throwable t) {
-			logger.fatal("{}: Failed to output file '{}'",t,cn,out);
-			return null;
-		}
-		
-		return ret;
-	}
-	
-	private Set<ResultContainer> keepOnlyCallersWithRegisteredServices(Set<ResultContainer> results) {
-		Set<ResultContainer> ret = new LinkedHashSet<>();
-		Set<ResultContainer> removed = new LinkedHashSet<>();
-		for(ResultContainer r : results) {
-			if(registeredServices.contains(r.getCallerEp().getEntryPoint().getDeclaringClass()))
-				ret.add(r);
-			else
-				removed.add(r);
-		}
-		
-		removed = SortingMethods.sortSet(removed);
-		Path out = FileHelpers.getPath(config.getFilePath("debug_arf-dir"), "callers_in_unregistered_services.txt");
-		try {
-			dumpResultsSet(removed, out);
-		} catch(Throwable t) {
-			logger.fatal("{}: Failed to output file '{}'",t,cn,out);
-			return null;
-		}
-		
-		return ret;
-	}
-	
-	private Set<ResultContainer> removeAllCallersWithSystemOnlyCallerRestrictions(Set<ResultContainer> results) {
-		Set<ResultContainer> newResults = new LinkedHashSet<>();
-		Set<ResultContainer> oldResults = new LinkedHashSet<>();
-		for(ResultContainer r : results) {
-			if(!onlyCallerRestrictions.hasOnlyCallerRestriction(r.getCallerEp().getEntryPoint().getSignature()))
-				newResults.add(r);
-			else
-				oldResults.add(r);
-		}
-		
-		oldResults = SortingMethods.sortSet(oldResults);
-		Path out = FileHelpers.getPath(config.getFilePath("debug_arf-dir"), "callers_with_system_restrictions.txt");
-		try {
-			dumpResultsSet(oldResults, out);
-		} catch(Throwable t) {
-			logger.fatal("{}: Failed to output file '{}'",t,cn,out);
-			return null;
-		}
-		
-		return newResults;
-	}
-	
-	private Set<ResultContainer> removeGlobalSettingsNoise(Set<ResultContainer> results) {
-		Set<ResultContainer> ret = new LinkedHashSet<>();
-		Set<ResultContainer> removed = new LinkedHashSet<>();
-		for(ResultContainer r : results) {
-			EntryPointNode deputy = r.getCallerEp();
-			EntryPointNode	target = r.getTargetEp();
-			
-			boolean found = false;
-			for(Pair<String,String> p : allowedPairs) {
-				if(p.getFirst().equals(deputy.getEntryPoint().getSignature()) && p.getSecond().equals(target.getEntryPoint().getSignature())) {
-					ret.add(r);
-					found = true;
-					break;
-				}
+				return null;
 			}
-			if(found)
+			singleHopRes.add(found);
+		}
+		
+		for(ResultContainer singleHopResult : singleHopRes) {
+			EntryPointNode singleHopCaller = singleHopResult.getCallerEp();
+			EntryPointNode singleHopTarget = singleHopResult.getTargetEp();
+			List<ResultContainer> byTarget = targetToResults.get(singleHopCaller);
+			if(byTarget == null)
 				continue;
-			
-			if(target.getEntryPoint().getSignature().equals("<com.android.server.locksettings.LockSettingsService: java.lang.String getString(java.lang.String,java.lang.String,int)>")) {
-				removed.add(r);
-			} else {
-				ret.add(r);
+			for(ResultContainer result : byTarget) {
+				EntryPointNode caller = result.getCallerEp();
+				List<EntryPointNode> path = result.getPath();
+				if(path.isEmpty()) {
+					path = new ArrayList<>();
+					path.add(caller);
+					path.add(result.getTargetEp());
+				}
+				path.add(singleHopTarget);
+				ret.add(getResult(doubletTable, caller, singleHopTarget, path));
 			}
 		}
 		
-		removed = SortingMethods.sortSet(removed);
-		Path out = FileHelpers.getPath(config.getFilePath("debug_arf-dir"), "removed_global_settings_noise.txt");
+		results.removeAll(singleHopRes);
+		results.removeAll(ret);
+		results = SortingMethods.sortSet(results);
+		Path out = FileHelpers.getPath(outDir, "do_not_reach_single_hops.txt");
 		try {
-			dumpResultsSet(removed, out);
+			dumpResultsSet(results, out);
 		} catch(Throwable t) {
 			logger.fatal("{}: Failed to output file '{}'",t,cn,out);
 			return null;
 		}
 		
-		if(testIfKnownVulnWereRemoved(removed))
-			return ret;
-		return null;
+		return ret;
 	}
 	
-	private Set<ResultContainer> removeDeputyTargetChecks(Set<ResultContainer> results) {
-		Set<ResultContainer> ret = new LinkedHashSet<>();
-		Set<ResultContainer> removed = new LinkedHashSet<>();
-		for(ResultContainer r : results) {
-			EntryPointNode deputy = r.getCallerEp();
-			EntryPointNode	target = r.getTargetEp();
-			
-			if(cqdb.isContextQuery(deputy.getEntryPoint().toSootMethod()) || cqdb.isContextQuery(target.getEntryPoint().toSootMethod())) {
-				boolean found = false;
-				for(Pair<String,String> p : allowedPairs) {
-					if(p.getFirst().equals(deputy.getEntryPoint().getSignature()) && p.getSecond().equals(target.getEntryPoint().getSignature())) {
-						ret.add(r);
-						found = true;
-						break;
-					}
+	//The stages that do not need Soot are static so they can be run on synthetic data without an analysis
+	static boolean keepIfHasTarget(ResultContainer r) {
+		return !r.isEmptyResult();
+	}
+	
+	static boolean keepIfHasMissingChecks(ResultContainer r) {
+		return r.getRatio() != 0.0;
+	}
+	
+	static boolean keepIfCallerInRegisteredService(ResultContainer r, Set<String> registeredServices) {
+		return registeredServices.contains(r.getCallerEp().getEntryPoint().getDeclaringClass());
+	}
+	
+	static boolean keepIfCallerHasNoSystemOnlyCallerRestrictions(ResultContainer r, OnlyCallerRestrictions onlyCallerRestrictions) {
+		return !onlyCallerRestrictions.hasOnlyCallerRestriction(r.getCallerEp().getEntryPoint().getSignature());
+	}
+	
+	static boolean keepIfNotGlobalSettingsNoise(ResultContainer r, AllowedPairs allowedPairs) {
+		EntryPointNode deputy = r.getCallerEp();
+		EntryPointNode	target = r.getTargetEp();
+		
+		if(allowedPairs.contains(deputy, target))
+			return true;
+		
+		return !target.getEntryPoint().getSignature().equals("<com.android.server.locksettings.LockSettingsService: java.lang.String getString(java.lang.String,java.lang.String,int)>");
+	}
+	
+	private boolean keepIfDeputyTargetNotChecks(ResultContainer r) {
+		EntryPointNode deputy = r.getCallerEp();
+		EntryPointNode	target = r.getTargetEp();
+		
+		if(cqdb.isContextQuery(getSootMethod(deputy.getEntryPoint())) || cqdb.isContextQuery(getSootMethod(target.getEntryPoint())))
+			return allowedPairs.contains(deputy, target);
+		return true;
+	}
+	
+	private static List<Pair<String,String>> readKnownVulnPaths(Path p) throws Exception {
+		List<Pair<String,String>> ret = new ArrayList<>();
+		try(BufferedReader br = Files.newBufferedReader(p)) {
+			String line;
+			while((line = br.readLine()) != null) {
+				line = line.trim();
+				if(!line.isEmpty() && !line.startsWith("//")) {
+					String[] temp = line.split("\\t");
+					ret.add(new Pair<>(temp[0].trim(),temp[1].trim()));
 				}
-				if(!found)
-					removed.add(r);
-			} else {
-				ret.add(r);
 			}
 		}
-		
-		removed = SortingMethods.sortSet(removed);
-		Path out = FileHelpers.getPath(config.getFilePath("debug_arf-dir"), "removed_paths_deputy_target_are_checks.txt");
-		try {
-			dumpResultsSet(removed, out);
-		} catch(Throwable t) {
-			logger.fatal("{}: Failed to output file '{}'",t,cn,out);
-			return null;
-		}
-		
-		if(testIfKnownVulnWereRemoved(removed))
-			return ret;
-		return null;
+		return ret;
 	}
 	
 	private boolean testIfKnownVulnWereRemoved(Set<ResultContainer> removed) {
@@ -1727,350 +1977,597 @@ public class ARFAnalysis {
 		return true;
 	}
 
-	private Set<ResultContainer> keepOnlyCallersAccessableByThirdParties(Set<ResultContainer> results, Map<EntryPointNode, Set<Doublet>> epsToAuthLogic) {
-		Set<String> allowedProtectionLevels = ImmutableSet.of("normal","dangerous","instant","runtime","pre23");
-		Set<ResultContainer> newResults = new LinkedHashSet<>();
-		Set<ResultContainer> oldResults = new LinkedHashSet<>();
-		Pattern p = Pattern.compile("^`\"([^`\"]+)\"`$");
-		for(ResultContainer r : results) {
-			EntryPointNode caller = r.getCallerEp();
-			Set<Doublet> authLogic = epsToAuthLogic.get(caller);
-			boolean hasSystemPermission = false;
-			for(Doublet d : authLogic) {
-				String perm = d.toString();
-				Matcher m = p.matcher(perm);
-				if(m.matches())
-					perm = m.group(1);
-				Permission permission = systemAndroidManifest.getPermission(perm);
-				if(permission != null) {
-					boolean hasUserProtectionLevel = false;
-					Set<String> protectionLevels = permission.getProtectionLevels();
-					for(String s : allowedProtectionLevels) {
-						if(protectionLevels.contains(s))
-							hasUserProtectionLevel = true;
-					}
-					if(!hasUserProtectionLevel) {
-						hasSystemPermission = true;
-						break;
-					}
-				} else if(perm.equals("com.android.printspooler.permission.ACCESS_ALL_PRINT_JOBS")) {
-					//Not defined in the system android manifest but in the app itself?
-					//Defined as signature in Android 8.0.1
-					//Used in the PrintManagerService
+	//The verdict only depends on the caller so it is computed once per caller and kept in callerToThirdPartyAccessable
+	static boolean keepIfCallerAccessableByThirdParties(ResultContainer r, Map<EntryPointNode, Set<Doublet>> epsToAuthLogic, 
+			SystemAndroidManifest systemAndroidManifest, Map<EntryPointNode,Boolean> callerToThirdPartyAccessable) {
+		EntryPointNode caller = r.getCallerEp();
+		Boolean ret = callerToThirdPartyAccessable.get(caller);
+		if(ret == null) {
+			ret = isAccessableByThirdParties(epsToAuthLogic.get(caller), systemAndroidManifest);
+			callerToThirdPartyAccessable.put(caller, ret);
+		}
+		return ret;
+	}
+	
+	private static boolean isAccessableByThirdParties(Set<Doublet> authLogic, SystemAndroidManifest systemAndroidManifest) {
+		boolean hasSystemPermission = false;
+		for(Doublet d : authLogic) {
+			String perm = d.toString();
+			Matcher m = permStringPattern.matcher(perm);
+			if(m.matches())
+				perm = m.group(1);
+			Permission permission = systemAndroidManifest.getPermission(perm);
+			if(permission != null) {
+				if(!permission.hasAnyProtectionLevel(userProtectionLevels)) {
 					hasSystemPermission = true;
 					break;
 				}
+			} else if(perm.equals("com.android.printspooler.permission.ACCESS_ALL_PRINT_JOBS")) {
+				//Not defined in the system android manifest but in the app itself?
+				//Defined as signature in Android 8.0.1
+				//Used in the PrintManagerService
+				hasSystemPermission = true;
+				break;
 			}
-			if(!hasSystemPermission) {
-				newResults.add(r);
-			} else {
-				oldResults.add(r);
+		}
+		return !hasSystemPermission;
+	}
+	
+	//Only called during the single hops stage
+	private boolean keepIfNotSameCallingIdentity(ResultContainer r, 
+			Map<EntryPointNode,Map<EntryPointNode,Set<SootUnitContainer>>> deputyToTargetToSources) {
+		CallGraph cg = Scene.v().getCallGraph();
+		EntryPointNode deputy = r.getCallerEp();
+		EntryPointNode target = r.getTargetEp();
+		
+		if(allowedPairs.contains(deputy, target))
+			return true;
+		
+		Set<SootUnitContainer> sources = deputyToTargetToSources.get(deputy).get(target);
+		if(isCallingTargetService(deputy, target, sources)) {
+			EntryPoint ep = getSootEntryPoint(deputy);
+			ExcludingEdgePredicate edgePred = new ExcludingEdgePredicate(cg,getExcludeHandler(deputy));
+			boolean allSourcesInSameContext = true;
+			for(SootUnitContainer source : sources) {
+				SootMethod sourceMethod = getSootMethod(source.getSource());
+				Unit sourceUnit = getUnit(source);
+				Set<Unit> dominators = new HashSet<>();
+				ArrayDeque<Pair<Unit,SootMethod>> queue = new ArrayDeque<>();
+				Set<Pair<Unit,SootMethod>> seen = new HashSet<>();
+				queue.add(new Pair<>(sourceUnit,sourceMethod));
+				while(!queue.isEmpty()) {
+					Pair<Unit,SootMethod> p = queue.poll();
+					Unit unit = p.getFirst();
+					SootMethod method = p.getSecond();
+					FastDominatorsFinder<Unit> f = methodCache.getDominatorsFinder(method);
+					dominators.addAll(f.getDominatorsSet(unit));
+					
+					if(!method.equals(ep.getEntryPoint())) {
+						Iterator<Edge> it = cg.edgesInto(method);
+						while(it.hasNext()) {
+							Edge e = it.next();
+							if(edgePred.want(e)) {
+								Pair<Unit,SootMethod> newP = new Pair<>(e.srcUnit(),e.src());
+								if(seen.add(newP) && !queue.contains(newP)) {
+									queue.add(newP);
+								}
+							}
+						}
+					}
+				}
+				
+				boolean clearsCallingId = false;
+				boolean restoresCallingId = false;
+				for(Unit u : dominators) {
+					if(((Stmt)u).containsInvokeExpr()) {
+						SootMethodRef ref = ((Stmt)u).getInvokeExpr().getMethodRef();
+						String name = ref.name();
+						String sc = ref.declaringClass().toString();
+						if((name.equals("clearCallingIdentity") && sc.equals("android.os.Binder")) 
+							|| (name.equals("binderClearCallingIdentity") 
+								&& sc.equals("com.android.server.devicepolicy.DevicePolicyManagerService$Injector"))
+							|| (name.equals("injectClearCallingIdentity") 
+									&& sc.equals("com.android.server.pm.LauncherAppsService$LauncherAppsImpl"))
+							|| (name.equals("injectClearCallingIdentity")
+									&& sc.equals("com.android.server.pm.ShortcutService"))
+						) {
+							clearsCallingId = true;
+						} else if((name.equals("restoreCallingIdentity") && sc.toString().equals("android.os.Binder"))
+							|| (name.equals("binderRestoreCallingIdentity") 
+								&& sc.equals("com.android.server.devicepolicy.DevicePolicyManagerService$Injector"))
+							|| (name.equals("injectRestoreCallingIdentity") 
+									&& sc.equals("com.android.server.pm.LauncherAppsService$LauncherAppsImpl"))
+							|| (name.equals("injectRestoreCallingIdentity")
+									&& sc.equals("com.android.server.pm.ShortcutService"))
+						) {
+							restoresCallingId = true;
+						}
+					}
+				}
+				
+				if(clearsCallingId != restoresCallingId)
+					allSourcesInSameContext = false;
+			}
+			
+			return !allSourcesInSameContext;
+		}
+		return true;
+	}
+	
+	//True if the deputy calls the target through a reference to the service of the target or is part of that service
+	private boolean isCallingTargetService(EntryPointNode deputy, EntryPointNode target, Set<SootUnitContainer> sources) {
+		String dc = deputy.getEntryPoint().getDeclaringClass();
+		String tc = target.getEntryPoint().getDeclaringClass();
+		for(SootUnitContainer source : sources) {
+			if(((Stmt)getUnit(source)).getInvokeExpr().getMethodRef().declaringClass().toString().equals(tc))
+				return true;
+		}
+		return dc.equals(tc) || (dc.startsWith(tc) && !dc.replace(tc + "$", "").contains("$"));
+	}
+	
+	//Builds the dominators of every method the backward walks of keepIfNotSameCallingIdentity visit
+	private void prepareNotSameCallingIdentity(ResultContainer r, 
+			Map<EntryPointNode,Map<EntryPointNode,Set<SootUnitContainer>>> deputyToTargetToSources) {
+		EntryPointNode deputy = r.getCallerEp();
+		EntryPointNode target = r.getTargetEp();
+		if(allowedPairs.contains(deputy, target))
+			return;
+		Set<SootUnitContainer> sources = deputyToTargetToSources.get(deputy).get(target);
+		if(!isCallingTargetService(deputy, target, sources))
+			return;
+		CallGraph cg = Scene.v().getCallGraph();
+		SootMethod epMethod = getSootEntryPoint(deputy).getEntryPoint();
+		ExcludingEdgePredicate edgePred = new ExcludingEdgePredicate(cg,getExcludeHandler(deputy));
+		Set<SootMethod> seen = new HashSet<>();
+		ArrayDeque<SootMethod> queue = new ArrayDeque<>();
+		for(SootUnitContainer source : sources) {
+			SootMethod sourceMethod = getSootMethod(source.getSource());
+			if(seen.add(sourceMethod))
+				queue.add(sourceMethod);
+		}
+		while(!queue.isEmpty()) {
+			SootMethod method = queue.poll();
+			methodCache.getDominatorsFinder(method);
+			if(!method.equals(epMethod)) {
+				Iterator<Edge> it = cg.edgesInto(method);
+				while(it.hasNext()) {
+					Edge e = it.next();
+					if(edgePred.want(e) && seen.add(e.src()))
+						queue.add(e.src());
+				}
 			}
 		}
+	}
+	
+	private boolean keepIfTargetNotUsedInChecks(ResultContainer r, EntryPointClosure closure,
+			Map<EntryPointNode,Map<EntryPointNode,Set<SootUnitContainer>>> deputyToTargetToSources) {
+		EntryPointNode deputy = r.getCallerEp();
+		EntryPointNode target = r.getTargetEp();
+		EntryPointNode targetCaller = null;
+		
+		if(allowedPairs.contains(deputy, target))
+			return true;
 		
-		oldResults = SortingMethods.sortSet(oldResults);
-		Path out = FileHelpers.getPath(config.getFilePath("debug_arf-dir"), "callers_with_system_permissions.txt");
+		if(closure != null) {
+			targetCaller = closure.getPredecessor(deputy, target);
+		} else {
+			targetCaller = deputy;
+		}
+		Set<SootUnitContainer> sources = deputyToTargetToSources.get(targetCaller).get(target);
+		ContextQueryIndex cqIndex = getContextQueryIndex(targetCaller);
+		Set<SootMethodContainer> sourceMethods = new HashSet<>();
+		for(SootUnitContainer u : sources) {
+			//The callsite of the target is not in a CQ method body or the sub graph of a CQ
+			if(sourceMethods.add(u.getSource()) && !cqIndex.isInContextQuery(getSootMethod(u.getSource())))
+				return true;
+		}
+		return false;
+	}
+	
+	private void prepareTargetNotUsedInChecks(ResultContainer r, EntryPointClosure closure,
+			Map<EntryPointNode,Map<EntryPointNode,Set<SootUnitContainer>>> deputyToTargetToSources) {
+		EntryPointNode deputy = r.getCallerEp();
+		EntryPointNode target = r.getTargetEp();
+		if(allowedPairs.contains(deputy, target))
+			return;
+		EntryPointNode targetCaller = closure != null ? closure.getPredecessor(deputy, target) : deputy;
+		getContextQueryIndex(targetCaller);
+		for(SootUnitContainer u : deputyToTargetToSources.get(targetCaller).get(target))
+			getSootMethod(u.getSource());
+	}
+	
+	//Fills the shared state from the snapshot if it was taken of the same inputs so the databases are never read,
+	//returns false only if the inputs could not be hashed
+	private boolean loadClosureSnapshot() {
+		String key = getSnapshotKey();
+		if(key == null)
+			return false;
+		Path p = config.getFilePath("arf_closure-snapshot-file");
+		if(Files.isRegularFile(p)) {
+			try {
+				ClosureSnapshot snapshot = ClosureSnapshot.open(p, key);
+				if(snapshot != null) {
+					EntryPointGraph graph = snapshot.getGraph();
+					shared.closure = EntryPointClosure.load(graph, snapshot);
+					shared.epsToAuthLogic = snapshot.getEpsToAuthLogic();
+					shared.deputyToTargetToSources = snapshot.getDeputyToTargetToSources();
+					shared.graph = graph;
+					logger.info("{}: Reusing the closure snapshot at '{}'.",cn,p);
+					return true;
+				}
+				logger.info("{}: The closure snapshot at '{}' is for different inputs. It will be rebuilt.",cn,p);
+			} catch(Throwable t) {
+				shared.closure = null;
+				shared.epsToAuthLogic = null;
+				shared.deputyToTargetToSources = null;
+				logger.info("{}: Could not read the closure snapshot at '{}'. It will be rebuilt.",cn,p);
+			}
+		}
+		return true;
+	}
+	
+	//Builds the closure and replaces the snapshot with one of it and the data of the source
+	private EntryPointClosure getClosure(EntryPointGraph graph) {
+		EntryPointClosure ret = EntryPointClosure.build(graph);
+		if(!snapshotClosure)
+			return ret;
+		String key = getSnapshotKey();
+		if(key == null)
+			return null;
+		if(shared.epsToAuthLogic == null)
+			shared.epsToAuthLogic = source.getEpsToAuthLogic();
+		if(shared.deputyToTargetToSources == null)
+			shared.deputyToTargetToSources = source.getDeputyToTargetToSources();
+		Path p = config.getFilePath("arf_closure-snapshot-file");
 		try {
-			dumpResultsSet(oldResults, out);
+			if(!ClosureSnapshot.write(p, key, ret, shared.epsToAuthLogic, shared.deputyToTargetToSources))
+				logger.info("{}: The closure is too large to snapshot.",cn);
 		} catch(Throwable t) {
-			logger.fatal("{}: Failed to output file '{}'",t,cn,out);
+			logger.fatal("{}: Failed to output file '{}'",t,cn,p);
 			return null;
 		}
-		
-		return newResults;
+		return ret;
 	}
 	
-	private Map<EntryPointNode, Set<Doublet>> getEpsToAuthLogic(
-			Map<SootClassContainer, Map<SootMethodContainer, Set<Doublet>>> stubToEpsToAuthLogic) {
-		Map<EntryPointNode, Set<Doublet>> ret = new HashMap<>();
-		for(SootClassContainer stub : stubToEpsToAuthLogic.keySet()) {
-			Map<SootMethodContainer, Set<Doublet>> epToAuthLogic = stubToEpsToAuthLogic.get(stub);
-			for(SootMethodContainer ep : epToAuthLogic.keySet()) {
-				ret.put(new EntryPointNode(ep,stub), epToAuthLogic.get(ep));
+	//The hash of the data source and the files it reads, i.e. the dependencies of the phase, or null if a file could not be hashed
+	private String getSnapshotKey() {
+		if(shared.snapshotKey == null) {
+			StringBuilder sb = new StringBuilder();
+			sb.append("source\t").append(source.toString()).append('\n');
+			Path cur = null;
+			try {
+				if(handler instanceof ARFHandler) {
+					int i = 0;
+					for(Path p : ((ARFHandler)handler).getDependencyFilePaths()) {
+						cur = p;
+						sb.append("dependency:").append(i++).append('\t').append(getDependencyHash(p)).append('\n');
+					}
+				}
+				shared.snapshotKey = ContentHash.of(sb.toString());
+			} catch(Throwable t) {
+				logger.fatal("{}: Failed to hash the input '{}'.",t,cn,cur);
+				return null;
 			}
 		}
-		for(EntryPointNode ep : ret.keySet()) {
-			ret.put(ep, SortingMethods.sortSet(ret.get(ep)));
+		return shared.snapshotKey;
+	}
+	
+	private String getDependencyHash(Path p) throws Exception {
+		String ret = shared.dependencyHashes.get(p);
+		if(ret == null) {
+			ret = RunManifest.hash(p);
+			shared.dependencyHashes.put(p, ret);
 		}
-		return SortingMethods.sortMapKeyAscending(ret);
+		return ret;
 	}
 	
-	private Map<EntryPointNode, Set<EntryPointNode>> getDirectlyCalledEpsForEps() {
-		Map<EntryPointNode, Set<EntryPointNode>> ret = new LinkedHashMap<>();
-		for(EntryPointContainer epContainer : ieepsDB.getOutputData()) {
-			SootMethodContainer ep = epContainer.getEntryPointContainer();
-			SootClassContainer stub = epContainer.getStubContainer();
-			Set<EntryPointNode> temp;
-			if(ep.getDeclaringClass().equals("android.os.Binder")) { //Remove all binder methods because they are noise
-				temp = Collections.emptySet();
-			} else {
-				temp = new LinkedHashSet<>();
-				for(EntryPointEdge other : epContainer.getReferenceEntryPointContainers()) {
-					SootMethodContainer otherM = other.getReferencedEntryPointContainer();
-					SootClassContainer otherC = other.getReferencedStubContainer();
-					if(!otherM.getDeclaringClass().equals("android.os.Binder"))
-						temp.add(new EntryPointNode(otherM,otherC));
+	//The hashes of all the options and files the outputs depend on, the number of threads and cache sizes do not change the outputs.
+	//The files only read by the later checks are recorded with their check so changing them only reruns those checks.
+	private RunManifest getRunManifest() {
+		RunManifest ret = new RunManifest();
+		for(String o : ARFHandler.booleanOptions) {
+			if(!optionsNotChangingOutputs.contains(o))
+				ret.addInput("option:" + o, Boolean.toString(isOptionEnabled(o)));
+		}
+		ret.addInput("source", source.toString());
+		String[] files = {"work_system-android-manifest-file", "arf_only-caller-restrictions-file", 
+				"acminer_registered-services-temp-file", "arf_single-hop-temp-file", "arf_methods-with-arg-names-temp-file", 
+				"arf_allowed-pairs-file"};
+		Path cur = null;
+		try {
+			for(String f : files) {
+				cur = config.getFilePath(f);
+				ret.addInputFile("file:" + f, cur);
+			}
+			cur = config.getFilePath("arf_special-caller-context-queries-temp-file");
+			ret.addCheckInputFile("file:arf_special-caller-context-queries-temp-file", cur, 11);
+			cur = config.getFilePath("arf_known-vuln-paths-temp-file");
+			ret.addCheckInputFile("file:arf_known-vuln-paths-temp-file", cur, afterLastCheck);
+			if(handler instanceof ARFHandler) {
+				int i = 0;
+				for(Path p : ((ARFHandler)handler).getDependencyFilePaths()) {
+					cur = p;
+					ret.addInput("dependency:" + i++, getDependencyHash(p));
 				}
 			}
-			ret.put(new EntryPointNode(ep,stub), temp);
+		} catch(Throwable t) {
+			logger.fatal("{}: Failed to hash the input '{}'.",t,cn,cur);
+			return null;
 		}
 		return ret;
 	}
 	
-	private Map<EntryPointNode,Map<EntryPointNode,Set<SootUnitContainer>>> getsourcesForSingleEdgePaths() {
-		Map<EntryPointNode,Map<EntryPointNode,Set<SootUnitContainer>>> deputyToTargetToSources = new HashMap<>();
-		for(EntryPointContainer epContainer : ieepsDB.getOutputData()) {
-			Map<EntryPointNode,Set<SootUnitContainer>> targetToSources = new HashMap<>();
-			deputyToTargetToSources.put(new EntryPointNode(epContainer.getEntryPointContainer(),epContainer.getStubContainer()), targetToSources);
-			for(EntryPointEdge other : epContainer.getReferenceEntryPointContainers()) {
-				EntryPointNode tgt = new EntryPointNode(other.getReferencedEntryPointContainer(),other.getReferencedStubContainer());
-				for(SourceContainer sourceC : other.getSourceContainers()) {
-					Set<SootUnitContainer> sources = targetToSources.get(tgt);
-					if(sources == null) {
-						sources = new HashSet<>();
-						targetToSources.put(tgt, sources);
-					}
-					sources.addAll(sourceC.getUnitContainers());
-				}
+	//Each profile keeps its own manifest named after the profile
+	private Path getRunManifestFile() {
+		Path p = config.getFilePath("arf_run-manifest-file");
+		if(profile == null)
+			return p;
+		String name = p.getFileName().toString();
+		int i = name.lastIndexOf('.');
+		return p.resolveSibling(i < 0 ? name + "_" + profile.getName() 
+				: name.substring(0, i) + "_" + profile.getName() + name.substring(i));
+	}
+	
+	//The file of the given key placed in the output directory of the profile instead of debug_arf-dir
+	private Path getOutputFile(String key) {
+		return FileHelpers.getPath(outDir, config.getFilePath(key).getFileName().toString());
+	}
+	
+	//Checked by the handler before Soot is loaded so an incremental run that can reuse the outputs of the last run never loads it
+	public boolean isUpToDate() {
+		if(!incremental)
+			return false;
+		RunManifest manifest = getRunManifest();
+		return manifest != null && reuseLastRun(manifest, getFirstChangedCheck(manifest));
+	}
+	
+	//If only the known vuln paths changed the outputs are still valid as long as the last run removed none of them
+	private boolean reuseLastRun(RunManifest manifest, int check) {
+		if(check == Integer.MAX_VALUE)
+			return true;
+		if(check == afterLastCheck && !removedKnownVulnInLastRun())
+			return writeRunManifest(manifest);
+		return false;
+	}
+	
+	//The first check whose inputs changed since the last run, Integer.MAX_VALUE if none did, or 0 if none of the outputs 
+	//of the last run can be reused
+	private int getFirstChangedCheck(RunManifest manifest) {
+		Path p = getRunManifestFile();
+		if(!Files.isRegularFile(p))
+			return 0;
+		try {
+			RunManifest old = RunManifest.read(p);
+			if(old == null || !old.hasOutputs())
+				return 0;
+			int ret = manifest.getFirstChangedCheck(old);
+			if(ret == 0 || !old.areOutputsUnchanged(config.getFilePath("debug-dir")))
+				return 0;
+			return ret;
+		} catch(Throwable t) {
+			logger.info("{}: Could not read the run manifest at '{}'. Running the analysis again.",cn,p);
+			return 0;
+		}
+	}
+	
+	//Matched by signature against the result store as the graph is not built yet, true if the store could not be read
+	private boolean removedKnownVulnInLastRun() {
+		if(!testIfKnownVuln)
+			return false;
+		Path p = getOutputFile("debug_arf-result-store-file");
+		try {
+			Set<String> pairs = new HashSet<>();
+			for(Pair<String,String> pair : readKnownVulnPaths(config.getFilePath("arf_known-vuln-paths-temp-file")))
+				pairs.add(pair.getFirst() + "\t" + pair.getSecond());
+			ResultStoreReader store = ResultStoreReader.open(p);
+			for(int i = 0; i < store.getRecordCount(); i++) {
+				int stage = store.getStage(i);
+				if(stage >= 0 && store.getTarget(i) >= 0 && store.getStageCheck(stage) >= firstKnownVulnCheck
+						&& pairs.contains(store.getString(store.getNodeSignatureId(store.getCaller(i))) + "\t" 
+								+ store.getString(store.getNodeSignatureId(store.getTarget(i)))))
+					return true;
 			}
+			return false;
+		} catch(Throwable t) {
+			logger.info("{}: Could not read the result store at '{}'. Running the analysis again.",cn,p);
+			return true;
 		}
-		return deputyToTargetToSources;
 	}
 	
-	//Only called during the single hops stage
-	private Set<ResultContainer> removeAllSameCallingIdentity(Set<ResultContainer> results, 
-			Map<EntryPointNode,Map<EntryPointNode,Set<SootUnitContainer>>> deputyToTargetToSources) {
-		Set<ResultContainer> ret = new LinkedHashSet<>();
-		Set<ResultContainer> removed = new HashSet<>();
-		CallGraph cg = Scene.v().getCallGraph();
-		Map<SootMethod,FastDominatorsFinder<Unit>> dominatorsCache = new HashMap<>();
-		for(ResultContainer r : results) {
-			EntryPointNode deputy = r.getCallerEp();
-			EntryPointNode target = r.getTargetEp();
-			
-			boolean found = false;
-			for(Pair<String,String> p : allowedPairs) {
-				if(p.getFirst().equals(deputy.getEntryPoint().getSignature()) && p.getSecond().equals(target.getEntryPoint().getSignature())) {
+	//The results the last run passed to the given check rebuilt from its result store. What the earlier checks removed
+	//is copied to the new store and tested for known vulns again as they may have changed too.
+	private Set<ResultContainer> loadResultsBefore(int check, EntryPointGraph graph, DoubletTable doubletTable) {
+		Path p = getOutputFile("debug_arf-result-store-file");
+		try {
+			ResultStoreReader store = ResultStoreReader.open(p);
+			Map<String,EntryPointNode> keyToNode = new HashMap<>();
+			for(int i = 0; i < graph.size(); i++) {
+				EntryPointNode ep = graph.getNode(i);
+				keyToNode.put(ep.getStub().getSignature() + "\t" + ep.getEntryPoint().getSignature(), ep);
+			}
+			EntryPointNode[] nodes = new EntryPointNode[store.getNodeCount()];
+			for(int i = 0; i < nodes.length; i++) {
+				String key = store.getString(store.getNodeStubId(i)) + "\t" + store.getString(store.getNodeSignatureId(i));
+				nodes[i] = keyToNode.get(key);
+				if(nodes[i] == null)
+					throw new Exception("Error: The entry point '" + key + "' of the result store is not in the graph");
+			}
+			List<Set<ResultContainer>> removed = new ArrayList<>();
+			for(int i = 0; i < store.getStageCount(); i++)
+				removed.add(new LinkedHashSet<ResultContainer>());
+			Set<ResultContainer> ret = new LinkedHashSet<>();
+			for(int i = 0; i < store.getRecordCount(); i++) {
+				int stage = store.getStage(i);
+				ResultContainer r = loadResult(store, i, nodes, doubletTable);
+				if(stage < 0 || store.getStageCheck(stage) >= check)
 					ret.add(r);
-					found = true;
-					break;
+				else
+					removed.get(stage).add(r);
+			}
+			for(int i = 0; i < removed.size(); i++) {
+				int stageCheck = store.getStageCheck(i);
+				if(stageCheck < check) {
+					resultStore.addRemoved(resultStore.addStage(stageCheck, store.getStageName(i)), removed.get(i));
+					if(stageCheck >= firstKnownVulnCheck && !testIfKnownVulnWereRemoved(removed.get(i)))
+						return null;
 				}
 			}
-			if(found)
-				continue;
-			
-			Set<SootUnitContainer> sources = deputyToTargetToSources.get(deputy).get(target);
-			String dc = deputy.getEntryPoint().getDeclaringClass();
-			String tc = target.getEntryPoint().getDeclaringClass();
-			
-			boolean hasDirectReferenceToTargetService = false;
-			for(SootUnitContainer source : sources) {
-				if(((Stmt)source.toUnit()).getInvokeExpr().getMethodRef().declaringClass().toString().equals(tc)) {
-					hasDirectReferenceToTargetService = true;
-					break;
-				}
+			return ret;
+		} catch(Throwable t) {
+			logger.fatal("{}: Could not read the results of the last run from '{}'.",t,cn,p);
+			return null;
+		}
+	}
+	
+	//The missing checks and ratio are recomputed from the doublets as they are not changed by the later checks
+	private static ResultContainer loadResult(ResultStoreReader store, int record, EntryPointNode[] nodes, 
+			DoubletTable doubletTable) {
+		EntryPointNode caller = nodes[store.getCaller(record)];
+		int target = store.getTarget(record);
+		if(target < 0)
+			return new ResultContainer(caller);
+		int[] path = store.getPath(record);
+		List<EntryPointNode> pathNodes = null;
+		if(path.length > 0) {
+			pathNodes = new ArrayList<>(path.length);
+			for(int node : path)
+				pathNodes.add(nodes[node]);
+		}
+		return getResult(doubletTable, caller, nodes[target], pathNodes);
+	}
+	
+	private boolean writeRunManifest(RunManifest manifest) {
+		Path p = getRunManifestFile();
+		Path debugDir = config.getFilePath("debug-dir");
+		try {
+			manifest.addOutputs(debugDir, outDir);
+			manifest.addOutputs(debugDir, config.getFilePath("debug_arf-graph-dir"));
+			manifest.write(p);
+		} catch(Throwable t) {
+			logger.fatal("{}: Failed to output file '{}'",t,cn,p);
+			return false;
+		}
+		return true;
+	}
+	
+	//Reuses the verdicts of a previous run if they were computed from the same jimple jar
+	private FirstIfVerdicts loadFirstIfVerdicts() {
+		if(!persistFirstIfVerdicts)
+			return new FirstIfVerdicts(null);
+		String jarHash = null;
+		Path jimpleJar = handler instanceof ARFHandler ? ((ARFHandler)handler).getJimpleJar() : null;
+		if(jimpleJar != null) {
+			try {
+				jarHash = ContentHash.of(jimpleJar);
+			} catch(Throwable t) {
+				logger.info("{}: Could not hash the jimple jar '{}'. The first if verdicts will not be reused.",cn,jimpleJar);
 			}
-			
-			if(hasDirectReferenceToTargetService || dc.equals(tc) || (dc.startsWith(tc) && !dc.replace(tc + "$", "").contains("$"))) {
-				EntryPoint ep = deputy.getSootEntryPoint();
-				//Assume 1-1 mapping between method and entry point which should be true because Binder methods have been removed
-				IExcludeHandler excludeHandler = dataAccessor.getExcludedElementsDB().createNewExcludeHandler(ep);;
-				ExcludingEdgePredicate edgePred = new ExcludingEdgePredicate(cg,excludeHandler);
-				boolean allSourcesInSameContext = true;
-				for(SootUnitContainer source : sources) {
-					SootMethod sourceMethod = source.getSource().toSootMethod();
-					Unit sourceUnit = source.toUnit();
-					Set<Unit> dominators = new HashSet<>();
-					ArrayDeque<Pair<Unit,SootMethod>> queue = new ArrayDeque<>();
-					Set<Pair<Unit,SootMethod>> seen = new HashSet<>();
-					queue.add(new Pair<>(sourceUnit,sourceMethod));
-					while(!queue.isEmpty()) {
-						Pair<Unit,SootMethod> p = queue.poll();
-						Unit unit = p.getFirst();
-						SootMethod method = p.getSecond();
-						FastDominatorsFinder<Unit> f = dominatorsCache.get(method);
-						if(f == null) {
-							f = new FastDominatorsFinder<>(new ExceptionalUnitGraph(method.retrieveActiveBody()));
-							dominatorsCache.put(method, f);
-						}
-						dominators.addAll(f.getDominatorsSet(unit));
-						
-						if(!method.equals(ep.getEntryPoint())) {
-							Iterator<Edge> it = cg.edgesInto(method);
-							while(it.hasNext()) {
-								Edge e = it.next();
-								if(edgePred.want(e)) {
-									Pair<Unit,SootMethod> newP = new Pair<>(e.srcUnit(),e.src());
-									if(seen.add(newP) && !queue.contains(newP)) {
-										queue.add(newP);
-									}
-								}
-							}
-						}
-					}
-					
-					boolean clearsCallingId = false;
-					boolean restoresCallingId = false;
-					for(Unit u : dominators) {
-						if(((Stmt)u).containsInvokeExpr()) {
-							SootMethodRef ref = ((Stmt)u).getInvokeExpr().getMethodRef();
-							String name = ref.name();
-							String sc = ref.declaringClass().toString();
-							if((name.equals("clearCallingIdentity") && sc.equals("android.os.Binder")) 
-								|| (name.equals("binderClearCallingIdentity") 
-									&& sc.equals("com.android.server.devicepolicy.DevicePolicyManagerService$Injector"))
-								|| (name.equals("injectClearCallingIdentity") 
-										&& sc.equals("com.android.server.pm.LauncherAppsService$LauncherAppsImpl"))
-								|| (name.equals("injectClearCallingIdentity")
-										&& sc.equals("com.android.server.pm.ShortcutService"))
-							) {
-								clearsCallingId = true;
-							} else if((name.equals("restoreCallingIdentity") && sc.toString().equals("android.os.Binder"))
-								|| (name.equals("binderRestoreCallingIdentity") 
-									&& sc.equals("com.android.server.devicepolicy.DevicePolicyManagerService$Injector"))
-								|| (name.equals("injectRestoreCallingIdentity") 
-										&& sc.equals("com.android.server.pm.LauncherAppsService$LauncherAppsImpl"))
-								|| (name.equals("injectRestoreCallingIdentity")
-										&& sc.equals("com.android.server.pm.ShortcutService"))
-							) {
-								restoresCallingId = true;
-							}
-						}
-					}
-					
-					if(clearsCallingId != restoresCallingId)
-						allSourcesInSameContext = false;
-				}
-				
-				if(allSourcesInSameContext) {
-					removed.add(r);
-				} else {
-					ret.add(r);
-				}
-				
-			} else {
-				ret.add(r);
+		}
+		FirstIfVerdicts ret = new FirstIfVerdicts(jarHash);
+		Path p = config.getFilePath("debug_arf-first-if-verdicts-file");
+		if(jarHash != null && Files.isRegularFile(p)) {
+			try {
+				if(ret.read(p))
+					logger.info("{}: Reusing {} first if verdicts from '{}'.",cn,ret.size(),p);
+			} catch(Throwable t) {
+				logger.info("{}: Could not read the first if verdicts at '{}'. They will be recomputed.",cn,p);
+				ret = new FirstIfVerdicts(jarHash);
 			}
-			
 		}
-		
-		removed = SortingMethods.sortSet(removed);
-		Path out = FileHelpers.getPath(config.getFilePath("debug_arf-dir"), "removed_paths_with_same_calling_id.txt");
+		return ret;
+	}
+	
+	private boolean writeFirstIfVerdicts() {
+		if(firstIfVerdicts == null || !persistFirstIfVerdicts || !firstIfVerdicts.isChanged())
+			return true;
+		Path p = config.getFilePath("debug_arf-first-if-verdicts-file");
 		try {
-			dumpResultsSet(removed, out);
+			firstIfVerdicts.write(p);
 		} catch(Throwable t) {
-			logger.fatal("{}: Failed to output file '{}'",t,cn,out);
-			return null;
+			logger.fatal("{}: Failed to output file '{}'",t,cn,p);
+			return false;
 		}
-		
-		if(testIfKnownVulnWereRemoved(removed))
-			return ret;
-		return null;
+		return true;
 	}
 	
-	private Set<ResultContainer> removeTargetsUsedInChecks(Set<ResultContainer> results, 
-			Map<EntryPointNode,Map<EntryPointNode,List<EntryPointNode>>> deputyToTargetToPath,
-			Map<EntryPointNode,Map<EntryPointNode,Set<SootUnitContainer>>> deputyToTargetToSources) {
-		Set<ResultContainer> ret = new LinkedHashSet<>();
-		Set<ResultContainer> removed = new HashSet<>();
-		for(ResultContainer r : results) {
-			EntryPointNode deputy = r.getCallerEp();
-			EntryPointNode target = r.getTargetEp();
-			EntryPointNode targetCaller = null;
-			
-			boolean found = false;
-			for(Pair<String,String> p : allowedPairs) {
-				if(p.getFirst().equals(deputy.getEntryPoint().getSignature()) && p.getSecond().equals(target.getEntryPoint().getSignature())) {
-					ret.add(r);
-					found = true;
-					break;
-				}
+	private ContextQueryIndex getContextQueryIndex(EntryPointNode ep) {
+		ContextQueryIndex ret;
+		synchronized(contextQueryIndexes) {
+			ret = contextQueryIndexes.get(ep);
+		}
+		if(ret == null) {
+			EntryPoint sootEp = getSootEntryPoint(ep);
+			synchronized(bodyLock) {
+				ret = ContextQueryIndex.build(cqdb.getContextQueriesWithSubGraphMethods(sootEp));
 			}
-			if(found)
-				continue;
-			
-			if(deputyToTargetToPath != null) {
-				List<EntryPointNode> path = deputyToTargetToPath.get(deputy).get(target);
-				targetCaller = path.get(path.size()-2);
-			} else {
-				targetCaller = deputy;
-			}
-			Set<SootUnitContainer> sources = deputyToTargetToSources.get(targetCaller).get(target);
-			Map<SootMethod,Set<SootMethod>> contextQueriesToSubGraphMethods = cqdb.getContextQueriesWithSubGraphMethods(targetCaller.getSootEntryPoint());
-			Set<SootMethodContainer> sourceMethods = new HashSet<>();
-			Set<SootMethod> sourcesNotInContextQueries = new HashSet<>();
-			for(SootUnitContainer u : sources) {
-				if(sourceMethods.add(u.getSource())) {
-					SootMethod sourceMethod = u.getSource().toSootMethod();
-					found = false;
-					for(SootMethod cq : contextQueriesToSubGraphMethods.keySet()) {
-						//The callsite of the target is in a CQ method body or the sub graph of the CQ
-						if(cq.equals(sourceMethod) || contextQueriesToSubGraphMethods.get(cq).contains(sourceMethod)) { 
-							found = true;
-							break;
-						} 
-					}
-					if(!found)
-						sourcesNotInContextQueries.add(sourceMethod);
-				}
+			synchronized(contextQueryIndexes) {
+				contextQueryIndexes.put(ep, ret);
 			}
-			if(sourcesNotInContextQueries.isEmpty()) {
-				removed.add(r);
-			} else {
-				ret.add(r);
+		}
+		return ret;
+	}
+	
+	private SootMethod getSootMethod(SootMethodContainer m) {
+		SootMethod ret = sootMethods.get(m);
+		if(ret == null) {
+			synchronized(bodyLock) {
+				ret = m.toSootMethod();
 			}
+			sootMethods.put(m, ret);
 		}
-		
-		removed = SortingMethods.sortSet(removed);
-		Path out = FileHelpers.getPath(config.getFilePath("debug_arf-dir"), "removed_paths_target_part_of_checks.txt");
-		try {
-			dumpResultsSet(removed, out);
-		} catch(Throwable t) {
-			logger.fatal("{}: Failed to output file '{}'",t,cn,out);
-			return null;
+		return ret;
+	}
+	
+	private EntryPoint getSootEntryPoint(EntryPointNode ep) {
+		EntryPoint ret = sootEntryPoints.get(ep);
+		if(ret == null) {
+			synchronized(bodyLock) {
+				ret = ep.getSootEntryPoint();
+			}
+			sootEntryPoints.put(ep, ret);
 		}
-		
-		if(testIfKnownVulnWereRemoved(removed))
-			return ret;
-		return null;
+		return ret;
 	}
 	
-	private Map<EntryPointNode, Map<EntryPointNode,List<EntryPointNode>>> getAllEpsForEps() {
-		Map<EntryPointNode, Set<EntryPointNode>> directEps = getDirectlyCalledEpsForEps();
-		Map<EntryPointNode,Map<EntryPointNode,List<EntryPointNode>>> callerToTargetToPath = new LinkedHashMap<>();
-		for(EntryPointNode ep : directEps.keySet()) {
-			ArrayDeque<EntryPointNode> toVisit = new ArrayDeque<>();
-			ArrayDeque<List<EntryPointNode>> toVisitPaths = new ArrayDeque<>();
-			Map<EntryPointNode,List<EntryPointNode>> targetToPath = new HashMap<>();
-			toVisit.add(ep);
-			toVisitPaths.add(ImmutableList.of(ep));
-			while(!toVisit.isEmpty()) {
-				EntryPointNode cur = toVisit.poll();
-				List<EntryPointNode> path = toVisitPaths.poll();
-				if(!targetToPath.containsKey(cur)) {
-					targetToPath.put(cur, path);
-					Set<EntryPointNode> children = directEps.get(cur);
-					if(children != null && !children.isEmpty()) {
-						for(EntryPointNode other : children) {
-							toVisit.add(other);
-							toVisitPaths.add(ImmutableList.<EntryPointNode>builder().addAll(path).add(other).build());
-						}
-					}
-				}
+	//Resolving a unit may need the body of its method to be built
+	private Unit getUnit(SootUnitContainer u) {
+		Unit ret = units.get(u);
+		if(ret == null) {
+			synchronized(bodyLock) {
+				ret = u.toUnit();
+			}
+			units.put(u, ret);
+		}
+		return ret;
+	}
+	
+	//Assume 1-1 mapping between method and entry point which should be true because Binder methods have been removed
+	private IExcludeHandler getExcludeHandler(EntryPointNode deputy) {
+		IExcludeHandler ret = excludeHandlers.get(deputy);
+		if(ret == null) {
+			EntryPoint ep = getSootEntryPoint(deputy);
+			synchronized(bodyLock) {
+				ret = dataAccessor.getExcludedElementsDB().createNewExcludeHandler(ep);
 			}
-			targetToPath.remove(ep);
-			callerToTargetToPath.put(ep, SortingMethods.sortMapKeyAscending(targetToPath));
+			excludeHandlers.put(deputy, ret);
 		}
-		return callerToTargetToPath;
+		return ret;
 	}
 	
 	private void dumpResultsSet(Set<ResultContainer> results, Path out) throws Exception {
+		ARFEvents.WriteEvent event = new ARFEvents.WriteEvent();
+		event.begin();
 		try(PrintStreamUnixEOL ps = new PrintStreamUnixEOL(Files.newOutputStream(out))) {
 			ps.println("Size: " + results.size());
 			for(ResultContainer r : results) {
 				ps.println(r);
 			}
 		}
+		if(event.shouldCommit()) {
+			event.file = out.toString();
+			event.results = results.size();
+			event.commit();
+		}
 	}
 	
 }
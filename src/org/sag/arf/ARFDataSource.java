@@ -0,0 +1,25 @@
+package org.sag.arf;
+
+import java.util.Map;
+import java.util.Set;
+
+import org.sag.acminer.IACMinerDataAccessor;
+import org.sag.acminer.database.acminer.Doublet;
+import org.sag.soot.xstream.SootUnitContainer;
+
+//The structures handed back are shared by every run on the source and must not be modified
+public interface ARFDataSource {
+
+	EntryPointGraph getGraph();
+
+	//The authorization logic of every entry point sorted by entry point
+	Map<EntryPointNode,Set<Doublet>> getEpsToAuthLogic();
+
+	//The statements in each deputy that call each of its targets
+	Map<EntryPointNode,Map<EntryPointNode,Set<SootUnitContainer>>> getDeputyToTargetToSources();
+
+	//Null if the data did not come from the ACMiner databases in which case any part of the analysis
+	//needing these databases or Soot cannot be run
+	IACMinerDataAccessor getDataAccessor();
+
+}
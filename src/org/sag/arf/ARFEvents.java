@@ -0,0 +1,103 @@
+package org.sag.arf;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+//All events are disabled by default, i.e. enable them with 'org.sag.arf.Filter#enabled=true'
+final class ARFEvents {
+
+	private ARFEvents() {}
+
+	@Name("org.sag.arf.Stage")
+	@Label("ARF Stage")
+	@Description("A stage of the analysis from begin to end")
+	@Category({"ARF"})
+	@Enabled(false)
+	static final class StageEvent extends Event {
+
+		@Label("Stage")
+		String stage;
+
+		@Label("Profile")
+		String profile;
+
+		@Label("Results In")
+		long resultsIn;
+
+		@Label("Results Out")
+		long resultsOut;
+
+	}
+
+	@Name("org.sag.arf.Filter")
+	@Label("ARF Filter Evaluation")
+	@Description("One result evaluated by one stage of the result filters")
+	@Category({"ARF"})
+	@Enabled(false)
+	@StackTrace(false)
+	static final class FilterEvent extends Event {
+
+		@Label("Stage")
+		String stage;
+
+		@Label("Deputy")
+		String deputy;
+
+		@Label("Target")
+		String target;
+
+		@Label("Kept")
+		boolean kept;
+
+	}
+
+	@Name("org.sag.arf.Reachability")
+	@Label("ARF Call Graph Search")
+	@Description("A search of the call graph for the methods reachable from the entry point of a deputy")
+	@Category({"ARF"})
+	@Enabled(false)
+	@StackTrace(false)
+	static final class ReachabilityEvent extends Event {
+
+		@Label("Deputy")
+		String deputy;
+
+		@Label("Methods Reached")
+		int methods;
+
+	}
+
+	@Name("org.sag.arf.Dominators")
+	@Label("ARF Dominators")
+	@Description("The dominators of a method computed for the result filters")
+	@Category({"ARF"})
+	@Enabled(false)
+	@StackTrace(false)
+	static final class DominatorsEvent extends Event {
+
+		@Label("Method")
+		String method;
+
+	}
+
+	@Name("org.sag.arf.Write")
+	@Label("ARF Output Write")
+	@Description("An output file of the analysis written")
+	@Category({"ARF"})
+	@Enabled(false)
+	static final class WriteEvent extends Event {
+
+		@Label("File")
+		String file;
+
+		@Label("Results")
+		long results;
+
+	}
+
+}
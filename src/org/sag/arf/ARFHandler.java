@@ -1,13 +1,17 @@
 package org.sag.arf;
 
 import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
+
 import org.sag.acminer.IACMinerDataAccessor;
 import org.sag.common.io.FileHash;
 import org.sag.main.config.PhaseConfig;
 import org.sag.main.phase.AbstractPhaseHandler;
 import org.sag.main.phase.IPhaseHandler;
+import org.sag.main.phase.IPhaseOption;
 import org.sag.sootinit.IPASootLoader;
 
 public class ARFHandler  extends AbstractPhaseHandler {
@@ -30,8 +34,31 @@ public class ARFHandler  extends AbstractPhaseHandler {
 	public static final String optRemoveAlreadyHandelingMultiUser = "RemoveAlreadyHandelingMultiUser";
 	public static final String optRemoveMultiUserNotNeeded = "RemoveMultiUserNotNeeded";
 	public static final String optWholeGraph = "WholeGraph";
+	public static final String optThreads = "Threads";
+	public static final String optReachCacheMB = "ReachCacheMB";
+	public static final String optFilterThreads = "FilterThreads";
+	public static final String optMethodCacheSize = "MethodCacheSize";
+	public static final String optPersistFirstIfVerdicts = "PersistFirstIfVerdicts";
+	public static final String optCompressTSV = "CompressTSV";
+	public static final String optIncremental = "Incremental";
+	public static final String optSnapshotClosure = "SnapshotClosure";
+	public static final String optMultiProfile = "MultiProfile";
+	public static final String optSynthetic = "Synthetic";
+	public static final String optSyntheticSeed = "SyntheticSeed";
+	public static final String optMetrics = "Metrics";
+	
+	//All options of the phase that take a boolean value
+	public static final List<String> booleanOptions = Collections.unmodifiableList(Arrays.asList(optPerm, optPermString, optGroup, 
+			optOnlyUserPerm, optOnlyCallerRes, optReachingGraph, optSingleHop, optOnlyRegisteredCallers, optOnlyResultsReachingOthers, 
+			optRemoveDeputyTargetChecks, optTestIfKnownVuln, optRemoveTargetsPartOfChecks, optRemoveSameCallingId, 
+			optRemoveGlobalSettingsNoise, optRemoveSpecialCallersRequired, optRemoveAlreadyHandelingMultiUser, 
+			optRemoveMultiUserNotNeeded, optWholeGraph, optPersistFirstIfVerdicts, optCompressTSV, optIncremental, 
+			optSnapshotClosure, optMultiProfile, optMetrics));
 	
 	private Path jimpleJar;
+	private ARFDataSource source;
+	private ARFAnalysis.SharedState shared;
+	private Boolean upToDate;
 	
 	public ARFHandler(List<IPhaseHandler> depPhases, PhaseConfig pc) {
 		super(depPhases, pc);
@@ -43,6 +70,14 @@ public class ARFHandler  extends AbstractPhaseHandler {
 		
 	}
 	
+	public Path getJimpleJar() {
+		return jimpleJar;
+	}
+	
+	public List<Path> getDependencyFilePaths() {
+		return Collections.unmodifiableList(dependencyFilePaths);
+	}
+	
 	@Override
 	protected List<FileHash> getOldDependencyFileHashes() throws Exception {
 		return Collections.emptyList();
@@ -51,20 +86,135 @@ public class ARFHandler  extends AbstractPhaseHandler {
 	@Override
 	protected void loadExistingInformation() throws Exception {}
 
+	//Synthetic data never needs the classes of the image loaded and neither does a run that reuses the outputs of the last
 	@Override
 	protected boolean isSootInitilized() {
-		return IPASootLoader.v().isSootLoaded();
+		return getSyntheticEntryPoints() > 0 || IPASootLoader.v().isSootLoaded() || isUpToDate();
 	}
 
 	@Override
 	protected boolean initilizeSoot() {
+		int entryPoints = getSyntheticEntryPoints();
+		if(entryPoints < 0)
+			return false;
+		if(entryPoints > 0)
+			return true;
 		return IPASootLoader.v().load(((IACMinerDataAccessor)dataAccessor), jimpleJar, ai.getJavaVersion(), logger);
 	}
 	
+	//The whole number value of the option or defaultValue if the option is not enabled
+	static long getLongOption(IPhaseHandler handler, String name, long defaultValue) throws Exception {
+		IPhaseOption<?> o = handler.getPhaseOptionUnchecked(name);
+		if(o == null || !o.isEnabled())
+			return defaultValue;
+		Object value = o.getValue();
+		if(value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte)
+			return ((Number)value).longValue();
+		try {
+			return Long.parseLong(Objects.toString(value).trim());
+		} catch(NumberFormatException e) {
+			throw new Exception("Error: Expected a whole number for the option '" + name + "' but got '" + value + "'");
+		}
+	}
+	
+	//Like getLongOption but the value of an enabled option must also be a positive int
+	static int getPositiveIntOption(IPhaseHandler handler, String name, int defaultValue) throws Exception {
+		IPhaseOption<?> o = handler.getPhaseOptionUnchecked(name);
+		if(o == null || !o.isEnabled())
+			return defaultValue;
+		long ret = getLongOption(handler, name, defaultValue);
+		if(ret <= 0 || ret > Integer.MAX_VALUE)
+			throw new Exception("Error: Expected a number from 1 to " + Integer.MAX_VALUE + " for the option '" + name 
+					+ "' but got '" + ret + "'");
+		return (int)ret;
+	}
+	
+	//Returns 0 if the option is not enabled and -1 if its value is invalid
+	private int getSyntheticEntryPoints() {
+		try {
+			return getPositiveIntOption(this, optSynthetic, 0);
+		} catch(Throwable t) {
+			logger.fatal("{}: Invalid value for the option '{}'.",t,cn,optSynthetic);
+			return -1;
+		}
+	}
+	
+	//Synthetic data of the given number of entry points in place of the ACMiner databases if the option is set
+	//Returns null if the synthetic options are invalid
+	private ARFDataSource getDataSource() {
+		if(source == null)
+			source = newDataSource();
+		return source;
+	}
+	
+	private ARFDataSource newDataSource() {
+		int entryPoints = getSyntheticEntryPoints();
+		if(entryPoints < 0)
+			return null;
+		if(entryPoints > 0) {
+			long seed;
+			try {
+				seed = getLongOption(this, optSyntheticSeed, SyntheticDataSource.defaultSeed);
+			} catch(Throwable t) {
+				logger.fatal("{}: Invalid value for the option '{}'.",t,cn,optSyntheticSeed);
+				return null;
+			}
+			logger.info("{}: Using synthetic data of {} entry points with seed {}.",cn,entryPoints,seed);
+			return SyntheticDataSource.generate(entryPoints, seed);
+		}
+		return new ACMinerDataSource((IACMinerDataAccessor)dataAccessor);
+	}
+	
+	private ARFAnalysis.SharedState getSharedState() {
+		if(shared == null)
+			shared = new ARFAnalysis.SharedState();
+		return shared;
+	}
+	
+	private boolean isMultiProfile() {
+		IPhaseOption<?> o = getPhaseOptionUnchecked(optMultiProfile);
+		return o != null && o.isEnabled();
+	}
+	
+	//True if every profile that would run is incremental and can reuse the outputs of its last run
+	private boolean isUpToDate() {
+		if(upToDate == null) {
+			upToDate = false;
+			try {
+				ARFDataSource source = getDataSource();
+				if(source == null)
+					return false;
+				IACMinerDataAccessor da = (IACMinerDataAccessor)dataAccessor;
+				List<ARFProfile> profiles = isMultiProfile() ? ARFProfile.parser(da.getConfig().getFilePath("arf_profiles-file")) 
+						: Collections.<ARFProfile>singletonList(null);
+				if(profiles.isEmpty())
+					return false;
+				for(ARFProfile profile : profiles) {
+					if(!new ARFAnalysis(source, da.getConfig(), this, logger, profile, getSharedState()).isUpToDate())
+						return false;
+				}
+				upToDate = true;
+			} catch(Throwable t) {
+				logger.info("{}: Could not check if the outputs of the last run are up to date. Running the analysis.",cn);
+			}
+		}
+		return upToDate;
+	}
+	
 	@Override
 	protected boolean doWork() {
+		if(isUpToDate()) {
+			logger.info("{}: The inputs are unchanged since the last run. Reusing its outputs.",cn);
+			return true;
+		}
+		if(isMultiProfile())
+			return doWorkProfiles();
 		try {
-			ARFAnalysis analysis = new ARFAnalysis((IACMinerDataAccessor)dataAccessor, this, logger);
+			ARFDataSource source = getDataSource();
+			if(source == null)
+				return false;
+			ARFAnalysis analysis = new ARFAnalysis(source, ((IACMinerDataAccessor)dataAccessor).getConfig(), this, logger, 
+					null, getSharedState());
 			if(!analysis.init() || !analysis.run()) {
 				logger.fatal("{}: Encountered errors during executation.",cn);
 				return false;
@@ -76,6 +226,41 @@ public class ARFHandler  extends AbstractPhaseHandler {
 		return true;
 	}
 	
+	//Runs every profile in the profiles file one after another sharing the structures built from the databases
+	private boolean doWorkProfiles() {
+		IACMinerDataAccessor da = (IACMinerDataAccessor)dataAccessor;
+		Path p = da.getConfig().getFilePath("arf_profiles-file");
+		List<ARFProfile> profiles;
+		try {
+			profiles = ARFProfile.parser(p);
+		} catch(Throwable t) {
+			logger.fatal("{}: Could not read the profiles file at '{}'.",t,cn,p);
+			return false;
+		}
+		if(profiles.isEmpty()) {
+			logger.fatal("{}: No profiles in the profiles file at '{}'.",cn,p);
+			return false;
+		}
+		try {
+			ARFDataSource source = getDataSource();
+			if(source == null)
+				return false;
+			ARFAnalysis.SharedState shared = getSharedState();
+			for(ARFProfile profile : profiles) {
+				logger.info("{}: Running profile {}.",cn,profile);
+				ARFAnalysis analysis = new ARFAnalysis(source, da.getConfig(), this, logger, profile, shared);
+				if(!analysis.init() || !analysis.run()) {
+					logger.fatal("{}: Encountered errors during executation of profile '{}'.",cn,profile.getName());
+					return false;
+				}
+			}
+		} catch(Throwable t) {
+			logger.fatal("{}: Unexpected exception during the run.",t,cn);
+			return false;
+		}
+		return true;
+	}
+	
 	//Hardcode in forced run so that if the phase is enabled it is always run without looking at anything else
 	@Override
 	public boolean isForcedRun(){
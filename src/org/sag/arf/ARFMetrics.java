@@ -0,0 +1,275 @@
+package org.sag.arf;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.sag.common.io.PrintStreamUnixEOL;
+
+public final class ARFMetrics {
+
+	private final ThreadMXBean threads;
+	private final com.sun.management.ThreadMXBean allocThreads;
+	private final boolean hasCpu;
+	private final List<Stage> stages;
+	private final Map<String,long[]> caches;
+
+	public ARFMetrics() {
+		this.threads = ManagementFactory.getThreadMXBean();
+		boolean hasCpu = false;
+		try {
+			if(threads.isThreadCpuTimeSupported()) {
+				if(!threads.isThreadCpuTimeEnabled())
+					threads.setThreadCpuTimeEnabled(true);
+				hasCpu = true;
+			}
+		} catch(UnsupportedOperationException | SecurityException e) {}
+		this.hasCpu = hasCpu;
+		com.sun.management.ThreadMXBean allocThreads = null;
+		try {
+			if(threads instanceof com.sun.management.ThreadMXBean) {
+				allocThreads = (com.sun.management.ThreadMXBean)threads;
+				if(!allocThreads.isThreadAllocatedMemorySupported())
+					allocThreads = null;
+				else if(!allocThreads.isThreadAllocatedMemoryEnabled())
+					allocThreads.setThreadAllocatedMemoryEnabled(true);
+			}
+		} catch(UnsupportedOperationException | SecurityException e) {
+			allocThreads = null;
+		}
+		this.allocThreads = allocThreads;
+		this.stages = new ArrayList<>();
+		this.caches = new LinkedHashMap<>();
+	}
+
+	public synchronized Stage addStage(String name) {
+		Objects.requireNonNull(name);
+		Stage ret = new Stage(name);
+		stages.add(ret);
+		return ret;
+	}
+
+	public synchronized List<Stage> getStages() {
+		return new ArrayList<>(stages);
+	}
+
+	public synchronized void addCache(String name, long hits, long misses) {
+		Objects.requireNonNull(name);
+		caches.put(name, new long[]{hits, misses});
+	}
+
+	//The wall time, CPU time, and allocated bytes of the current thread so far
+	public long[] sampleThread() {
+		//Allocated before reading the counters so it is not counted in the stage
+		long[] ret = new long[3];
+		ret[0] = System.nanoTime();
+		ret[1] = getCpu(Thread.currentThread().getId());
+		ret[2] = getAllocated(Thread.currentThread().getId());
+		return ret;
+	}
+
+	//The wall time and the CPU time and allocated bytes of every live thread so far
+	public Sample sampleAll() {
+		long[] ids = threads.getAllThreadIds();
+		long[] cpu = new long[ids.length];
+		long[] alloc = new long[ids.length];
+		long wall = System.nanoTime();
+		for(int i = 0; i < ids.length; i++) {
+			cpu[i] = getCpu(ids[i]);
+			alloc[i] = getAllocated(ids[i]);
+		}
+		return new Sample(wall, ids, cpu, alloc);
+	}
+
+	private long getCpu(long id) {
+		return hasCpu ? threads.getThreadCpuTime(id) : -1;
+	}
+
+	private long getAllocated(long id) {
+		return allocThreads != null ? allocThreads.getThreadAllocatedBytes(id) : -1;
+	}
+
+	public static final class Sample {
+
+		private final long wall;
+		private final Map<Long,long[]> threadToCost;
+
+		private Sample(long wall, long[] ids, long[] cpu, long[] alloc) {
+			this.wall = wall;
+			this.threadToCost = new LinkedHashMap<>();
+			for(int i = 0; i < ids.length; i++)
+				threadToCost.put(ids[i], new long[]{cpu[i], alloc[i]});
+		}
+
+	}
+
+	public final class Stage {
+
+		private final String name;
+		private final LongAdder wallNanos;
+		private final LongAdder cpuNanos;
+		private final LongAdder allocatedBytes;
+		private final LongAdder in;
+		private final LongAdder out;
+
+		private Stage(String name) {
+			this.name = name;
+			this.wallNanos = new LongAdder();
+			this.cpuNanos = new LongAdder();
+			this.allocatedBytes = new LongAdder();
+			this.in = new LongAdder();
+			this.out = new LongAdder();
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public long getWallNanos() {
+			return wallNanos.sum();
+		}
+
+		public long getCpuNanos() {
+			return hasCpu ? cpuNanos.sum() : -1;
+		}
+
+		public long getAllocatedBytes() {
+			return allocThreads != null ? allocatedBytes.sum() : -1;
+		}
+
+		public long getIn() {
+			return in.sum();
+		}
+
+		public long getOut() {
+			return out.sum();
+		}
+
+		public void addIn(long n) {
+			in.add(n);
+		}
+
+		public void addOut(long n) {
+			out.add(n);
+		}
+
+		//Adds the cost of the current thread since start which must be a sample of the same thread
+		public void addThread(long[] start) {
+			long wall = System.nanoTime();
+			long id = Thread.currentThread().getId();
+			long cpu = getCpu(id);
+			long alloc = getAllocated(id);
+			wallNanos.add(wall - start[0]);
+			cpuNanos.add(cpu - start[1]);
+			allocatedBytes.add(alloc - start[2]);
+		}
+
+		//Adds the cost of all threads since start where a thread started since then is counted from zero
+		public void addAll(Sample start) {
+			Sample end = sampleAll();
+			wallNanos.add(end.wall - start.wall);
+			for(Map.Entry<Long,long[]> e : end.threadToCost.entrySet()) {
+				long[] cur = e.getValue();
+				long[] prev = start.threadToCost.get(e.getKey());
+				//A negative value means the thread ended or is not supported
+				if(cur[0] >= 0)
+					cpuNanos.add(cur[0] - (prev == null || prev[0] < 0 ? 0 : prev[0]));
+				if(cur[1] >= 0)
+					allocatedBytes.add(cur[1] - (prev == null || prev[1] < 0 ? 0 : prev[1]));
+			}
+		}
+
+	}
+
+	public synchronized void writeJson(Path p) throws Exception {
+		try(PrintStreamUnixEOL ps = new PrintStreamUnixEOL(Files.newOutputStream(p))) {
+			ps.println("{");
+			ps.println("  \"stages\": [");
+			for(int i = 0; i < stages.size(); i++) {
+				Stage s = stages.get(i);
+				ps.println("    {\"name\": " + quoteJson(s.getName()) + ", \"wallNanos\": " + s.getWallNanos() + ", \"cpuNanos\": "
+						+ s.getCpuNanos() + ", \"allocatedBytes\": " + s.getAllocatedBytes() + ", \"in\": " + s.getIn()
+						+ ", \"out\": " + s.getOut() + "}" + (i + 1 < stages.size() ? "," : ""));
+			}
+			ps.println("  ],");
+			ps.println("  \"caches\": [");
+			int i = 0;
+			for(String name : caches.keySet()) {
+				long[] c = caches.get(name);
+				ps.println("    {\"name\": " + quoteJson(name) + ", \"hits\": " + c[0] + ", \"misses\": " + c[1] + ", \"hitRate\": "
+						+ getHitRate(c) + "}" + (++i < caches.size() ? "," : ""));
+			}
+			ps.println("  ]");
+			ps.println("}");
+		}
+	}
+
+	public synchronized void writePrometheus(Path p) throws Exception {
+		try(PrintStreamUnixEOL ps = new PrintStreamUnixEOL(Files.newOutputStream(p))) {
+			printGauge(ps, "arf_stage_wall_seconds", "Wall time of the stage in seconds.");
+			for(Stage s : stages)
+				ps.println("arf_stage_wall_seconds{stage=" + quoteLabel(s.getName()) + "} " + (s.getWallNanos() / 1e9));
+			if(hasCpu) {
+				printGauge(ps, "arf_stage_cpu_seconds", "CPU time of the stage in seconds.");
+				for(Stage s : stages)
+					ps.println("arf_stage_cpu_seconds{stage=" + quoteLabel(s.getName()) + "} " + (s.getCpuNanos() / 1e9));
+			}
+			if(allocThreads != null) {
+				printGauge(ps, "arf_stage_allocated_bytes", "Bytes allocated by the stage.");
+				for(Stage s : stages)
+					ps.println("arf_stage_allocated_bytes{stage=" + quoteLabel(s.getName()) + "} " + s.getAllocatedBytes());
+			}
+			printGauge(ps, "arf_stage_results_in", "Results given to the stage.");
+			for(Stage s : stages)
+				ps.println("arf_stage_results_in{stage=" + quoteLabel(s.getName()) + "} " + s.getIn());
+			printGauge(ps, "arf_stage_results_out", "Results passed on by the stage.");
+			for(Stage s : stages)
+				ps.println("arf_stage_results_out{stage=" + quoteLabel(s.getName()) + "} " + s.getOut());
+			printGauge(ps, "arf_cache_hits", "Hits of the cache.");
+			for(String name : caches.keySet())
+				ps.println("arf_cache_hits{cache=" + quoteLabel(name) + "} " + caches.get(name)[0]);
+			printGauge(ps, "arf_cache_misses", "Misses of the cache.");
+			for(String name : caches.keySet())
+				ps.println("arf_cache_misses{cache=" + quoteLabel(name) + "} " + caches.get(name)[1]);
+			printGauge(ps, "arf_cache_hit_ratio", "Hits over all lookups of the cache.");
+			for(String name : caches.keySet())
+				ps.println("arf_cache_hit_ratio{cache=" + quoteLabel(name) + "} " + getHitRate(caches.get(name)));
+		}
+	}
+
+	private static double getHitRate(long[] c) {
+		long total = c[0] + c[1];
+		return total == 0 ? 0.0 : (double)c[0] / (double)total;
+	}
+
+	private static void printGauge(PrintStreamUnixEOL ps, String name, String help) {
+		ps.println("# HELP " + name + " " + help);
+		ps.println("# TYPE " + name + " gauge");
+	}
+
+	private static String quoteJson(String s) {
+		StringBuilder sb = new StringBuilder("\"");
+		for(int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if(c == '"' || c == '\\')
+				sb.append('\\').append(c);
+			else if(c < 0x20)
+				sb.append(String.format("\\u%04x", (int)c));
+			else
+				sb.append(c);
+		}
+		return sb.append('"').toString();
+	}
+
+	private static String quoteLabel(String s) {
+		return "\"" + s.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n") + "\"";
+	}
+
+}
@@ -0,0 +1,85 @@
+package org.sag.arf;
+
+import java.io.BufferedReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+//One profile per line as the name, a tab, and comma separated Option=true|false values
+public final class ARFProfile {
+
+	private static final Pattern namePattern = Pattern.compile("^[A-Za-z0-9_.-]+$");
+
+	private final String name;
+	private final Map<String,Boolean> options;
+
+	public ARFProfile(String name, Map<String,Boolean> options) {
+		Objects.requireNonNull(name);
+		Objects.requireNonNull(options);
+		this.name = name;
+		this.options = Collections.unmodifiableMap(new LinkedHashMap<>(options));
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	//Returns null if the profile does not override the option
+	public Boolean getOption(String option) {
+		return options.get(option);
+	}
+
+	public Map<String,Boolean> getOptions() {
+		return options;
+	}
+
+	@Override
+	public String toString() {
+		return name + " " + options;
+	}
+
+	public static List<ARFProfile> parser(Path p) throws Exception {
+		List<ARFProfile> ret = new ArrayList<>();
+		Set<String> names = new HashSet<>();
+		try(BufferedReader br = Files.newBufferedReader(p)) {
+			String line;
+			while((line = br.readLine()) != null) {
+				line = line.trim();
+				if(line.isEmpty() || line.startsWith("//"))
+					continue;
+				String[] temp = line.split("\\t", 2);
+				String name = temp[0].trim();
+				if(!namePattern.matcher(name).matches())
+					throw new Exception("Error: Profile names may only contain letters, digits, '_', '.', and '-' but got '" + name + "'");
+				if(!names.add(name))
+					throw new Exception("Error: Duplicate profile '" + name + "'");
+				Map<String,Boolean> options = new LinkedHashMap<>();
+				if(temp.length > 1 && !temp[1].trim().isEmpty()) {
+					for(String s : temp[1].split(",")) {
+						String[] kv = s.split("=");
+						if(kv.length != 2)
+							throw new Exception("Error: Expected Option=true|false but got '" + s.trim() + "' for profile '" + name + "'");
+						String value = kv[1].trim();
+						if(!value.equalsIgnoreCase("true") && !value.equalsIgnoreCase("false"))
+							throw new Exception("Error: Expected true or false but got '" + value + "' for profile '" + name + "'");
+						String option = kv[0].trim();
+						if(!ARFHandler.booleanOptions.contains(option) || option.equals(ARFHandler.optMultiProfile))
+							throw new Exception("Error: Unknown or non-boolean option '" + option + "' for profile '" + name + "'");
+						options.put(option, Boolean.parseBoolean(value));
+					}
+				}
+				ret.add(new ARFProfile(name, options));
+			}
+		}
+		return ret;
+	}
+
+}
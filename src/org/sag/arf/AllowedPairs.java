@@ -0,0 +1,100 @@
+package org.sag.arf;
+
+import java.io.BufferedReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.sag.common.tuple.Pair;
+
+import com.google.common.collect.ImmutableSet;
+
+//Each pair is stored as the int ids of the deputy and target signatures packed into a long
+public class AllowedPairs {
+	
+	@SuppressWarnings("unchecked")
+	private static final Set<Pair<String,String>> defaultPairs = ImmutableSet.of(
+		new Pair<>("<com.android.server.devicepolicy.DevicePolicyManagerService: void startManagedQuickContact(java.lang.String,long,boolean,long,android.content.Intent)>","<com.android.server.devicepolicy.DevicePolicyManagerService: boolean getCrossProfileCallerIdDisabledForUser(int)>"),
+		new Pair<>("<com.android.server.devicepolicy.DevicePolicyManagerService: void startManagedQuickContact(java.lang.String,long,boolean,long,android.content.Intent)>","<com.android.server.devicepolicy.DevicePolicyManagerService: boolean getCrossProfileContactsSearchDisabledForUser(int)>"),
+		new Pair<>("<com.android.server.trust.TrustManagerService$1: boolean isDeviceSecure(int)>","<com.android.server.locksettings.LockSettingsService: long getLong(java.lang.String,long,int)>"),
+		new Pair<>("<com.android.server.trust.TrustManagerService$1: boolean isDeviceSecure(int)>","<com.android.server.locksettings.LockSettingsService: boolean havePassword(int)>"),
+		new Pair<>("<com.android.server.trust.TrustManagerService$1: boolean isDeviceSecure(int)>","<com.android.server.locksettings.LockSettingsService: boolean havePattern(int)>"),
+		new Pair<>("<com.android.server.fingerprint.FingerprintService$FingerprintServiceWrapper: java.util.List getEnrolledFingerprints(int,java.lang.String)>","<com.android.server.am.ActivityManagerService: android.content.pm.UserInfo getCurrentUser()>"),
+		new Pair<>("<com.android.server.fingerprint.FingerprintService$FingerprintServiceWrapper: java.util.List getEnrolledFingerprints(int,java.lang.String)>","<com.android.server.am.ActivityManagerService: java.util.List getRunningAppProcesses()>"),
+		new Pair<>("<com.android.server.fingerprint.FingerprintService$FingerprintServiceWrapper: java.util.List getEnrolledFingerprints(int,java.lang.String)>","<com.android.server.pm.UserManagerService: int[] getProfileIds(int,boolean)>"),
+		new Pair<>("<com.android.server.pm.PackageManagerService: boolean isPackageDeviceAdminOnAnyUser(java.lang.String)>","<com.android.server.devicepolicy.DevicePolicyManagerService: android.content.ComponentName getDeviceOwnerComponent(boolean)>"),
+		new Pair<>("<com.android.server.pm.PackageManagerService: boolean isPackageDeviceAdminOnAnyUser(java.lang.String)>","<com.android.server.devicepolicy.DevicePolicyManagerService: boolean packageHasActiveAdmins(java.lang.String,int)>"),
+		new Pair<>("<com.android.server.am.ActivityManagerService: boolean switchUser(int)>","<com.android.server.pm.UserManagerService: android.content.pm.UserInfo getUserInfo(int)>"),
+		new Pair<>("<com.android.server.notification.NotificationManagerService$7: boolean areNotificationsEnabledForPackage(java.lang.String,int)>","<com.android.server.pm.PackageManagerService: android.content.pm.ApplicationInfo getApplicationInfo(java.lang.String,int,int)>"), //Special case of having the check but not using it properly
+		new Pair<>("<com.android.server.media.MediaResourceMonitorService$MediaResourceMonitorImpl: void notifyResourceGranted(int,int)>","<com.android.server.am.ActivityManagerService: android.content.pm.UserInfo getCurrentUser()>"), //Special case where it is sending out a broadcast to all users
+		new Pair<>("<com.android.server.notification.NotificationManagerService$7: void enqueueNotificationWithTag(java.lang.String,java.lang.String,java.lang.String,int,android.app.Notification,int)>","<com.android.server.am.ActivityManagerService: void setProcessImportant(android.os.IBinder,int,boolean,java.lang.String)>"), //Special case of having the check but not using it properly
+		new Pair<>("<com.android.server.devicepolicy.DevicePolicyManagerService: void startManagedQuickContact(java.lang.String,long,boolean,long,android.content.Intent)>","<com.android.server.pm.PackageManagerService: android.content.pm.ApplicationInfo getApplicationInfo(java.lang.String,int,int)>") //Special case of leaking data from other users
+	);
+	
+	private final Map<String,Integer> sigToId;
+	private final Set<Long> pairs;
+	
+	private AllowedPairs() {
+		this.sigToId = new HashMap<>();
+		this.pairs = new HashSet<>();
+	}
+	
+	private int getOrAddId(String sig) {
+		Integer ret = sigToId.get(sig);
+		if(ret == null) {
+			ret = sigToId.size();
+			sigToId.put(sig, ret);
+		}
+		return ret;
+	}
+	
+	private void add(String deputySig, String targetSig) {
+		pairs.add(((long)getOrAddId(deputySig) << 32) | getOrAddId(targetSig));
+	}
+	
+	public int size() {
+		return pairs.size();
+	}
+	
+	public boolean contains(String deputySig, String targetSig) {
+		Integer deputy = sigToId.get(deputySig);
+		if(deputy == null)
+			return false;
+		Integer target = sigToId.get(targetSig);
+		if(target == null)
+			return false;
+		return pairs.contains(((long)deputy << 32) | target);
+	}
+	
+	public boolean contains(EntryPointNode deputy, EntryPointNode target) {
+		return contains(deputy.getEntryPoint().getSignature(), target.getEntryPoint().getSignature());
+	}
+	
+	public static AllowedPairs getDefault() {
+		AllowedPairs ret = new AllowedPairs();
+		for(Pair<String,String> p : defaultPairs)
+			ret.add(p.getFirst(), p.getSecond());
+		return ret;
+	}
+	
+	public static AllowedPairs parser(Path p) throws Exception {
+		AllowedPairs ret = new AllowedPairs();
+		try(BufferedReader br = Files.newBufferedReader(p)) {
+			String line;
+			while((line = br.readLine()) != null) {
+				line = line.trim();
+				if(line.isEmpty() || line.startsWith("//"))
+					continue;
+				String[] temp = line.split("\\t");
+				if(temp.length < 2)
+					throw new Exception("Error: Expected a deputy and target signature separated by a tab but got '" + line + "'");
+				ret.add(temp[0].trim(), temp[1].trim());
+			}
+		}
+		return ret;
+	}
+	
+}
@@ -0,0 +1,490 @@
+package org.sag.arf;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.sag.acminer.database.acminer.Doublet;
+import org.sag.soot.xstream.SootUnitContainer;
+import org.sag.xstream.XStreamInOut.XStreamInOutInterface.AbstractXStreamSetup;
+
+import com.thoughtworks.xstream.XStream;
+
+public final class ClosureSnapshot {
+
+	public static final int magic = 0x41524643;
+	public static final int version = 2;
+	private static final int hashLength = 64;
+	private static final int headerSize = 36 + hashLength;
+
+	private static XStream xstream = null;
+
+	private final ByteBuffer buf;
+	private final LongBuffer words;
+	private final int nodeCount;
+	private final int componentCount;
+	private final int sourceCount;
+	private final int edgeCount;
+	private final int authCount;
+	private final int edgeSourcesCount;
+	private final int componentsOffset;
+	private final int rowOffsetsOffset;
+	private final int rowWordsOffset;
+	private final int treeOffsetsOffset;
+	private final int treesOffset;
+	private final int edgeOffsetsOffset;
+	private final int edgeTargetsOffset;
+	private final int authKeysOffset;
+	private final int edgeSourcesKeysOffset;
+	private final int blobOffsetsOffset;
+	private final int blobsOffset;
+	//Null until the node table is first needed
+	private EntryPointNode[] nodes;
+
+	private ClosureSnapshot(ByteBuffer buf) {
+		this.buf = buf;
+		this.nodeCount = buf.getInt(8);
+		this.componentCount = buf.getInt(12);
+		this.sourceCount = buf.getInt(16);
+		this.edgeCount = buf.getInt(20);
+		this.authCount = buf.getInt(28);
+		this.edgeSourcesCount = buf.getInt(32);
+		this.componentsOffset = headerSize;
+		this.rowOffsetsOffset = componentsOffset + 4 * nodeCount;
+		this.rowWordsOffset = rowOffsetsOffset + 8 * (componentCount + 1);
+		this.treeOffsetsOffset = rowWordsOffset + 8 * (int)buf.getLong(rowOffsetsOffset + 8 * componentCount);
+		this.treesOffset = treeOffsetsOffset + 4 * (nodeCount + 1);
+		this.edgeOffsetsOffset = treesOffset + 8 * buf.getInt(treeOffsetsOffset + 4 * nodeCount);
+		this.edgeTargetsOffset = edgeOffsetsOffset + 4 * (nodeCount + 1);
+		this.authKeysOffset = edgeTargetsOffset + 4 * edgeCount;
+		this.edgeSourcesKeysOffset = authKeysOffset + 4 * authCount;
+		this.blobOffsetsOffset = edgeSourcesKeysOffset + 4 * edgeSourcesCount;
+		this.blobsOffset = blobOffsetsOffset + 4 * (getBlobCount() + 1);
+		ByteBuffer dup = buf.duplicate();
+		dup.position(rowWordsOffset);
+		dup.limit(treeOffsetsOffset);
+		this.words = dup.slice().asLongBuffer();
+		this.nodes = null;
+	}
+
+	public int getNodeCount() {
+		return nodeCount;
+	}
+
+	public int getComponentCount() {
+		return componentCount;
+	}
+
+	private int getBlobCount() {
+		return 1 + authCount + edgeSourcesCount;
+	}
+
+	private long getSize() {
+		return blobsOffset + (long)buf.getInt(blobOffsetsOffset + 4 * getBlobCount());
+	}
+
+	int getComponent(int id) {
+		if(id < 0 || id >= nodeCount)
+			throw new IndexOutOfBoundsException(Integer.toString(id));
+		return buf.getInt(componentsOffset + 4 * id);
+	}
+
+	private int getRowStart(int c) {
+		return (int)buf.getLong(rowOffsetsOffset + 8 * c);
+	}
+
+	int getRowWordCount(int c) {
+		return (int)buf.getLong(rowOffsetsOffset + 8 * (c + 1)) - getRowStart(c);
+	}
+
+	boolean getRowBit(int c, int bit) {
+		int w = bit >>> 6;
+		return w < getRowWordCount(c) && (words.get(getRowStart(c) + w) & (1L << bit)) != 0;
+	}
+
+	int getRowCardinality(int c) {
+		int start = getRowStart(c);
+		int end = start + getRowWordCount(c);
+		int ret = 0;
+		for(int i = start; i < end; i++)
+			ret += Long.bitCount(words.get(i));
+		return ret;
+	}
+
+	//Like BitSet.nextSetBit on the row of the component
+	int nextRowBit(int c, int from) {
+		int start = getRowStart(c);
+		int count = getRowWordCount(c);
+		int w = from >>> 6;
+		if(w >= count)
+			return -1;
+		long word = words.get(start + w) & (-1L << from);
+		while(true) {
+			if(word != 0)
+				return w * 64 + Long.numberOfTrailingZeros(word);
+			if(++w == count)
+				return -1;
+			word = words.get(start + w);
+		}
+	}
+
+	long[] getRowWords(int c) {
+		long[] ret = new long[getRowWordCount(c)];
+		int start = getRowStart(c);
+		for(int i = 0; i < ret.length; i++)
+			ret[i] = words.get(start + i);
+		return ret;
+	}
+
+	int[] getTreeTargets(int caller) {
+		return getTreeInts(caller, false);
+	}
+
+	int[] getTreePreds(int caller) {
+		return getTreeInts(caller, true);
+	}
+
+	private int[] getTreeInts(int caller, boolean preds) {
+		if(caller < 0 || caller >= nodeCount)
+			throw new IndexOutOfBoundsException(Integer.toString(caller));
+		int start = buf.getInt(treeOffsetsOffset + 4 * caller);
+		int end = buf.getInt(treeOffsetsOffset + 4 * (caller + 1));
+		int[] ret = new int[end - start];
+		int base = treesOffset + 8 * start + (preds ? 4 * ret.length : 0);
+		for(int i = 0; i < ret.length; i++)
+			ret[i] = buf.getInt(base + 4 * i);
+		return ret;
+	}
+
+	private String getBlob(int i) {
+		int start = buf.getInt(blobOffsetsOffset + 4 * i);
+		int end = buf.getInt(blobOffsetsOffset + 4 * (i + 1));
+		byte[] bytes = new byte[end - start];
+		ByteBuffer dup = buf.duplicate();
+		dup.position(blobsOffset + start);
+		dup.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private synchronized EntryPointNode[] getNodes() {
+		if(nodes == null) {
+			@SuppressWarnings("unchecked")
+			List<EntryPointNode> table = (List<EntryPointNode>)getXStream().fromXML(getBlob(0));
+			if(table.size() != buf.getInt(24) || table.size() < nodeCount)
+				throw new IllegalStateException("Error: Expected a node table of " + buf.getInt(24) + " nodes but got " + table.size());
+			nodes = table.toArray(new EntryPointNode[table.size()]);
+		}
+		return nodes;
+	}
+
+	public EntryPointGraph getGraph() {
+		int[] offsets = new int[nodeCount + 1];
+		for(int i = 0; i <= nodeCount; i++)
+			offsets[i] = buf.getInt(edgeOffsetsOffset + 4 * i);
+		int[] targets = new int[edgeCount];
+		for(int i = 0; i < edgeCount; i++)
+			targets[i] = buf.getInt(edgeTargetsOffset + 4 * i);
+		return EntryPointGraph.of(Arrays.copyOf(getNodes(), nodeCount), sourceCount, offsets, targets);
+	}
+
+	//The authorization logic of each entry point parsed on first request
+	public Map<EntryPointNode,Set<Doublet>> getEpsToAuthLogic() {
+		return new LazyMap<>(authKeysOffset, authCount, 1);
+	}
+
+	//The edge sources of each deputy parsed on first request
+	public Map<EntryPointNode,Map<EntryPointNode,Set<SootUnitContainer>>> getDeputyToTargetToSources() {
+		return new LazyMap<>(edgeSourcesKeysOffset, edgeSourcesCount, 1 + authCount);
+	}
+
+	//Returns null if the file is not a snapshot of this version or was taken of inputs with a different hash
+	public static ClosureSnapshot open(Path p, String inputHash) throws Exception {
+		Objects.requireNonNull(inputHash);
+		try(FileChannel fc = FileChannel.open(p, StandardOpenOption.READ)) {
+			if(fc.size() < headerSize || fc.size() > Integer.MAX_VALUE)
+				return null;
+			ByteBuffer buf = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+			if(buf.getInt(0) != magic || buf.getInt(4) != version)
+				return null;
+			byte[] hash = new byte[hashLength];
+			ByteBuffer dup = buf.duplicate();
+			dup.position(36);
+			dup.get(hash);
+			if(!inputHash.equals(new String(hash, StandardCharsets.US_ASCII)))
+				return null;
+			ClosureSnapshot ret = new ClosureSnapshot(buf);
+			//A snapshot cut short by an earlier failure is treated like a stale one
+			if(ret.getSize() != fc.size())
+				return null;
+			return ret;
+		}
+	}
+
+	//Big endian: a 100 byte header of counts and the input hash, the component of each node, the row
+	//offsets and words, the tree offsets and trees (targets by rank then predecessors), the edge offsets
+	//and targets, the auth logic and edge sources keys, and the blob offsets and XML blobs.
+	//Returns false without writing anything if the snapshot would be too large to map
+	public static boolean write(Path p, String inputHash, EntryPointClosure closure, Map<EntryPointNode,Set<Doublet>> epsToAuthLogic,
+			Map<EntryPointNode,Map<EntryPointNode,Set<SootUnitContainer>>> deputyToTargetToSources) throws Exception {
+		Objects.requireNonNull(inputHash);
+		if(inputHash.length() != hashLength)
+			throw new IllegalArgumentException("Error: Expected a hash of " + hashLength + " characters but got '" + inputHash + "'");
+		EntryPointGraph graph = closure.getGraph();
+		EntryPointReachability reachability = closure.getReachability();
+		int n = graph.size();
+		int componentCount = reachability.getComponentCount();
+		long wordCount = 0;
+		for(int c = 0; c < componentCount; c++)
+			wordCount += reachability.getRowWordCount(c);
+		long treeSize = 0;
+		for(int caller = 0; caller < n; caller++)
+			treeSize += closure.getTargetCount(caller);
+
+		Map<EntryPointNode,Integer> nodeToIndex = new HashMap<>();
+		ArrayList<EntryPointNode> table = new ArrayList<>();
+		for(int i = 0; i < n; i++)
+			addToTable(graph.getNode(i), nodeToIndex, table);
+		for(EntryPointNode ep : epsToAuthLogic.keySet())
+			addToTable(ep, nodeToIndex, table);
+		for(EntryPointNode deputy : deputyToTargetToSources.keySet())
+			addToTable(deputy, nodeToIndex, table);
+		XStream xstream = getXStream();
+		List<byte[]> blobs = new ArrayList<>();
+		blobs.add(xstream.toXML(table).getBytes(StandardCharsets.UTF_8));
+		for(Set<Doublet> authLogic : epsToAuthLogic.values())
+			blobs.add(xstream.toXML(authLogic).getBytes(StandardCharsets.UTF_8));
+		for(Map<EntryPointNode,Set<SootUnitContainer>> targetToSources : deputyToTargetToSources.values())
+			blobs.add(xstream.toXML(targetToSources).getBytes(StandardCharsets.UTF_8));
+		long blobSize = 0;
+		for(byte[] blob : blobs)
+			blobSize += blob.length;
+
+		long size = headerSize + 4L * n + 8L * (componentCount + 1) + 8L * wordCount + 4L * (n + 1) + 8L * treeSize
+				+ 4L * (n + 1) + 4L * graph.getEdgeCount() + 4L * epsToAuthLogic.size() + 4L * deputyToTargetToSources.size()
+				+ 4L * (blobs.size() + 1) + blobSize;
+		if(size > Integer.MAX_VALUE)
+			return false;
+
+		try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(p), 1 << 20))) {
+			out.writeInt(magic);
+			out.writeInt(version);
+			out.writeInt(n);
+			out.writeInt(componentCount);
+			out.writeInt(graph.getSourceCount());
+			out.writeInt(graph.getEdgeCount());
+			out.writeInt(table.size());
+			out.writeInt(epsToAuthLogic.size());
+			out.writeInt(deputyToTargetToSources.size());
+			out.write(inputHash.getBytes(StandardCharsets.US_ASCII));
+			for(int i = 0; i < n; i++)
+				out.writeInt(reachability.getComponent(i));
+			long offset = 0;
+			out.writeLong(offset);
+			for(int c = 0; c < componentCount; c++) {
+				offset += reachability.getRowWordCount(c);
+				out.writeLong(offset);
+			}
+			for(int c = 0; c < componentCount; c++) {
+				for(long w : reachability.getRowWords(c))
+					out.writeLong(w);
+			}
+			int treeOffset = 0;
+			out.writeInt(treeOffset);
+			for(int caller = 0; caller < n; caller++) {
+				treeOffset += closure.getTargetCount(caller);
+				out.writeInt(treeOffset);
+			}
+			//Callers without targets never need a tree so none is built for them
+			for(int caller = 0; caller < n; caller++) {
+				if(closure.getTargetCount(caller) > 0) {
+					int[][] tree = closure.getTreeUncached(caller);
+					for(int t : tree[0])
+						out.writeInt(t);
+					for(int pred : tree[1])
+						out.writeInt(pred);
+				}
+			}
+			for(int i = 0; i <= n; i++)
+				out.writeInt(i == n ? graph.getEdgeCount() : graph.getEdgeStart(i));
+			for(int e = 0; e < graph.getEdgeCount(); e++)
+				out.writeInt(graph.getTarget(e));
+			for(EntryPointNode ep : epsToAuthLogic.keySet())
+				out.writeInt(nodeToIndex.get(ep));
+			for(EntryPointNode deputy : deputyToTargetToSources.keySet())
+				out.writeInt(nodeToIndex.get(deputy));
+			int blobOffset = 0;
+			out.writeInt(blobOffset);
+			for(byte[] blob : blobs) {
+				blobOffset += blob.length;
+				out.writeInt(blobOffset);
+			}
+			for(byte[] blob : blobs)
+				out.write(blob);
+		}
+		return true;
+	}
+
+	private static void addToTable(EntryPointNode node, Map<EntryPointNode,Integer> nodeToIndex, List<EntryPointNode> table) {
+		if(!nodeToIndex.containsKey(node)) {
+			nodeToIndex.put(node, table.size());
+			table.add(node);
+		}
+	}
+
+	//Only configured once as the parsing of the values may happen on any thread
+	private static synchronized XStream getXStream() {
+		if(xstream == null) {
+			XStream ret = new XStream();
+			LinkedHashSet<AbstractXStreamSetup> setups = new LinkedHashSet<>();
+			EntryPointNode.getXStreamSetupStatic().getOutputGraph(setups);
+			for(AbstractXStreamSetup setup : setups) {
+				Set<Class<?>> classes = setup.getAnnotatedClasses();
+				ret.processAnnotations(classes.toArray(new Class<?>[classes.size()]));
+				setup.setXStreamOptions(ret);
+			}
+			ret.processAnnotations(new Class<?>[] {Doublet.class, SootUnitContainer.class});
+			xstream = ret;
+		}
+		return xstream;
+	}
+
+	//An immutable map of the keys at the given node table indexes whose values are the given blobs
+	private final class LazyMap<V> extends AbstractMap<EntryPointNode,V> {
+
+		private final EntryPointNode[] keys;
+		private final Map<EntryPointNode,Integer> keyToIndex;
+		private final int firstBlob;
+		//Null until the value is first requested
+		private final AtomicReferenceArray<V> values;
+
+		public LazyMap(int keysOffset, int size, int firstBlob) {
+			EntryPointNode[] table = getNodes();
+			this.keys = new EntryPointNode[size];
+			this.keyToIndex = new HashMap<>();
+			for(int i = 0; i < size; i++) {
+				keys[i] = table[buf.getInt(keysOffset + 4 * i)];
+				keyToIndex.put(keys[i], i);
+			}
+			this.firstBlob = firstBlob;
+			this.values = new AtomicReferenceArray<>(size);
+		}
+
+		private V getValue(int i) {
+			V ret = values.get(i);
+			if(ret == null) {
+				@SuppressWarnings("unchecked")
+				V parsed = (V)getXStream().fromXML(getBlob(firstBlob + i));
+				//Threads racing to parse the same value all hand back the first instance stored
+				if(values.compareAndSet(i, null, parsed))
+					ret = parsed;
+				else
+					ret = values.get(i);
+			}
+			return ret;
+		}
+
+		@Override
+		public V get(Object key) {
+			Integer i = keyToIndex.get(key);
+			return i == null ? null : getValue(i);
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return keyToIndex.containsKey(key);
+		}
+
+		@Override
+		public int size() {
+			return keys.length;
+		}
+
+		@Override
+		public Set<Map.Entry<EntryPointNode,V>> entrySet() {
+			return new AbstractSet<Map.Entry<EntryPointNode,V>>() {
+				@Override
+				public Iterator<Map.Entry<EntryPointNode,V>> iterator() {
+					return new Iterator<Map.Entry<EntryPointNode,V>>() {
+						private int next = 0;
+						@Override
+						public boolean hasNext() {
+							return next < keys.length;
+						}
+						@Override
+						public Map.Entry<EntryPointNode,V> next() {
+							if(next >= keys.length)
+								throw new NoSuchElementException();
+							return new LazyEntry(next++);
+						}
+					};
+				}
+				@Override
+				public int size() {
+					return keys.length;
+				}
+			};
+		}
+
+		//Only parses the value when it is requested so iterating over the keys stays cheap
+		private final class LazyEntry implements Map.Entry<EntryPointNode,V> {
+
+			private final int i;
+
+			public LazyEntry(int i) {
+				this.i = i;
+			}
+
+			@Override
+			public EntryPointNode getKey() {
+				return keys[i];
+			}
+
+			@Override
+			public V getValue() {
+				return LazyMap.this.getValue(i);
+			}
+
+			@Override
+			public V setValue(V value) {
+				throw new UnsupportedOperationException();
+			}
+
+			@Override
+			public boolean equals(Object o) {
+				if(this == o)
+					return true;
+				if(o == null || !(o instanceof Map.Entry))
+					return false;
+				Map.Entry<?,?> other = (Map.Entry<?,?>)o;
+				return Objects.equals(getKey(), other.getKey()) && Objects.equals(getValue(), other.getValue());
+			}
+
+			@Override
+			public int hashCode() {
+				return Objects.hashCode(getKey()) ^ Objects.hashCode(getValue());
+			}
+
+		}
+
+	}
+
+}
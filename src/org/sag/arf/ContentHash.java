@@ -0,0 +1,40 @@
+package org.sag.arf;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+
+import org.sag.common.io.FileHelpers;
+
+public final class ContentHash {
+
+	private static final char[] hexDigits = "0123456789abcdef".toCharArray();
+
+	private ContentHash() {}
+
+	public static String of(Path p) throws Exception {
+		MessageDigest md = MessageDigest.getInstance("SHA-256");
+		byte[] buf = new byte[1 << 16];
+		try(InputStream in = Files.newInputStream(p)) {
+			int read;
+			while((read = in.read(buf)) > 0)
+				md.update(buf, 0, read);
+		}
+		return toHex(md.digest());
+	}
+
+	public static String of(String s) throws Exception {
+		return FileHelpers.getHashOfString("SHA-256", s);
+	}
+
+	static String toHex(byte[] bytes) {
+		char[] ret = new char[bytes.length * 2];
+		for(int i = 0; i < bytes.length; i++) {
+			ret[2 * i] = hexDigits[(bytes[i] >> 4) & 0xF];
+			ret[2 * i + 1] = hexDigits[bytes[i] & 0xF];
+		}
+		return new String(ret);
+	}
+
+}
@@ -0,0 +1,39 @@
+package org.sag.arf;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import soot.SootMethod;
+
+public final class ContextQueryIndex {
+
+	private final Set<SootMethod> methods;
+
+	private ContextQueryIndex(Set<SootMethod> methods) {
+		this.methods = methods;
+	}
+
+	//True if the method is a context query or in the sub graph of a context query
+	public boolean isInContextQuery(SootMethod m) {
+		return methods.contains(m);
+	}
+
+	public int size() {
+		return methods.size();
+	}
+
+	public static ContextQueryIndex build(Map<SootMethod,Set<SootMethod>> contextQueriesToSubGraphMethods) {
+		Objects.requireNonNull(contextQueriesToSubGraphMethods);
+		Set<SootMethod> ret = new HashSet<>();
+		for(SootMethod cq : contextQueriesToSubGraphMethods.keySet()) {
+			ret.add(cq);
+			Set<SootMethod> subGraph = contextQueriesToSubGraphMethods.get(cq);
+			if(subGraph != null)
+				ret.addAll(subGraph);
+		}
+		return new ContextQueryIndex(ret);
+	}
+
+}
@@ -0,0 +1,211 @@
+package org.sag.arf;
+
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import org.sag.acminer.IACMinerDataAccessor;
+import org.sag.acminer.database.excludedelements.IExcludeHandler;
+import org.sag.acminer.phases.entrypoints.EntryPoint;
+
+import soot.SootMethod;
+import soot.jimple.toolkits.callgraph.CallGraph;
+import soot.jimple.toolkits.callgraph.Edge;
+
+//The methods reachable from the entry point of each deputy as a bitset of dense method ids
+public class DeputyReachabilityCache {
+
+	private final IACMinerDataAccessor dataAccessor;
+	private final CallGraph cg;
+	private final long maxBytes;
+	//Held while resolving the entry point and building the exclude handler of a deputy through Soot
+	private final Object sootLock;
+	private final ConcurrentHashMap<SootMethod,Integer> methodToId;
+	private final ConcurrentHashMap<String,Integer> sigToId;
+	private final AtomicInteger nextId;
+	private final ConcurrentHashMap<EntryPointNode,CompletableFuture<BitSet>> deputyToReachable;
+	//Access ordered sizes of the finished bitsets, guarded by itself along with bytes and evictions
+	private final LinkedHashMap<EntryPointNode,Long> lru;
+	private long bytes;
+	private long evictions;
+	private final LongAdder hits;
+	private final LongAdder misses;
+
+	public DeputyReachabilityCache(IACMinerDataAccessor dataAccessor, CallGraph cg, long maxBytes, Object sootLock) {
+		Objects.requireNonNull(dataAccessor);
+		Objects.requireNonNull(cg);
+		Objects.requireNonNull(sootLock);
+		this.dataAccessor = dataAccessor;
+		this.cg = cg;
+		this.maxBytes = maxBytes;
+		this.sootLock = sootLock;
+		this.methodToId = new ConcurrentHashMap<>();
+		this.sigToId = new ConcurrentHashMap<>();
+		this.nextId = new AtomicInteger();
+		this.deputyToReachable = new ConcurrentHashMap<>();
+		this.lru = new LinkedHashMap<>(16, 0.75f, true);
+		this.bytes = 0;
+		this.evictions = 0;
+		this.hits = new LongAdder();
+		this.misses = new LongAdder();
+	}
+
+	public boolean reaches(EntryPointNode deputy, String methodSig) {
+		//Walk first as the walk may give the method its id
+		BitSet reachable = getReachable(deputy);
+		Integer id = sigToId.get(methodSig);
+		return id != null && reachable.get(id);
+	}
+
+	public boolean reachesAny(EntryPointNode deputy, Collection<String> methodSigs) {
+		BitSet reachable = getReachable(deputy);
+		for(String sig : methodSigs) {
+			Integer id = sigToId.get(sig);
+			if(id != null && reachable.get(id))
+				return true;
+		}
+		return false;
+	}
+
+	//Walks the call graph of the deputy now unless it is already cached
+	public void prepare(EntryPointNode deputy) {
+		if(!deputyToReachable.containsKey(deputy))
+			getReachable(deputy);
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	public long getEvictions() {
+		synchronized(lru) {
+			return evictions;
+		}
+	}
+
+	public int getMethodCount() {
+		return methodToId.size();
+	}
+
+	private int getId(final SootMethod m) {
+		Integer ret = methodToId.get(m);
+		if(ret == null) {
+			ret = methodToId.computeIfAbsent(m, new Function<SootMethod,Integer>() {
+				@Override
+				public Integer apply(SootMethod k) {
+					Integer id = nextId.getAndIncrement();
+					//Added before the id is published so any walk that sets the id can find it by signature
+					sigToId.put(k.getSignature(), id);
+					return id;
+				}
+			});
+		}
+		return ret;
+	}
+
+	private BitSet getReachable(EntryPointNode deputy) {
+		CompletableFuture<BitSet> f = deputyToReachable.get(deputy);
+		if(f == null) {
+			CompletableFuture<BitSet> mine = new CompletableFuture<>();
+			f = deputyToReachable.putIfAbsent(deputy, mine);
+			if(f == null) {
+				misses.increment();
+				BitSet ret;
+				try {
+					ret = walk(deputy);
+				} catch(RuntimeException | Error e) {
+					//Let a later request try again
+					deputyToReachable.remove(deputy, mine);
+					mine.completeExceptionally(e);
+					throw e;
+				}
+				mine.complete(ret);
+				added(deputy, ret);
+				return ret;
+			}
+		}
+		hits.increment();
+		synchronized(lru) {
+			lru.get(deputy);
+		}
+		return f.join();
+	}
+
+	private BitSet walk(EntryPointNode deputy) {
+		ARFEvents.ReachabilityEvent event = new ARFEvents.ReachabilityEvent();
+		event.begin();
+		BitSet ret = computeReachable(deputy);
+		if(event.shouldCommit()) {
+			event.deputy = deputy.getEntryPoint().getSignature();
+			event.methods = ret.cardinality();
+			event.commit();
+		}
+		return ret;
+	}
+
+	private void added(EntryPointNode deputy, BitSet reachable) {
+		synchronized(lru) {
+			long size = getSize(reachable);
+			lru.put(deputy, size);
+			bytes += size;
+			//Always keep the entry just added even if it alone is over the bound
+			Iterator<Map.Entry<EntryPointNode,Long>> it = lru.entrySet().iterator();
+			while(bytes > maxBytes && lru.size() > 1 && it.hasNext()) {
+				Map.Entry<EntryPointNode,Long> e = it.next();
+				bytes -= e.getValue();
+				deputyToReachable.remove(e.getKey());
+				it.remove();
+				evictions++;
+			}
+		}
+	}
+
+	private BitSet computeReachable(EntryPointNode deputy) {
+		EntryPoint ep;
+		IExcludeHandler excludeHandler;
+		synchronized(sootLock) {
+			ep = deputy.getSootEntryPoint();
+			//Assume 1-1 mapping between method and entry point which should be true because Binder methods have been removed
+			excludeHandler = dataAccessor.getExcludedElementsDB().createNewExcludeHandler(ep);
+		}
+		BitSet ret = new BitSet();
+		ArrayDeque<SootMethod> toVisit = new ArrayDeque<>();
+		SootMethod start = ep.getEntryPoint();
+		ret.set(getId(start));
+		toVisit.add(start);
+		while(!toVisit.isEmpty()) {
+			SootMethod cur = toVisit.poll();
+			if(!excludeHandler.isExcludedMethodWithOverride(cur)) {
+				Iterator<Edge> it = cg.edgesOutOf(cur);
+				while(it.hasNext()) {
+					SootMethod tgt = it.next().tgt();
+					int id = getId(tgt);
+					if(!ret.get(id)) {
+						ret.set(id);
+						toVisit.add(tgt);
+					}
+				}
+			}
+		}
+		//Trim the backing array to what is actually used
+		return ret.get(0, ret.length());
+	}
+
+	private static long getSize(BitSet b) {
+		return b.size() / 8;
+	}
+
+}
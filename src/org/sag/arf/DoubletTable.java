@@ -0,0 +1,125 @@
+package org.sag.arf;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import org.sag.acminer.database.acminer.Doublet;
+
+public final class DoubletTable {
+
+	private final Map<Doublet,Integer> doubletToId;
+	private final Map<EntryPointNode,Row> rows;
+
+	private DoubletTable(Map<Doublet,Integer> doubletToId, Map<EntryPointNode,Row> rows) {
+		this.doubletToId = doubletToId;
+		this.rows = rows;
+	}
+
+	public int size() {
+		return doubletToId.size();
+	}
+
+	//Returns -1 if the doublet was never seen
+	public int getId(Doublet d) {
+		Integer ret = doubletToId.get(d);
+		return ret == null ? -1 : ret;
+	}
+
+	public boolean contains(EntryPointNode ep) {
+		return rows.containsKey(ep);
+	}
+
+	public int getCheckCount(EntryPointNode ep) {
+		Row row = rows.get(ep);
+		return row == null ? 0 : row.ids.length;
+	}
+
+	//A copy of the ids of the authorization logic of the entry point
+	public BitSet getChecks(EntryPointNode ep) {
+		Row row = rows.get(ep);
+		return row == null ? new BitSet() : (BitSet)row.bits.clone();
+	}
+
+	//The ids of the checks of the target that the caller does not have
+	public BitSet getMissing(EntryPointNode caller, EntryPointNode target) {
+		Row targetRow = rows.get(target);
+		if(targetRow == null)
+			return new BitSet();
+		BitSet ret = (BitSet)targetRow.bits.clone();
+		Row callerRow = rows.get(caller);
+		if(callerRow != null)
+			ret.andNot(callerRow.bits);
+		return ret;
+	}
+
+	//The Doublet instances of the entry point for the given ids that it has
+	public Set<Doublet> getDoublets(EntryPointNode ep, BitSet ids) {
+		Set<Doublet> ret = new LinkedHashSet<>();
+		Row row = rows.get(ep);
+		if(row != null) {
+			for(int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) {
+				int i = Arrays.binarySearch(row.ids, id);
+				if(i >= 0)
+					ret.add(row.doublets[i]);
+			}
+		}
+		return ret;
+	}
+
+	public static DoubletTable build(Map<EntryPointNode,Set<Doublet>> epsToAuthLogic) {
+		Objects.requireNonNull(epsToAuthLogic);
+		Map<Doublet,Integer> doubletToId = new HashMap<>();
+		Map<EntryPointNode,Row> rows = new HashMap<>();
+		for(EntryPointNode ep : epsToAuthLogic.keySet()) {
+			Set<Doublet> authLogic = epsToAuthLogic.get(ep);
+			BitSet bits = new BitSet();
+			//Packed as id << 32 | position so the instances can be ordered by id
+			long[] packed = new long[authLogic == null ? 0 : authLogic.size()];
+			Doublet[] local = new Doublet[packed.length];
+			int size = 0;
+			if(authLogic != null) {
+				for(Doublet d : authLogic) {
+					Integer id = doubletToId.get(d);
+					if(id == null) {
+						id = doubletToId.size();
+						doubletToId.put(d, id);
+					}
+					bits.set(id);
+					local[size] = d;
+					packed[size] = ((long)id << 32) | size;
+					size++;
+				}
+			}
+			Arrays.sort(packed, 0, size);
+			int[] ids = new int[size];
+			Doublet[] doublets = new Doublet[size];
+			for(int i = 0; i < size; i++) {
+				ids[i] = (int)(packed[i] >>> 32);
+				doublets[i] = local[(int)packed[i]];
+			}
+			rows.put(ep, new Row(bits, ids, doublets));
+		}
+		return new DoubletTable(doubletToId, rows);
+	}
+
+	private static final class Row {
+
+		private final BitSet bits;
+		//Sorted ascending with doublets holding the instance for each id
+		private final int[] ids;
+		private final Doublet[] doublets;
+
+		public Row(BitSet bits, int[] ids, Doublet[] doublets) {
+			this.bits = bits;
+			this.ids = ids;
+			this.doublets = doublets;
+		}
+
+	}
+
+}
@@ -0,0 +1,216 @@
+package org.sag.arf;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+//The search tree of a caller is only built the first time a path or predecessor is requested
+public final class EntryPointClosure {
+
+	private final EntryPointGraph graph;
+	private final EntryPointReachability reachability;
+	//Indexed by caller id, null until the tree is first needed
+	private final AtomicReferenceArray<Tree> trees;
+	private final ThreadLocal<Searcher> searchers;
+	private final ClosureSnapshot snapshot;
+
+	private EntryPointClosure(EntryPointGraph graph, EntryPointReachability reachability, ClosureSnapshot snapshot) {
+		this.graph = graph;
+		this.reachability = reachability;
+		this.snapshot = snapshot;
+		this.trees = new AtomicReferenceArray<>(graph.size());
+		this.searchers = new ThreadLocal<Searcher>() {
+			@Override
+			protected Searcher initialValue() {
+				return new Searcher(EntryPointClosure.this.graph);
+			}
+		};
+	}
+
+	public EntryPointGraph getGraph() {
+		return graph;
+	}
+
+	public EntryPointReachability getReachability() {
+		return reachability;
+	}
+
+	public int getTargetCount(int caller) {
+		return reachability.getTargetCount(caller);
+	}
+
+	public boolean isReachable(int caller, int target) {
+		return reachability.isTarget(caller, target);
+	}
+
+	public int[] getTargets(int caller) {
+		Tree tree = trees.get(caller);
+		if(tree != null)
+			return tree.targets.clone();
+		return reachability.getSortedTargets(caller);
+	}
+
+	public List<EntryPointNode> getTargetNodes(int caller) {
+		int[] cur = getTargets(caller);
+		if(cur.length == 0)
+			return Collections.emptyList();
+		EntryPointNode[] ret = new EntryPointNode[cur.length];
+		for(int i = 0; i < cur.length; i++)
+			ret[i] = graph.getNode(cur[i]);
+		return Arrays.asList(ret);
+	}
+
+	private Tree getTree(int caller) {
+		Tree ret = trees.get(caller);
+		if(ret == null) {
+			//Two threads may race to build the same tree but both build identical trees
+			if(snapshot != null)
+				ret = new Tree(snapshot.getTreeTargets(caller), snapshot.getTreePreds(caller));
+			else
+				ret = searchers.get().search(caller);
+			trees.set(caller, ret);
+		}
+		return ret;
+	}
+
+	//The targets of the caller sorted by rank followed by the predecessor of each in the search tree. A tree
+	//not already built is searched without keeping it so a snapshot of every tree does not hold them all.
+	int[][] getTreeUncached(int caller) {
+		Tree tree = trees.get(caller);
+		if(tree == null) {
+			if(snapshot != null)
+				tree = new Tree(snapshot.getTreeTargets(caller), snapshot.getTreePreds(caller));
+			else
+				tree = searchers.get().search(caller);
+		}
+		return new int[][] {tree.targets.clone(), tree.preds.clone()};
+	}
+
+	//Returns -1 if the target is not reachable from the caller
+	public int getPredecessor(int caller, int target) {
+		if(!reachability.isTarget(caller, target))
+			return -1;
+		Tree tree = getTree(caller);
+		return tree.preds[tree.indexOf(target)];
+	}
+
+	//The shortest path starting with the caller and ending with the target or null if the target is not reachable
+	public List<EntryPointNode> getPath(int caller, int target) {
+		if(!reachability.isTarget(caller, target))
+			return null;
+		Tree tree = getTree(caller);
+		List<EntryPointNode> ret = new ArrayList<>();
+		ret.add(graph.getNode(target));
+		int cur = tree.preds[tree.indexOf(target)];
+		while(cur != caller) {
+			ret.add(graph.getNode(cur));
+			cur = tree.preds[tree.indexOf(cur)];
+		}
+		ret.add(graph.getNode(caller));
+		Collections.reverse(ret);
+		return ret;
+	}
+
+	public EntryPointNode getPredecessor(EntryPointNode caller, EntryPointNode target) {
+		int c = graph.getId(caller);
+		int t = graph.getId(target);
+		if(c < 0 || t < 0)
+			return null;
+		int ret = getPredecessor(c, t);
+		return ret < 0 ? null : graph.getNode(ret);
+	}
+
+	public static EntryPointClosure build(EntryPointGraph graph) {
+		Objects.requireNonNull(graph);
+		return new EntryPointClosure(graph, EntryPointReachability.build(graph), null);
+	}
+
+	//The snapshot must have been taken of a closure of the same graph
+	public static EntryPointClosure load(EntryPointGraph graph, ClosureSnapshot snapshot) {
+		Objects.requireNonNull(graph);
+		Objects.requireNonNull(snapshot);
+		return new EntryPointClosure(graph, EntryPointReachability.load(graph, snapshot), snapshot);
+	}
+
+	private final class Tree {
+
+		//Sorted by the rank of the target with preds holding the predecessor of each target
+		private final int[] targets;
+		private final int[] preds;
+
+		public Tree(int[] targets, int[] preds) {
+			this.targets = targets;
+			this.preds = preds;
+		}
+
+		public int indexOf(int target) {
+			int key = graph.getRank(target);
+			int low = 0;
+			int high = targets.length - 1;
+			while(low <= high) {
+				int mid = (low + high) >>> 1;
+				int midRank = graph.getRank(targets[mid]);
+				if(midRank < key)
+					low = mid + 1;
+				else if(midRank > key)
+					high = mid - 1;
+				else
+					return mid;
+			}
+			return -1;
+		}
+
+	}
+
+	//Scratch space for one thread
+	private final class Searcher {
+
+		private final EntryPointGraph graph;
+		//Visited marks are stamped with the caller id + 1 so the array never needs clearing between callers
+		private final int[] visited;
+		private final int[] queue;
+		private final int[] parent;
+
+		public Searcher(EntryPointGraph graph) {
+			this.graph = graph;
+			this.visited = new int[graph.size()];
+			this.queue = new int[graph.size()];
+			this.parent = new int[graph.size()];
+		}
+
+		public Tree search(int caller) {
+			int head = 0;
+			int tail = 0;
+			visited[caller] = caller + 1;
+			queue[tail++] = caller;
+			while(head < tail) {
+				int cur = queue[head++];
+				for(int e = graph.getEdgeStart(cur); e < graph.getEdgeEnd(cur); e++) {
+					int other = graph.getTarget(e);
+					if(visited[other] != caller + 1) {
+						visited[other] = caller + 1;
+						parent[other] = cur;
+						queue[tail++] = other;
+					}
+				}
+			}
+			//The caller itself is at the head of the queue and is never its own target
+			long[] sorted = new long[tail - 1];
+			for(int i = 1; i < tail; i++)
+				sorted[i-1] = ((long)graph.getRank(queue[i]) << 32) | (parent[queue[i]] & 0xFFFFFFFFL);
+			Arrays.sort(sorted);
+			int[] t = new int[sorted.length];
+			int[] p = new int[sorted.length];
+			for(int i = 0; i < sorted.length; i++) {
+				t[i] = graph.getIdByRank((int)(sorted[i] >>> 32));
+				p[i] = (int)sorted[i];
+			}
+			return new Tree(t, p);
+		}
+
+	}
+
+}
@@ -0,0 +1,275 @@
+package org.sag.arf;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.sag.acminer.database.entrypointedges.EntryPointContainer;
+import org.sag.acminer.database.entrypointedges.EntryPointEdge;
+import org.sag.acminer.database.entrypointedges.IEntryPointEdgesDatabase;
+import org.sag.soot.xstream.SootClassContainer;
+import org.sag.soot.xstream.SootMethodContainer;
+
+//The targets of node i are targets[offsets[i]] to targets[offsets[i+1]-1]
+public final class EntryPointGraph {
+
+	private final EntryPointNode[] nodes;
+	private final Map<EntryPointNode,Integer> nodeToId;
+	private final int sourceCount;
+	private final int[] offsets;
+	private final int[] targets;
+	//The position of each id when the nodes are sorted by their natural ordering and its inverse
+	private final int[] rank;
+	private final int[] byRank;
+
+	private EntryPointGraph(EntryPointNode[] nodes, Map<EntryPointNode,Integer> nodeToId, int sourceCount,
+			int[] offsets, int[] targets) {
+		this.nodes = nodes;
+		this.nodeToId = nodeToId;
+		this.sourceCount = sourceCount;
+		this.offsets = offsets;
+		this.targets = targets;
+		Integer[] sorted = new Integer[nodes.length];
+		for(int i = 0; i < nodes.length; i++)
+			sorted[i] = i;
+		Arrays.sort(sorted, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer o1, Integer o2) {
+				return EntryPointGraph.this.nodes[o1].compareTo(EntryPointGraph.this.nodes[o2]);
+			}
+		});
+		this.rank = new int[nodes.length];
+		this.byRank = new int[nodes.length];
+		for(int i = 0; i < sorted.length; i++) {
+			rank[sorted[i]] = i;
+			byRank[i] = sorted[i];
+		}
+	}
+
+	public int size() {
+		return nodes.length;
+	}
+
+	public int getSourceCount() {
+		return sourceCount;
+	}
+
+	public int getEdgeCount() {
+		return targets.length;
+	}
+
+	public EntryPointNode getNode(int id) {
+		return nodes[id];
+	}
+
+	//Returns -1 if the node is not part of the graph
+	public int getId(EntryPointNode node) {
+		Integer ret = nodeToId.get(node);
+		return ret == null ? -1 : ret;
+	}
+
+	public int getRank(int id) {
+		return rank[id];
+	}
+
+	public int getIdByRank(int rank) {
+		return byRank[rank];
+	}
+
+	public int getOutDegree(int id) {
+		return offsets[id+1] - offsets[id];
+	}
+
+	public int getEdgeStart(int id) {
+		return offsets[id];
+	}
+
+	public int getEdgeEnd(int id) {
+		return offsets[id+1];
+	}
+
+	public int getTarget(int edge) {
+		return targets[edge];
+	}
+
+	public int[] getTargets(int id) {
+		return Arrays.copyOfRange(targets, offsets[id], offsets[id+1]);
+	}
+
+	//The entry points with their own container in the database in database order
+	public List<EntryPointNode> getSources() {
+		return new AbstractList<EntryPointNode>() {
+			@Override
+			public EntryPointNode get(int index) {
+				if(index < 0 || index >= sourceCount)
+					throw new IndexOutOfBoundsException(Integer.toString(index));
+				return nodes[index];
+			}
+			@Override
+			public int size() {
+				return sourceCount;
+			}
+		};
+	}
+
+	public List<EntryPointNode> getTargetNodes(int id) {
+		int start = offsets[id];
+		int end = offsets[id+1];
+		if(start == end)
+			return Collections.emptyList();
+		EntryPointNode[] ret = new EntryPointNode[end - start];
+		for(int i = start; i < end; i++)
+			ret[i - start] = nodes[targets[i]];
+		return Arrays.asList(ret);
+	}
+
+	private static boolean isBinderMethod(SootMethodContainer m) {
+		return m.getDeclaringClass().equals("android.os.Binder");
+	}
+
+	//Binder methods are removed here once because they are noise. Any Binder entry point keeps
+	//its id but never has any outgoing edges and no entry point will ever have an edge to one.
+	public static EntryPointGraph build(IEntryPointEdgesDatabase db) {
+		Objects.requireNonNull(db);
+		Collection<EntryPointContainer> data = db.getOutputData();
+		Builder b = new Builder();
+		for(EntryPointContainer epContainer : data) {
+			b.getId(new EntryPointNode(epContainer.getEntryPointContainer(),epContainer.getStubContainer()));
+		}
+		int sourceCount = b.size();
+		for(EntryPointContainer epContainer : data) {
+			SootMethodContainer ep = epContainer.getEntryPointContainer();
+			int source = b.getId(new EntryPointNode(ep,epContainer.getStubContainer()));
+			b.startEdges(source);
+			if(!isBinderMethod(ep)) {
+				for(EntryPointEdge other : epContainer.getReferenceEntryPointContainers()) {
+					SootMethodContainer otherM = other.getReferencedEntryPointContainer();
+					SootClassContainer otherC = other.getReferencedStubContainer();
+					if(!isBinderMethod(otherM))
+						b.addEdge(source, new EntryPointNode(otherM,otherC));
+				}
+			}
+			b.endEdges(source);
+		}
+		return b.build(sourceCount);
+	}
+
+	//For graphs not read from the database, i.e. synthetic graphs. Source i has the edges targets.get(i)
+	//and no Binder methods are removed.
+	static EntryPointGraph build(List<EntryPointNode> sources, List<List<EntryPointNode>> targets) {
+		Objects.requireNonNull(sources);
+		Objects.requireNonNull(targets);
+		if(sources.size() != targets.size())
+			throw new IllegalArgumentException("Error: Got " + sources.size() + " sources but " + targets.size() + " target lists");
+		Builder b = new Builder();
+		for(EntryPointNode source : sources)
+			b.getId(source);
+		int sourceCount = b.size();
+		for(int i = 0; i < sources.size(); i++) {
+			int source = b.getId(sources.get(i));
+			b.startEdges(source);
+			for(EntryPointNode target : targets.get(i))
+				b.addEdge(source, target);
+			b.endEdges(source);
+		}
+		return b.build(sourceCount);
+	}
+
+	//Rebuilds a graph from the nodes and edges of one written out in CSR form, i.e. from a ClosureSnapshot
+	static EntryPointGraph of(EntryPointNode[] nodes, int sourceCount, int[] offsets, int[] targets) {
+		Objects.requireNonNull(nodes);
+		if(offsets.length != nodes.length + 1 || offsets[nodes.length] != targets.length || sourceCount > nodes.length)
+			throw new IllegalArgumentException("Error: The edges do not match the " + nodes.length + " nodes");
+		Map<EntryPointNode,Integer> nodeToId = new HashMap<>();
+		for(int i = 0; i < nodes.length; i++)
+			nodeToId.put(nodes[i], i);
+		return new EntryPointGraph(nodes, nodeToId, sourceCount, offsets, targets);
+	}
+
+	private static final class Builder {
+
+		private final Map<EntryPointNode,Integer> nodeToId;
+		private EntryPointNode[] nodes;
+		private int size;
+		private int[][] adj;
+		private int[] adjSize;
+		private int[] mark;
+
+		public Builder() {
+			this.nodeToId = new HashMap<>();
+			this.nodes = new EntryPointNode[16];
+			this.size = 0;
+			this.adj = new int[16][];
+			this.adjSize = new int[16];
+			this.mark = new int[16];
+		}
+
+		public int getId(EntryPointNode node) {
+			Integer ret = nodeToId.get(node);
+			if(ret == null) {
+				ret = size++;
+				if(ret >= nodes.length) {
+					int newSize = nodes.length * 2;
+					nodes = Arrays.copyOf(nodes, newSize);
+					adj = Arrays.copyOf(adj, newSize);
+					adjSize = Arrays.copyOf(adjSize, newSize);
+					mark = Arrays.copyOf(mark, newSize);
+				}
+				nodes[ret] = node;
+				nodeToId.put(node, ret);
+			}
+			return ret;
+		}
+
+		public int size() {
+			return size;
+		}
+
+		//A later container for the same entry point replaces the edges of an earlier one
+		public void startEdges(int source) {
+			adj[source] = new int[4];
+			adjSize[source] = 0;
+		}
+
+		//Duplicate edges are dropped keeping the first occurrence
+		public void addEdge(int source, EntryPointNode target) {
+			int t = getId(target);
+			if(mark[t] == source + 1)
+				return;
+			mark[t] = source + 1;
+			int[] cur = adj[source];
+			if(adjSize[source] == cur.length) {
+				cur = Arrays.copyOf(cur, cur.length * 2);
+				adj[source] = cur;
+			}
+			cur[adjSize[source]++] = t;
+		}
+
+		public void endEdges(int source) {
+			//Reset the marks so a later container for the same source starts clean
+			int[] cur = adj[source];
+			for(int i = 0; i < adjSize[source]; i++)
+				mark[cur[i]] = 0;
+		}
+
+		public EntryPointGraph build(int sourceCount) {
+			int[] offsets = new int[size + 1];
+			for(int i = 0; i < size; i++)
+				offsets[i+1] = offsets[i] + (adj[i] == null ? 0 : adjSize[i]);
+			int[] targets = new int[offsets[size]];
+			for(int i = 0; i < size; i++) {
+				if(adj[i] != null)
+					System.arraycopy(adj[i], 0, targets, offsets[i], adjSize[i]);
+			}
+			return new EntryPointGraph(Arrays.copyOf(nodes, size), nodeToId, sourceCount, offsets, targets);
+		}
+
+	}
+
+}
@@ -0,0 +1,199 @@
+package org.sag.arf;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Objects;
+
+//Components are numbered in the order Tarjan completes them so edges only go to lower components
+public final class EntryPointReachability {
+
+	private final EntryPointGraph graph;
+	private final int[] component;
+	private final int componentCount;
+	//Indexed by component, the ids of all nodes reachable by following at least one edge
+	private final BitSet[] rows;
+	//Null unless component and rows are null
+	private final ClosureSnapshot snapshot;
+
+	private EntryPointReachability(EntryPointGraph graph, int[] component, int componentCount, BitSet[] rows, 
+			ClosureSnapshot snapshot) {
+		this.graph = graph;
+		this.component = component;
+		this.componentCount = componentCount;
+		this.rows = rows;
+		this.snapshot = snapshot;
+	}
+
+	public EntryPointGraph getGraph() {
+		return graph;
+	}
+
+	public int getComponent(int id) {
+		return snapshot != null ? snapshot.getComponent(id) : component[id];
+	}
+
+	public int getComponentCount() {
+		return componentCount;
+	}
+
+	//True if target can be reached from caller and target is not the caller
+	public boolean isTarget(int caller, int target) {
+		if(caller == target)
+			return false;
+		int c = getComponent(caller);
+		return snapshot != null ? snapshot.getRowBit(c, target) : rows[c].get(target);
+	}
+
+	public int getTargetCount(int caller) {
+		int c = getComponent(caller);
+		int count = snapshot != null ? snapshot.getRowCardinality(c) : rows[c].cardinality();
+		return count - (isInRow(c, caller) ? 1 : 0);
+	}
+
+	//A copy of the targets of the caller which never includes the caller itself
+	public BitSet getTargets(int caller) {
+		int c = getComponent(caller);
+		BitSet ret = snapshot != null ? BitSet.valueOf(snapshot.getRowWords(c)) : (BitSet)rows[c].clone();
+		ret.clear(caller);
+		return ret;
+	}
+
+	//The ids of the targets of the caller sorted by the natural ordering of EntryPointNode
+	public int[] getSortedTargets(int caller) {
+		int c = getComponent(caller);
+		int[] ranks = new int[getTargetCount(caller)];
+		int i = 0;
+		for(int t = nextInRow(c, 0); t >= 0; t = nextInRow(c, t + 1)) {
+			if(t != caller)
+				ranks[i++] = graph.getRank(t);
+		}
+		Arrays.sort(ranks);
+		for(i = 0; i < ranks.length; i++)
+			ranks[i] = graph.getIdByRank(ranks[i]);
+		return ranks;
+	}
+
+	private boolean isInRow(int c, int id) {
+		return snapshot != null ? snapshot.getRowBit(c, id) : rows[c].get(id);
+	}
+
+	private int nextInRow(int c, int from) {
+		return snapshot != null ? snapshot.nextRowBit(c, from) : rows[c].nextSetBit(from);
+	}
+
+	//The number of words of the row of the component as given by BitSet.toLongArray
+	int getRowWordCount(int c) {
+		return snapshot != null ? snapshot.getRowWordCount(c) : (rows[c].length() + 63) >>> 6;
+	}
+
+	//The words of the row of the component as given by BitSet.toLongArray
+	long[] getRowWords(int c) {
+		return snapshot != null ? snapshot.getRowWords(c) : rows[c].toLongArray();
+	}
+	
+	//Answers every query from the mapped rows of a snapshot taken of a reachability of the same graph
+	static EntryPointReachability load(EntryPointGraph graph, ClosureSnapshot snapshot) {
+		Objects.requireNonNull(graph);
+		Objects.requireNonNull(snapshot);
+		if(snapshot.getNodeCount() != graph.size())
+			throw new IllegalArgumentException("Error: The snapshot has " + snapshot.getNodeCount() + " nodes but the graph has " 
+					+ graph.size());
+		return new EntryPointReachability(graph, null, snapshot.getComponentCount(), null, snapshot);
+	}
+	
+	public static EntryPointReachability build(EntryPointGraph graph) {
+		Objects.requireNonNull(graph);
+		int n = graph.size();
+		int[] component = new int[n];
+		int componentCount = tarjan(graph, component);
+
+		//Group the members of each component in CSR form
+		int[] memberStart = new int[componentCount + 1];
+		for(int v = 0; v < n; v++)
+			memberStart[component[v] + 1]++;
+		for(int c = 0; c < componentCount; c++)
+			memberStart[c + 1] += memberStart[c];
+		int[] members = new int[n];
+		int[] fill = Arrays.copyOf(memberStart, componentCount);
+		for(int v = 0; v < n; v++)
+			members[fill[component[v]]++] = v;
+
+		BitSet[] rows = new BitSet[componentCount];
+		//Stamped with the component + 1 to only merge the row of a successor component once
+		int[] merged = new int[componentCount];
+		for(int c = 0; c < componentCount; c++) {
+			BitSet row = new BitSet();
+			for(int m = memberStart[c]; m < memberStart[c + 1]; m++) {
+				int v = members[m];
+				for(int e = graph.getEdgeStart(v); e < graph.getEdgeEnd(v); e++) {
+					int w = graph.getTarget(e);
+					row.set(w);
+					int d = component[w];
+					if(d != c && merged[d] != c + 1) {
+						merged[d] = c + 1;
+						row.or(rows[d]);
+					}
+				}
+			}
+			rows[c] = row;
+		}
+		return new EntryPointReachability(graph, component, componentCount, rows, null);
+	}
+
+	//Iterative Tarjan so deep service chains cannot overflow the stack
+	private static int tarjan(EntryPointGraph graph, int[] component) {
+		int n = graph.size();
+		int[] index = new int[n];
+		int[] low = new int[n];
+		boolean[] onStack = new boolean[n];
+		int[] stack = new int[n];
+		int[] callStack = new int[n];
+		int[] edgePos = new int[n];
+		Arrays.fill(index, -1);
+		int sp = 0;
+		int counter = 0;
+		int componentCount = 0;
+		for(int s = 0; s < n; s++) {
+			if(index[s] != -1)
+				continue;
+			int csp = 0;
+			index[s] = low[s] = counter++;
+			stack[sp++] = s;
+			onStack[s] = true;
+			callStack[csp] = s;
+			edgePos[csp++] = graph.getEdgeStart(s);
+			while(csp > 0) {
+				int v = callStack[csp - 1];
+				if(edgePos[csp - 1] < graph.getEdgeEnd(v)) {
+					int w = graph.getTarget(edgePos[csp - 1]++);
+					if(index[w] == -1) {
+						index[w] = low[w] = counter++;
+						stack[sp++] = w;
+						onStack[w] = true;
+						callStack[csp] = w;
+						edgePos[csp++] = graph.getEdgeStart(w);
+					} else if(onStack[w]) {
+						low[v] = Math.min(low[v], index[w]);
+					}
+				} else {
+					csp--;
+					if(low[v] == index[v]) {
+						int w;
+						do {
+							w = stack[--sp];
+							onStack[w] = false;
+							component[w] = componentCount;
+						} while(w != v);
+						componentCount++;
+					}
+					if(csp > 0) {
+						int u = callStack[csp - 1];
+						low[u] = Math.min(low[u], low[v]);
+					}
+				}
+			}
+		}
+		return componentCount;
+	}
+
+}
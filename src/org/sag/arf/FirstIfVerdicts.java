@@ -0,0 +1,70 @@
+package org.sag.arf;
+
+import java.io.BufferedReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.sag.common.io.PrintStreamUnixEOL;
+import org.sag.common.tools.SortingMethods;
+
+public class FirstIfVerdicts {
+
+	private static final String hashPrefix = "// JimpleJarHash: ";
+
+	private final String jarHash;
+	private final Map<String,Boolean> sigToRestricting;
+	private volatile boolean changed;
+
+	public FirstIfVerdicts(String jarHash) {
+		this.jarHash = jarHash;
+		this.sigToRestricting = new ConcurrentHashMap<>();
+		this.changed = false;
+	}
+
+	//Returns null if no verdict exists for the deputy
+	public Boolean get(String deputySig) {
+		return sigToRestricting.get(deputySig);
+	}
+
+	public void put(String deputySig, boolean restricting) {
+		if(sigToRestricting.put(deputySig, restricting) == null)
+			changed = true;
+	}
+
+	public int size() {
+		return sigToRestricting.size();
+	}
+
+	public boolean isChanged() {
+		return changed;
+	}
+
+	//Returns false and leaves the verdicts unchanged if the file was made from a different jimple jar
+	public boolean read(Path p) throws Exception {
+		try(BufferedReader br = Files.newBufferedReader(p)) {
+			String line = br.readLine();
+			if(line == null || jarHash == null || !line.equals(hashPrefix + jarHash))
+				return false;
+			while((line = br.readLine()) != null) {
+				line = line.trim();
+				if(line.isEmpty() || line.startsWith("//"))
+					continue;
+				String[] temp = line.split("\\t");
+				sigToRestricting.put(temp[0].trim(), Boolean.parseBoolean(temp[1].trim()));
+			}
+		}
+		return true;
+	}
+
+	public void write(Path p) throws Exception {
+		try(PrintStreamUnixEOL ps = new PrintStreamUnixEOL(Files.newOutputStream(p))) {
+			ps.println(hashPrefix + jarHash);
+			for(String sig : SortingMethods.sortSet(sigToRestricting.keySet(),SortingMethods.sComp))
+				ps.println(sig + "\t" + sigToRestricting.get(sig));
+		}
+		changed = false;
+	}
+
+}
@@ -0,0 +1,158 @@
+package org.sag.arf;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import org.sag.soot.analysis.AdvLocalDefs;
+import org.sag.soot.analysis.FastDominatorsFinder;
+
+import soot.Body;
+import soot.SootMethod;
+import soot.Unit;
+import soot.toolkits.graph.BriefUnitGraph;
+import soot.toolkits.graph.ExceptionalUnitGraph;
+import soot.toolkits.scalar.LiveLocals;
+
+public class MethodAnalysisCache {
+
+	private final int maxEntries;
+	private final Object bodyLock;
+	private final LinkedHashMap<SootMethod,Entry> cache;
+	private long hits;
+	private long misses;
+
+	public MethodAnalysisCache(final int maxEntries, Object bodyLock) {
+		Objects.requireNonNull(bodyLock);
+		this.maxEntries = Math.max(1, maxEntries);
+		this.bodyLock = bodyLock;
+		this.cache = new LinkedHashMap<SootMethod,Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<SootMethod,Entry> eldest) {
+				return size() > MethodAnalysisCache.this.maxEntries;
+			}
+		};
+		this.hits = 0;
+		this.misses = 0;
+	}
+
+	public Body getBody(SootMethod m) {
+		return getEntry(m).getBody();
+	}
+
+	public BriefUnitGraph getBriefUnitGraph(SootMethod m) {
+		return getEntry(m).getBriefUnitGraph();
+	}
+
+	public ExceptionalUnitGraph getExceptionalUnitGraph(SootMethod m) {
+		return getEntry(m).getExceptionalUnitGraph();
+	}
+
+	//Computed over the ExceptionalUnitGraph of the method
+	public FastDominatorsFinder<Unit> getDominatorsFinder(SootMethod m) {
+		return getEntry(m).getDominatorsFinder();
+	}
+
+	//Computed over the BriefUnitGraph of the method
+	public AdvLocalDefs getLocalDefs(SootMethod m) {
+		return getEntry(m).getLocalDefs();
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized int size() {
+		return cache.size();
+	}
+
+	private synchronized Entry getEntry(SootMethod m) {
+		Entry ret = cache.get(m);
+		if(ret == null) {
+			misses++;
+			ret = new Entry(m);
+			cache.put(m, ret);
+		} else {
+			hits++;
+		}
+		return ret;
+	}
+
+	//Each analysis is built at most once per entry even when requested from multiple threads. Building
+	//one may resolve classes or bodies in Soot so it is always done while holding bodyLock.
+	private final class Entry {
+
+		private final SootMethod m;
+		private Body body;
+		private BriefUnitGraph briefUnitGraph;
+		private ExceptionalUnitGraph exceptionalUnitGraph;
+		private FastDominatorsFinder<Unit> dominatorsFinder;
+		private AdvLocalDefs localDefs;
+
+		public Entry(SootMethod m) {
+			this.m = m;
+		}
+
+		public synchronized Body getBody() {
+			if(body == null) {
+				synchronized(bodyLock) {
+					body = m.retrieveActiveBody();
+				}
+			}
+			return body;
+		}
+
+		public synchronized BriefUnitGraph getBriefUnitGraph() {
+			if(briefUnitGraph == null) {
+				Body b = getBody();
+				synchronized(bodyLock) {
+					briefUnitGraph = new BriefUnitGraph(b);
+				}
+			}
+			return briefUnitGraph;
+		}
+
+		public synchronized ExceptionalUnitGraph getExceptionalUnitGraph() {
+			if(exceptionalUnitGraph == null) {
+				Body b = getBody();
+				synchronized(bodyLock) {
+					exceptionalUnitGraph = new ExceptionalUnitGraph(b);
+				}
+			}
+			return exceptionalUnitGraph;
+		}
+
+		public synchronized FastDominatorsFinder<Unit> getDominatorsFinder() {
+			if(dominatorsFinder == null) {
+				ARFEvents.DominatorsEvent event = new ARFEvents.DominatorsEvent();
+				event.begin();
+				ExceptionalUnitGraph g = getExceptionalUnitGraph();
+				synchronized(bodyLock) {
+					dominatorsFinder = new FastDominatorsFinder<>(g);
+				}
+				if(event.shouldCommit()) {
+					event.method = m.getSignature();
+					event.commit();
+				}
+			}
+			return dominatorsFinder;
+		}
+
+		public synchronized AdvLocalDefs getLocalDefs() {
+			if(localDefs == null) {
+				BriefUnitGraph g = getBriefUnitGraph();
+				synchronized(bodyLock) {
+					localDefs = new AdvLocalDefs(g, LiveLocals.Factory.newLiveLocals(g));
+				}
+			}
+			return localDefs;
+		}
+
+	}
+
+}
@@ -6,7 +6,6 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.Set;
 import java.util.TreeSet;
 
 import org.sag.common.graphtools.AlEdge;
@@ -20,11 +19,11 @@ public class MultiPathCGTransformer extends Transformer<EntryPointNode> {
 	
 	private volatile Map<EntryPointNode, AlNode> methodToNode;
 	private volatile Map<Pair<EntryPointNode,EntryPointNode>,AlEdge> pairToEdge;
-	private final Map<EntryPointNode, Set<EntryPointNode>> directlyCalledEpsForEps;
+	private final EntryPointGraph graph;
 	
-	public MultiPathCGTransformer(Map<EntryPointNode, Set<EntryPointNode>> directlyCalledEpsForEps) {
+	public MultiPathCGTransformer(EntryPointGraph graph) {
 		super();
-		this.directlyCalledEpsForEps = directlyCalledEpsForEps;
+		this.graph = graph;
 	}
 	
 	@Override
@@ -66,15 +65,16 @@ public class MultiPathCGTransformer extends Transformer<EntryPointNode> {
 	public void transform() {
 		this.methodToNode = new HashMap<>();
 		this.pairToEdge = new HashMap<>();
-		for(EntryPointNode deputy : directlyCalledEpsForEps.keySet()) {
-			Set<EntryPointNode> targets = directlyCalledEpsForEps.get(deputy);
-			if(targets != null && !targets.isEmpty()) {
+		for(int deputyId = 0; deputyId < graph.getSourceCount(); deputyId++) {
+			if(graph.getOutDegree(deputyId) > 0) {
+				EntryPointNode deputy = graph.getNode(deputyId);
 				AlNode deputyGraphNode = methodToNode.get(deputy);
 				if(deputyGraphNode == null) {
 					deputyGraphNode = new AlNode(nextId());
 					methodToNode.put(deputy, deputyGraphNode);
 				}
-				for(EntryPointNode target : targets) {
+				for(int e = graph.getEdgeStart(deputyId); e < graph.getEdgeEnd(deputyId); e++) {
+					EntryPointNode target = graph.getNode(graph.getTarget(e));
 					Pair<EntryPointNode,EntryPointNode> edge = new Pair<>(deputy,target);
 					AlEdge graphEdge = pairToEdge.get(edge);
 					if(graphEdge == null) {
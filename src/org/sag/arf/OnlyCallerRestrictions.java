@@ -49,6 +49,13 @@ public class OnlyCallerRestrictions {
 		return epToRestrictions.containsKey(epSig);
 	}
 	
+	//For restrictions not read from a file, i.e. those of synthetic data
+	static OnlyCallerRestrictions of(Map<String,Set<String>> epToRestrictions) {
+		OnlyCallerRestrictions ret = new OnlyCallerRestrictions();
+		ret.epToRestrictions.putAll(epToRestrictions);
+		return ret;
+	}
+	
 	public static OnlyCallerRestrictions parser(Path p) throws Exception {
 		OnlyCallerRestrictions ret = new OnlyCallerRestrictions();
 		Pattern linePattern = Pattern.compile("^(<[^>]+>)\\s+(.+)$");
@@ -17,6 +17,24 @@ import com.thoughtworks.xstream.annotations.XStreamOmitField;
 @XStreamAlias("permission")
 public class Permission implements XStreamInOutInterface, Element {
 	
+	//Bits of the protection level mask, any protection level not listed here sets PROTECTION_OTHER
+	public static final int PROTECTION_NORMAL = 1 << 0;
+	public static final int PROTECTION_DANGEROUS = 1 << 1;
+	public static final int PROTECTION_SIGNATURE = 1 << 2;
+	public static final int PROTECTION_SIGNATURE_OR_SYSTEM = 1 << 3;
+	public static final int PROTECTION_PRIVILEGED = 1 << 4;
+	public static final int PROTECTION_SYSTEM = 1 << 5;
+	public static final int PROTECTION_DEVELOPMENT = 1 << 6;
+	public static final int PROTECTION_APPOP = 1 << 7;
+	public static final int PROTECTION_PRE23 = 1 << 8;
+	public static final int PROTECTION_INSTALLER = 1 << 9;
+	public static final int PROTECTION_VERIFIER = 1 << 10;
+	public static final int PROTECTION_PREINSTALLED = 1 << 11;
+	public static final int PROTECTION_SETUP = 1 << 12;
+	public static final int PROTECTION_INSTANT = 1 << 13;
+	public static final int PROTECTION_RUNTIME = 1 << 14;
+	public static final int PROTECTION_OTHER = 1 << 31;
+	
 	@XStreamAlias("android:name")
 	@XStreamAsAttribute
 	private String nameField;
@@ -37,21 +55,36 @@ public class Permission implements XStreamInOutInterface, Element {
 	private String protectionLevelField;
 	@XStreamOmitField
 	private Set<String> protectionLevels;
+	@XStreamOmitField
+	private int protectionLevelMask;
 	
 	private Permission() {}
 	
+	//For permissions not read from a manifest, i.e. those of synthetic data
+	Permission(String name, String protectionLevel) {
+		this.nameField = name;
+		this.protectionLevelField = protectionLevel;
+		parseProtectionLevels();
+	}
+	
 	//ReadResolve is always run when reading from XML even if a constructor is run first
 	protected Object readResolve() throws ObjectStreamException {
+		parseProtectionLevels();
+		return this;
+	}
+	
+	private void parseProtectionLevels() {
 		if(protectionLevelField == null)
 			throw new RuntimeException("Error: There is no protection level for '" + nameField + "'!?!");
 		protectionLevels = new LinkedHashSet<>();
 		if(!protectionLevelField.matches("^([a-zA-Z0-9_\\-]+\\|?)+$"))
 			throw new RuntimeException("Error: Unhandled protection level string '" + protectionLevelField + "'");
 		String[] plevels = protectionLevelField.split("\\|");
+		protectionLevelMask = 0;
 		for(String s : plevels) {
 			protectionLevels.add(s);
+			protectionLevelMask |= getProtectionLevelBit(s);
 		}
-		return this;
 	}
 	
 	protected Object writeReplace() throws ObjectStreamException {
@@ -87,6 +120,36 @@ public class Permission implements XStreamInOutInterface, Element {
 		return new LinkedHashSet<>(protectionLevels);
 	}
 	
+	public int getProtectionLevelMask() {
+		return protectionLevelMask;
+	}
+	
+	//True if any of the protection levels in the mask are a protection level of this permission
+	public boolean hasAnyProtectionLevel(int mask) {
+		return (protectionLevelMask & mask) != 0;
+	}
+	
+	public static int getProtectionLevelBit(String protectionLevel) {
+		switch(protectionLevel) {
+			case "normal": return PROTECTION_NORMAL;
+			case "dangerous": return PROTECTION_DANGEROUS;
+			case "signature": return PROTECTION_SIGNATURE;
+			case "signatureOrSystem": return PROTECTION_SIGNATURE_OR_SYSTEM;
+			case "privileged": return PROTECTION_PRIVILEGED;
+			case "system": return PROTECTION_SYSTEM;
+			case "development": return PROTECTION_DEVELOPMENT;
+			case "appop": return PROTECTION_APPOP;
+			case "pre23": return PROTECTION_PRE23;
+			case "installer": return PROTECTION_INSTALLER;
+			case "verifier": return PROTECTION_VERIFIER;
+			case "preinstalled": return PROTECTION_PREINSTALLED;
+			case "setup": return PROTECTION_SETUP;
+			case "instant": return PROTECTION_INSTANT;
+			case "runtime": return PROTECTION_RUNTIME;
+			default: return PROTECTION_OTHER;
+		}
+	}
+	
 	public int hashCode() {
 		int i = 17;
 		i = i * 31 + Objects.hashCode(nameField);
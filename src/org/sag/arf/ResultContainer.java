@@ -83,6 +83,15 @@ public class ResultContainer implements Comparable<ResultContainer> {
 		return new ArrayList<>(path);
 	}
 	
+	boolean hasPath() {
+		return path != null;
+	}
+	
+	//Paths are set once a result is written out as finding the path of every result up front is costly
+	void setPath(List<EntryPointNode> path) {
+		this.path = path == null || path.isEmpty() ? null : new ArrayList<>(path);
+	}
+	
 	@Override
 	public int hashCode() {
 		int i = 17;
@@ -0,0 +1,176 @@
+package org.sag.arf;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+public class ResultFanOut {
+
+	//Marks the end of the results in the queue of a background sink
+	private static final Object end = new Object();
+
+	private final int queueSize;
+	private final List<ResultSink> inline;
+	private final List<ResultSink> background;
+	private ARFMetrics metrics;
+
+	public ResultFanOut(int queueSize) {
+		this.queueSize = Math.max(1, queueSize);
+		this.inline = new ArrayList<>();
+		this.background = new ArrayList<>();
+		this.metrics = null;
+	}
+
+	public void setMetrics(ARFMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	private ARFMetrics.Stage addStage(ResultSink sink) {
+		if(metrics == null)
+			return null;
+		String name = sink.getName();
+		name = name.substring(Math.max(name.lastIndexOf('/'), name.lastIndexOf('\\')) + 1);
+		return metrics.addStage("write_" + name);
+	}
+
+	public void addInline(ResultSink sink) {
+		Objects.requireNonNull(sink);
+		inline.add(sink);
+	}
+
+	public void addBackground(ResultSink sink) {
+		Objects.requireNonNull(sink);
+		background.add(sink);
+	}
+
+	public void run(Iterable<ResultContainer> results) throws Exception {
+		ARFMetrics.Stage[] inlineStages = new ARFMetrics.Stage[inline.size()];
+		ARFEvents.WriteEvent[] inlineEvents = new ARFEvents.WriteEvent[inline.size()];
+		for(int i = 0; i < inline.size(); i++) {
+			inlineStages[i] = addStage(inline.get(i));
+			inlineEvents[i] = new ARFEvents.WriteEvent();
+			inlineEvents[i].begin();
+		}
+		long count = 0;
+		List<Writer> writers = new ArrayList<>();
+		for(ResultSink sink : background) {
+			Writer w = new Writer(sink, new ArrayBlockingQueue<Object>(queueSize), metrics, addStage(sink));
+			writers.add(w);
+			w.start();
+		}
+		Throwable[] inlineErrors = new Throwable[inline.size()];
+		try {
+			for(ResultContainer r : results) {
+				for(int i = 0; i < inline.size(); i++) {
+					if(inlineErrors[i] == null) {
+						long[] start = inlineStages[i] == null ? null : metrics.sampleThread();
+						try {
+							inline.get(i).accept(r);
+						} catch(Throwable t) {
+							inlineErrors[i] = t;
+						}
+						if(start != null) {
+							inlineStages[i].addThread(start);
+							inlineStages[i].addIn(1);
+							inlineStages[i].addOut(1);
+						}
+					}
+				}
+				for(Writer w : writers)
+					w.queue.put(r);
+				count++;
+			}
+			for(int i = 0; i < inline.size(); i++) {
+				long[] start = inlineStages[i] == null ? null : metrics.sampleThread();
+				try {
+					inline.get(i).finish();
+				} catch(Throwable t) {
+					if(inlineErrors[i] == null)
+						inlineErrors[i] = t;
+				}
+				if(start != null)
+					inlineStages[i].addThread(start);
+				if(inlineEvents[i].shouldCommit()) {
+					inlineEvents[i].file = inline.get(i).getName();
+					inlineEvents[i].results = count;
+					inlineEvents[i].commit();
+				}
+			}
+		} finally {
+			for(Writer w : writers)
+				w.queue.put(end);
+			for(Writer w : writers)
+				w.join();
+		}
+		for(int i = 0; i < inline.size(); i++) {
+			if(inlineErrors[i] != null)
+				throw new Exception("Error: Failed to output '" + inline.get(i).getName() + "'", inlineErrors[i]);
+		}
+		for(Writer w : writers) {
+			if(w.error != null)
+				throw new Exception("Error: Failed to output '" + w.sink.getName() + "'", w.error);
+		}
+	}
+
+	private static final class Writer extends Thread {
+
+		private final ResultSink sink;
+		private final BlockingQueue<Object> queue;
+		private final ARFMetrics metrics;
+		private final ARFMetrics.Stage stage;
+		private volatile Throwable error;
+
+		public Writer(ResultSink sink, BlockingQueue<Object> queue, ARFMetrics metrics, ARFMetrics.Stage stage) {
+			super("ResultFanOut-" + sink.getName());
+			setDaemon(true);
+			this.sink = sink;
+			this.queue = queue;
+			this.metrics = metrics;
+			this.stage = stage;
+			this.error = null;
+		}
+
+		//The stage covers the whole thread including any time spent waiting on the queue
+		@Override
+		public void run() {
+			long[] start = stage == null ? null : metrics.sampleThread();
+			ARFEvents.WriteEvent event = new ARFEvents.WriteEvent();
+			event.begin();
+			long count = 0;
+			try {
+				Object r;
+				//Keep draining after a failure so the producer never blocks on a full queue
+				while((r = queue.take()) != end) {
+					if(error == null) {
+						try {
+							sink.accept((ResultContainer)r);
+							count++;
+						} catch(Throwable t) {
+							error = t;
+						}
+					}
+				}
+				//Always called so the sink can close its files
+				sink.finish();
+			} catch(Throwable t) {
+				if(error == null)
+					error = t;
+			} finally {
+				if(start != null) {
+					stage.addThread(start);
+					stage.addIn(count);
+					stage.addOut(count);
+				}
+				if(event.shouldCommit()) {
+					event.file = sink.getName();
+					event.results = count;
+					event.commit();
+				}
+			}
+		}
+
+	}
+
+}
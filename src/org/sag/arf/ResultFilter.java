@@ -0,0 +1,16 @@
+package org.sag.arf;
+
+public interface ResultFilter {
+
+	//The name of the file in debug_arf-dir the results removed by this stage are written to
+	String getRemovedFileName();
+
+	//True if the results removed by this stage should be checked against the known vulnerable paths
+	boolean isCheckedForKnownVulns();
+
+	//Only called on the calling thread for stages added with addPrepared and before keep is called for the result
+	void prepare(ResultContainer r);
+
+	boolean keep(ResultContainer r);
+
+}
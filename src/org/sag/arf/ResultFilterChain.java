@@ -0,0 +1,268 @@
+package org.sag.arf;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+public final class ResultFilterChain {
+
+	private final List<ResultFilter> filters;
+	private final List<Integer> checks;
+	private final List<Set<ResultContainer>> removed;
+	private final List<Boolean> prepared;
+	private ARFMetrics metrics;
+	private ARFMetrics.Stage[] stages;
+
+	private static final int prepareBlockSize = 1024;
+
+	public ResultFilterChain() {
+		this.filters = new ArrayList<>();
+		this.checks = new ArrayList<>();
+		this.removed = new ArrayList<>();
+		this.prepared = new ArrayList<>();
+		this.metrics = null;
+		this.stages = null;
+	}
+
+	public void setMetrics(ARFMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	public void add(int check, ResultFilter filter) {
+		add(check, filter, false);
+	}
+
+	//Each result the stage sees is first handed to prepare on the calling thread so anything keep needs
+	//from Soot can be built before keep is called across the pool
+	public void addPrepared(int check, ResultFilter filter) {
+		add(check, filter, true);
+	}
+
+	private void add(int check, ResultFilter filter, boolean isPrepared) {
+		filters.add(filter);
+		checks.add(check);
+		removed.add(new LinkedHashSet<ResultContainer>());
+		prepared.add(isPrepared);
+	}
+
+	//Drops the stages of the checks before the given one, i.e. when resuming from results they already filtered
+	public void removeChecksBefore(int check) {
+		for(int i = filters.size() - 1; i >= 0; i--) {
+			if(checks.get(i) < check) {
+				filters.remove(i);
+				checks.remove(i);
+				removed.remove(i);
+				prepared.remove(i);
+			}
+		}
+	}
+
+	public int size() {
+		return filters.size();
+	}
+
+	public ResultFilter getFilter(int i) {
+		return filters.get(i);
+	}
+
+	public int getCheck(int i) {
+		return checks.get(i);
+	}
+
+	public Set<ResultContainer> getRemoved(int i) {
+		return removed.get(i);
+	}
+
+	//The name of the removed file of the stage without the extension
+	public String getStageName(int i) {
+		String ret = filters.get(i).getRemovedFileName();
+		if(ret.endsWith(".txt"))
+			ret = ret.substring(0, ret.length() - 4);
+		return ret;
+	}
+
+	public int getVerdict(ResultContainer r) {
+		for(int i = 0; i < filters.size(); i++) {
+			if(prepared.get(i))
+				filters.get(i).prepare(r);
+			if(!keep(i, r))
+				return i;
+		}
+		return -1;
+	}
+
+	private void prepare(ResultContainer[] in, int[] verdicts, int stage, int start, int end) {
+		ResultFilter filter = filters.get(stage);
+		long[] sample = stages == null ? null : metrics.sampleThread();
+		for(int j = start; j < end; j++) {
+			if(verdicts[j] < 0)
+				filter.prepare(in[j]);
+		}
+		if(sample != null)
+			stages[stage].addThread(sample);
+	}
+
+	private void evaluate(ResultContainer[] in, int[] verdicts, int first, int last, int start, int end, ForkJoinPool pool) {
+		if(pool == null) {
+			evaluate(in, verdicts, first, last, start, end);
+		} else {
+			//Small chunks as the cost of a single result varies greatly between deputies
+			pool.invoke(new VerdictTask(in, verdicts, first, last, start, end, 
+					Math.max(1, (end - start) / (pool.getParallelism() * 32))));
+		}
+	}
+
+	//Sets the verdict of the results from start up to but not including end that no earlier stage removed
+	//by running them through the stages from first up to but not including last one stage at a time
+	private void evaluate(ResultContainer[] in, int[] verdicts, int first, int last, int start, int end) {
+		ARFMetrics.Stage[] stages = this.stages;
+		for(int i = first; i < last; i++) {
+			long[] sample = stages == null ? null : metrics.sampleThread();
+			for(int j = start; j < end; j++) {
+				if(verdicts[j] < 0 && !keep(i, in[j]))
+					verdicts[j] = i;
+			}
+			if(sample != null)
+				stages[i].addThread(sample);
+		}
+	}
+
+	private boolean keep(int i, ResultContainer r) {
+		ARFEvents.FilterEvent event = new ARFEvents.FilterEvent();
+		event.begin();
+		boolean keep = filters.get(i).keep(r);
+		if(event.shouldCommit()) {
+			event.stage = getStageName(i);
+			event.deputy = r.getCallerEp().getEntryPoint().getSignature();
+			event.target = r.isEmptyResult() ? null : r.getTargetEp().getEntryPoint().getSignature();
+			event.kept = keep;
+			event.commit();
+		}
+		return keep;
+	}
+
+	//The kept results in the iteration order of the input
+	public Set<ResultContainer> apply(Collection<ResultContainer> results) {
+		return apply(results, null, null);
+	}
+
+	//Null if the listener stopped the chain. Only the surviving results are carried from one run to the next.
+	public Set<ResultContainer> apply(Collection<ResultContainer> results, ForkJoinPool pool, CheckListener listener) {
+		ResultContainer[] in = results.toArray(new ResultContainer[results.size()]);
+		int[] verdicts = new int[in.length];
+		Arrays.fill(verdicts, -1);
+		if(metrics != null) {
+			stages = new ARFMetrics.Stage[filters.size()];
+			for(int i = 0; i < stages.length; i++)
+				stages[i] = metrics.addStage(getStageName(i));
+		}
+		boolean parallel = pool != null && pool.getParallelism() > 1;
+		try {
+			//Each run starts at a prepared stage or a new check and holds the unprepared stages of the same check after it
+			for(int first = 0; first < filters.size();) {
+				int last = first + 1;
+				while(last < filters.size() && !prepared.get(last) && checks.get(last).equals(checks.get(first)))
+					last++;
+				if(prepared.get(first)) {
+					//A block at a time so what prepare built is still cached when keep runs
+					for(int start = 0; start < in.length; start += prepareBlockSize) {
+						int end = Math.min(in.length, start + prepareBlockSize);
+						prepare(in, verdicts, first, start, end);
+						evaluate(in, verdicts, first, last, start, end, parallel ? pool : null);
+					}
+				} else {
+					evaluate(in, verdicts, first, last, 0, in.length, parallel ? pool : null);
+				}
+				in = removeFiltered(in, verdicts, first, last);
+				verdicts = new int[in.length];
+				Arrays.fill(verdicts, -1);
+				int check = checks.get(first);
+				if(listener != null && (last == filters.size() || checks.get(last) != check) && !listener.checkDone(check))
+					return null;
+				first = last;
+			}
+		} finally {
+			stages = null;
+		}
+		return new LinkedHashSet<>(Arrays.asList(in));
+	}
+
+	//Moves the results removed by the stages from first up to but not including last to their removed sets
+	//and returns the rest in the same order
+	private ResultContainer[] removeFiltered(ResultContainer[] in, int[] verdicts, int first, int last) {
+		int kept = 0;
+		for(int i = 0; i < in.length; i++) {
+			if(verdicts[i] < 0)
+				in[kept++] = in[i];
+			else
+				removed.get(verdicts[i]).add(in[i]);
+		}
+		if(stages != null) {
+			long size = in.length;
+			for(int i = first; i < last; i++) {
+				stages[i].addIn(size);
+				size -= removed.get(i).size();
+				stages[i].addOut(size);
+			}
+		}
+		return Arrays.copyOf(in, kept);
+	}
+
+	public interface CheckListener {
+
+		//Called on the calling thread once every stage of the check has run and its removed sets are filled,
+		//returning false stops the chain before any later check
+		boolean checkDone(int check);
+
+	}
+
+	private final class VerdictTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+		private final ResultContainer[] in;
+		private final int[] verdicts;
+		private final int firstStage;
+		private final int lastStage;
+		private final int start;
+		private final int end;
+		private final int chunk;
+
+		public VerdictTask(ResultContainer[] in, int[] verdicts, int firstStage, int lastStage, int start, int end, int chunk) {
+			this.in = in;
+			this.verdicts = verdicts;
+			this.firstStage = firstStage;
+			this.lastStage = lastStage;
+			this.start = start;
+			this.end = end;
+			this.chunk = chunk;
+		}
+
+		@Override
+		protected void compute() {
+			if(end - start <= chunk) {
+				evaluate(in, verdicts, firstStage, lastStage, start, end);
+			} else {
+				int mid = (start + end) >>> 1;
+				invokeAll(new VerdictTask(in, verdicts, firstStage, lastStage, start, mid, chunk), 
+						new VerdictTask(in, verdicts, firstStage, lastStage, mid, end, chunk));
+			}
+		}
+
+	}
+
+	//The number of results remaining after all stages with a check number up to and including check
+	public int getSizeAfter(int inputSize, int check) {
+		int ret = inputSize;
+		for(int i = 0; i < filters.size(); i++) {
+			if(checks.get(i) <= check)
+				ret -= removed.get(i).size();
+		}
+		return ret;
+	}
+
+}
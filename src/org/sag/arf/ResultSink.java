@@ -0,0 +1,12 @@
+package org.sag.arf;
+
+public interface ResultSink {
+
+	//Used to identify the sink in errors, usually the file it writes
+	String getName();
+
+	void accept(ResultContainer r) throws Exception;
+
+	void finish() throws Exception;
+
+}
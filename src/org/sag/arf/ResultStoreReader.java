@@ -0,0 +1,153 @@
+package org.sag.arf;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+public class ResultStoreReader {
+
+	private final ByteBuffer buf;
+	private final int stringCount;
+	private final int nodeCount;
+	private final int stageCount;
+	private final int recordCount;
+	private final int poolSize;
+	private final int stringsOffset;
+	private final int stringBytesOffset;
+	private final int nodesOffset;
+	private final int stagesOffset;
+	private final int recordsOffset;
+	private final int poolOffset;
+
+	private ResultStoreReader(ByteBuffer buf) {
+		this.buf = buf;
+		if(buf.limit() < ResultStoreWriter.headerSize || buf.getInt(0) != ResultStoreWriter.magic)
+			throw new RuntimeException("Error: Not a result store");
+		if(buf.getInt(4) != ResultStoreWriter.version)
+			throw new RuntimeException("Error: Unsupported result store version " + buf.getInt(4) + " expected "
+					+ ResultStoreWriter.version);
+		this.stringCount = buf.getInt(8);
+		this.nodeCount = buf.getInt(12);
+		this.stageCount = buf.getInt(16);
+		this.recordCount = buf.getInt(20);
+		this.poolSize = buf.getInt(24);
+		this.stringsOffset = (int)buf.getLong(32);
+		this.stringBytesOffset = stringsOffset + 4 * (stringCount + 1);
+		this.nodesOffset = (int)buf.getLong(40);
+		this.stagesOffset = (int)buf.getLong(48);
+		this.recordsOffset = (int)buf.getLong(56);
+		this.poolOffset = (int)buf.getLong(64);
+		if((long)poolOffset + 4L * poolSize > buf.limit())
+			throw new RuntimeException("Error: The result store is truncated");
+	}
+
+	public static ResultStoreReader open(Path p) throws Exception {
+		try(FileChannel fc = FileChannel.open(p, StandardOpenOption.READ)) {
+			if(fc.size() > Integer.MAX_VALUE)
+				throw new RuntimeException("Error: The result store '" + p + "' is too large to map");
+			//The mapping stays valid after the channel is closed
+			return new ResultStoreReader(fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size()));
+		}
+	}
+
+	public int getStringCount() {
+		return stringCount;
+	}
+
+	public int getNodeCount() {
+		return nodeCount;
+	}
+
+	public int getStageCount() {
+		return stageCount;
+	}
+
+	public int getRecordCount() {
+		return recordCount;
+	}
+
+	public String getString(int id) {
+		checkIndex(id, stringCount);
+		int start = buf.getInt(stringsOffset + 4 * id);
+		int end = buf.getInt(stringsOffset + 4 * (id + 1));
+		byte[] b = new byte[end - start];
+		ByteBuffer dup = buf.duplicate();
+		dup.position(stringBytesOffset + start);
+		dup.get(b);
+		return new String(b, StandardCharsets.UTF_8);
+	}
+
+	public int getNodeStubId(int node) {
+		checkIndex(node, nodeCount);
+		return buf.getInt(nodesOffset + ResultStoreWriter.nodeSize * node);
+	}
+
+	public int getNodeSignatureId(int node) {
+		checkIndex(node, nodeCount);
+		return buf.getInt(nodesOffset + ResultStoreWriter.nodeSize * node + 4);
+	}
+
+	public int getStageCheck(int stage) {
+		checkIndex(stage, stageCount);
+		return buf.getInt(stagesOffset + ResultStoreWriter.stageSize * stage);
+	}
+
+	public String getStageName(int stage) {
+		checkIndex(stage, stageCount);
+		return getString(buf.getInt(stagesOffset + ResultStoreWriter.stageSize * stage + 4));
+	}
+
+	public int getCaller(int record) {
+		return buf.getInt(getRecordOffset(record));
+	}
+
+	//-1 for an empty result
+	public int getTarget(int record) {
+		return buf.getInt(getRecordOffset(record) + 4);
+	}
+
+	public double getRatio(int record) {
+		return buf.getDouble(getRecordOffset(record) + 8);
+	}
+
+	//-1 if the result was not removed by any stage
+	public int getStage(int record) {
+		return buf.getInt(getRecordOffset(record) + 16);
+	}
+
+	public boolean isKept(int record) {
+		return getStage(record) < 0;
+	}
+
+	//The string ids of the missing checks
+	public int[] getMissingChecks(int record) {
+		int off = getRecordOffset(record);
+		return getPoolInts(buf.getInt(off + 20), buf.getInt(off + 24));
+	}
+
+	//The node ids of the path starting with the caller and ending with the target
+	public int[] getPath(int record) {
+		int off = getRecordOffset(record);
+		return getPoolInts(buf.getInt(off + 28), buf.getInt(off + 32));
+	}
+
+	private int getRecordOffset(int record) {
+		checkIndex(record, recordCount);
+		return recordsOffset + ResultStoreWriter.recordSize * record;
+	}
+
+	private int[] getPoolInts(int start, int count) {
+		int[] ret = new int[count];
+		for(int i = 0; i < count; i++)
+			ret[i] = buf.getInt(poolOffset + 4 * (start + i));
+		return ret;
+	}
+
+	private static void checkIndex(int index, int size) {
+		if(index < 0 || index >= size)
+			throw new IndexOutOfBoundsException(Integer.toString(index));
+	}
+
+}
@@ -0,0 +1,187 @@
+package org.sag.arf;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.sag.acminer.database.acminer.Doublet;
+
+public class ResultStoreWriter {
+
+	public static final int magic = 0x41524652;
+	public static final int version = 1;
+	public static final int headerSize = 72;
+	public static final int nodeSize = 8;
+	public static final int stageSize = 8;
+	public static final int recordSize = 36;
+	//Some VMs reserve a few header words in an array so this is the largest array that is always allowed
+	private static final int maxArraySize = Integer.MAX_VALUE - 8;
+
+	private final Map<String,Integer> stringToId;
+	private final List<String> strings;
+	private final Map<EntryPointNode,Integer> nodeToId;
+	private final List<int[]> nodes;
+	private final List<int[]> stages;
+	private ByteBuffer records;
+	private int recordCount;
+	private int[] pool;
+	private int poolSize;
+
+	public ResultStoreWriter() {
+		this.stringToId = new HashMap<>();
+		this.strings = new ArrayList<>();
+		this.nodeToId = new HashMap<>();
+		this.nodes = new ArrayList<>();
+		this.stages = new ArrayList<>();
+		this.records = ByteBuffer.allocate(recordSize * 1024);
+		this.recordCount = 0;
+		this.pool = new int[4096];
+		this.poolSize = 0;
+	}
+
+	public int getRecordCount() {
+		return recordCount;
+	}
+
+	//Returns the id of the new stage which is used to mark the results it removed
+	public int addStage(int check, String name) {
+		Objects.requireNonNull(name);
+		stages.add(new int[]{check, getStringId(name)});
+		return stages.size() - 1;
+	}
+
+	public void addRemoved(int stage, Collection<ResultContainer> results) {
+		if(stage < 0 || stage >= stages.size())
+			throw new IndexOutOfBoundsException(Integer.toString(stage));
+		for(ResultContainer r : results)
+			addRecord(r, stage);
+	}
+
+	public void addKept(Collection<ResultContainer> results) {
+		for(ResultContainer r : results)
+			addRecord(r, -1);
+	}
+
+	public void addKept(ResultContainer r) {
+		addRecord(r, -1);
+	}
+
+	private void addRecord(ResultContainer r, int stage) {
+		int caller = getNodeId(r.getCallerEp());
+		int target = r.isEmptyResult() ? -1 : getNodeId(r.getTargetEp());
+		Collection<Doublet> missingChecks = r.getMissingChecks();
+		List<EntryPointNode> path = r.getPath();
+		int missingOffset = poolSize;
+		for(Doublet d : missingChecks)
+			addToPool(getStringId(d.toString()));
+		int pathOffset = poolSize;
+		for(EntryPointNode ep : path)
+			addToPool(getNodeId(ep));
+		if(records.remaining() < recordSize) {
+			if(records.position() > maxArraySize - recordSize)
+				throw new RuntimeException("Error: The records of the result store do not fit in " + maxArraySize + " bytes");
+			int capacity = (int)Math.min(maxArraySize, records.capacity() * 2L);
+			records = ByteBuffer.allocate(capacity).put((ByteBuffer)records.flip());
+		}
+		records.putInt(caller).putInt(target).putDouble(r.getRatio()).putInt(stage)
+			.putInt(missingOffset).putInt(missingChecks.size()).putInt(pathOffset).putInt(path.size());
+		recordCount++;
+	}
+
+	private void addToPool(int i) {
+		if(poolSize == pool.length) {
+			if(poolSize == maxArraySize)
+				throw new RuntimeException("Error: The pool of the result store does not fit in " + maxArraySize + " ints");
+			pool = Arrays.copyOf(pool, (int)Math.min(maxArraySize, pool.length * 2L));
+		}
+		pool[poolSize++] = i;
+	}
+
+	private int getStringId(String s) {
+		Integer ret = stringToId.get(s);
+		if(ret == null) {
+			ret = strings.size();
+			stringToId.put(s, ret);
+			strings.add(s);
+		}
+		return ret;
+	}
+
+	private int getNodeId(EntryPointNode ep) {
+		Integer ret = nodeToId.get(ep);
+		if(ret == null) {
+			ret = nodes.size();
+			nodeToId.put(ep, ret);
+			nodes.add(new int[]{getStringId(ep.getStub().getSignature()), getStringId(ep.getEntryPoint().getSignature())});
+		}
+		return ret;
+	}
+
+	//Big endian: a 72 byte header of counts and section offsets, the string offsets and UTF-8 bytes,
+	//the nodes (stub and entry point string ids), the stages (check number and name string id), the
+	//36 byte records (caller, target, ratio, stage, and the pool offset and count of the missing
+	//checks and of the path), and the int pool the records point into.
+	public void write(Path p) throws Exception {
+		List<byte[]> encoded = new ArrayList<>(strings.size());
+		long stringBytes = 0;
+		for(String s : strings) {
+			byte[] b = s.getBytes(StandardCharsets.UTF_8);
+			encoded.add(b);
+			stringBytes += b.length;
+		}
+		if(stringBytes > Integer.MAX_VALUE)
+			throw new RuntimeException("Error: The strings of the result store do not fit in " + Integer.MAX_VALUE + " bytes");
+		long stringsOffset = headerSize;
+		long nodesOffset = stringsOffset + 4L * (strings.size() + 1) + stringBytes;
+		long stagesOffset = nodesOffset + (long)nodeSize * nodes.size();
+		long recordsOffset = stagesOffset + (long)stageSize * stages.size();
+		long poolOffset = recordsOffset + (long)recordSize * recordCount;
+
+		try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(p), 1 << 20))) {
+			out.writeInt(magic);
+			out.writeInt(version);
+			out.writeInt(strings.size());
+			out.writeInt(nodes.size());
+			out.writeInt(stages.size());
+			out.writeInt(recordCount);
+			out.writeInt(poolSize);
+			out.writeInt(0);
+			out.writeLong(stringsOffset);
+			out.writeLong(nodesOffset);
+			out.writeLong(stagesOffset);
+			out.writeLong(recordsOffset);
+			out.writeLong(poolOffset);
+
+			int offset = 0;
+			out.writeInt(offset);
+			for(byte[] b : encoded) {
+				offset += b.length;
+				out.writeInt(offset);
+			}
+			for(byte[] b : encoded)
+				out.write(b);
+			for(int[] node : nodes) {
+				out.writeInt(node[0]);
+				out.writeInt(node[1]);
+			}
+			for(int[] stage : stages) {
+				out.writeInt(stage[0]);
+				out.writeInt(stage[1]);
+			}
+			out.write(records.array(), records.arrayOffset(), records.position());
+			for(int i = 0; i < poolSize; i++)
+				out.writeInt(pool[i]);
+		}
+	}
+
+}
@@ -0,0 +1,169 @@
+package org.sag.arf;
+
+import java.io.BufferedWriter;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+import org.sag.acminer.database.acminer.Doublet;
+import org.sag.common.tools.SortingMethods;
+import org.sag.soot.xstream.SootMethodContainer;
+
+public class ResultsTsvWriter implements ResultSink {
+
+	private static final int bufferSize = 1 << 20;
+	private static final Pattern permPattern = Pattern.compile("^`\"([^`\"]+)\"`$");
+
+	private final Path path;
+	private final boolean compress;
+	private final Map<ResultContainer,GroupContainer> resultToGroup;
+	private final boolean hasPath;
+	private final boolean inOrder;
+	private final List<ResultContainer> pending;
+	private final StringBuilder row;
+	private final Matcher permMatcher;
+	private Writer out;
+
+	//A null resultToGroup means there is no Group column
+	public ResultsTsvWriter(Path path, boolean compress, Map<ResultContainer,GroupContainer> resultToGroup, boolean hasPath) {
+		Objects.requireNonNull(path);
+		this.path = path;
+		this.compress = compress;
+		this.resultToGroup = resultToGroup;
+		this.hasPath = hasPath;
+		this.inOrder = ResultContainer.getComp() instanceof ResultContainer.SortByCallerTargetDoubletRatio;
+		this.pending = new ArrayList<>();
+		this.row = new StringBuilder(4096);
+		this.permMatcher = permPattern.matcher("");
+		this.out = null;
+	}
+
+	public Path getPath() {
+		return path;
+	}
+
+	@Override
+	public String getName() {
+		return path.toString();
+	}
+
+	public static boolean isRow(ResultContainer r) {
+		return !r.isEmptyResult() && r.getRatio() != 0.0;
+	}
+
+	@Override
+	public void accept(ResultContainer r) throws Exception {
+		if(isRow(r)) {
+			if(inOrder)
+				writeRow(r);
+			else
+				pending.add(r);
+		}
+	}
+
+	@Override
+	public void finish() throws Exception {
+		try {
+			if(!pending.isEmpty()) {
+				Collections.sort(pending, new ResultContainer.SortByCallerTargetDoubletRatio());
+				for(ResultContainer r : pending)
+					writeRow(r);
+				pending.clear();
+			}
+			open();
+		} finally {
+			if(out != null)
+				out.close();
+		}
+	}
+
+	private void open() throws Exception {
+		if(out != null)
+			return;
+		OutputStream os = Files.newOutputStream(path);
+		if(compress)
+			os = new GZIPOutputStream(os, bufferSize);
+		out = new BufferedWriter(new OutputStreamWriter(os, Charset.defaultCharset()), bufferSize);
+		row.setLength(0);
+		if(resultToGroup != null)
+			row.append("Group\t");
+		row.append("Ratio\tCaller Stub\tCaller Service\tCaller Name\tCaller Signature\tTarget Stub\tTarget Service\tTarget Name"
+				+ "\tTarget Signature\tMissingChecks\tSources");
+		if(hasPath)
+			row.append("\tPath");
+		row.append('\r');
+		out.append(row);
+	}
+
+	private void writeRow(ResultContainer r) throws Exception {
+		open();
+		row.setLength(0);
+		if(resultToGroup != null)
+			row.append(resultToGroup.get(r).getName()).append('\t');
+		row.append(r.getRatio()).append('\t');
+		appendEntryPoint(r.getCallerEp());
+		appendEntryPoint(r.getTargetEp());
+		appendMissingChecks(r);
+		//The Path column is always written even when the header does not include it
+		row.append('"');
+		boolean first = true;
+		for(EntryPointNode s : r.getPath()) {
+			if(first)
+				first = false;
+			else
+				row.append('\n');
+			row.append(s);
+		}
+		row.append("\"\r");
+		out.append(row);
+	}
+
+	private void appendEntryPoint(EntryPointNode ep) {
+		row.append(ep.getStub().getSignature()).append('\t');
+		row.append(ep.getEntryPoint().getDeclaringClass()).append('\t');
+		row.append(ep.getEntryPoint().getName()).append('\t');
+		row.append(ep.getEntryPoint().getSignature()).append('\t');
+	}
+
+	//The MissingChecks column followed by the Sources column which repeats each check with its sources
+	private void appendMissingChecks(ResultContainer r) {
+		Set<Doublet> missingChecks = SortingMethods.sortSet(r.getMissingChecks());
+		List<String> checks = new ArrayList<>(missingChecks.size());
+		row.append('"');
+		for(Doublet d : missingChecks) {
+			String s = d.toString();
+			if(permMatcher.reset(s).matches())
+				s = permMatcher.group(1);
+			else
+				s = s.replace('"', '\'').replace("`", "");
+			if(!checks.isEmpty())
+				row.append('\n');
+			row.append(s);
+			checks.add(s);
+		}
+		row.append("\"\t\"");
+		int i = 0;
+		for(Doublet d : missingChecks) {
+			if(i > 0)
+				row.append('\n');
+			row.append(checks.get(i++));
+			for(SootMethodContainer source : SortingMethods.sortSet(d.getSourceMethodContainers())) {
+				row.append("\n  ").append(source.getDeclaringClass()).append(" : ").append(source.getName());
+			}
+		}
+		row.append("\"\t");
+	}
+
+}
@@ -0,0 +1,154 @@
+package org.sag.arf;
+
+import java.io.BufferedReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+import org.sag.common.io.PrintStreamUnixEOL;
+
+public class RunManifest {
+
+	private static final String header = "// ARF Run Manifest Version 2";
+	private static final String missing = "missing";
+
+	private final Map<String,String> inputs;
+	private final Map<String,String> outputs;
+	//The check of the inputs only read by the filters from that check on
+	private final Map<String,Integer> inputChecks;
+
+	public RunManifest() {
+		this.inputs = new TreeMap<>();
+		this.outputs = new TreeMap<>();
+		this.inputChecks = new TreeMap<>();
+	}
+
+	public void addInput(String key, String value) {
+		Objects.requireNonNull(key);
+		inputs.put(key, Objects.toString(value));
+	}
+
+	public void addInputFile(String key, Path p) throws Exception {
+		Objects.requireNonNull(key);
+		inputs.put(key, p == null ? missing : hash(p));
+	}
+
+	//An input only read by the filters from the given check on
+	public void addCheckInputFile(String key, Path p, int check) throws Exception {
+		addInputFile(key, p);
+		inputChecks.put(key, check);
+	}
+
+	//Records every file below dir with a path relative to root
+	public void addOutputs(Path root, Path dir) throws Exception {
+		for(Path f : listFiles(dir))
+			outputs.put(root.relativize(f).toString(), ContentHash.of(f));
+	}
+
+	//The lowest check of the inputs that differ from those of o, Integer.MAX_VALUE if none differ, or 0 if an input
+	//read before the filters differs
+	public int getFirstChangedCheck(RunManifest o) {
+		Set<String> keys = new HashSet<>(inputs.keySet());
+		keys.addAll(o.inputs.keySet());
+		int ret = Integer.MAX_VALUE;
+		for(String key : keys) {
+			if(!Objects.equals(inputs.get(key), o.inputs.get(key))) {
+				Integer check = inputChecks.get(key);
+				if(check == null || !check.equals(o.inputChecks.get(key)))
+					return 0;
+				ret = Math.min(ret, check);
+			}
+		}
+		return ret;
+	}
+
+	public boolean hasOutputs() {
+		return !outputs.isEmpty();
+	}
+
+	//False if any recorded output is gone or its contents changed
+	public boolean areOutputsUnchanged(Path root) throws Exception {
+		for(String key : outputs.keySet()) {
+			Path f = root.resolve(key);
+			if(!Files.isRegularFile(f) || !ContentHash.of(f).equals(outputs.get(key)))
+				return false;
+		}
+		return true;
+	}
+
+	//Returns null if the file is not a manifest
+	public static RunManifest read(Path p) throws Exception {
+		RunManifest ret = new RunManifest();
+		try(BufferedReader br = Files.newBufferedReader(p)) {
+			String line = br.readLine();
+			if(line == null || !line.equals(header))
+				return null;
+			while((line = br.readLine()) != null) {
+				if(line.trim().isEmpty() || line.startsWith("//"))
+					continue;
+				String[] temp = line.split("\\t");
+				if(temp.length != 3)
+					throw new Exception("Error: Expected a type, key, and hash separated by tabs but got '" + line + "'");
+				if(temp[0].equals("input"))
+					ret.inputs.put(temp[1], temp[2]);
+				else if(temp[0].equals("check"))
+					ret.inputChecks.put(temp[1], Integer.parseInt(temp[2]));
+				else if(temp[0].equals("output"))
+					ret.outputs.put(temp[1], temp[2]);
+				else
+					throw new Exception("Error: Unhandled entry type '" + temp[0] + "'");
+			}
+		}
+		return ret;
+	}
+
+	public void write(Path p) throws Exception {
+		try(PrintStreamUnixEOL ps = new PrintStreamUnixEOL(Files.newOutputStream(p))) {
+			ps.println(header);
+			for(String key : inputs.keySet())
+				ps.println("input\t" + key + "\t" + inputs.get(key));
+			for(String key : inputChecks.keySet())
+				ps.println("check\t" + key + "\t" + inputChecks.get(key));
+			for(String key : outputs.keySet())
+				ps.println("output\t" + key + "\t" + outputs.get(key));
+		}
+	}
+
+	//Also used to key the closure snapshot on the same files
+	static String hash(Path p) throws Exception {
+		if(Files.isRegularFile(p))
+			return ContentHash.of(p);
+		if(!Files.isDirectory(p))
+			return missing;
+		StringBuilder sb = new StringBuilder();
+		for(Path f : listFiles(p))
+			sb.append(p.relativize(f)).append('\t').append(ContentHash.of(f)).append('\n');
+		return ContentHash.of(sb.toString());
+	}
+
+	private static List<Path> listFiles(Path dir) throws Exception {
+		List<Path> ret = new ArrayList<>();
+		if(Files.isDirectory(dir)) {
+			try(Stream<Path> s = Files.walk(dir)) {
+				Iterator<Path> it = s.iterator();
+				while(it.hasNext()) {
+					Path f = it.next();
+					if(Files.isRegularFile(f))
+						ret.add(f);
+				}
+			}
+		}
+		Collections.sort(ret);
+		return ret;
+	}
+
+}
@@ -0,0 +1,234 @@
+package org.sag.arf;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.sag.acminer.IACMinerDataAccessor;
+import org.sag.acminer.database.acminer.Doublet;
+import org.sag.common.tools.SortingMethods;
+import org.sag.soot.xstream.SootClassContainer;
+import org.sag.soot.xstream.SootMethodContainer;
+import org.sag.soot.xstream.SootUnitContainer;
+
+import soot.Modifier;
+import soot.SootClass;
+import soot.SootMethod;
+import soot.Type;
+import soot.VoidType;
+
+public final class SyntheticDataSource implements ARFDataSource {
+
+	public static final long defaultSeed = 0x41524642L;
+	private static final int hubEvery = 25;
+	private static final int hubSize = 100;
+	private static final int minServiceSize = 4;
+	private static final int maxServiceSize = 80;
+	private static final int maxOutDegree = 32;
+	private static final double fanOutAlpha = 1.5;
+	private static final double crossServiceRate = 0.3;
+	private static final double hubNextRate = 0.3;
+	private static final double clusterRate = 0.1;
+	private static final int maxClusterSize = 8;
+	private static final int checkPoolSize = 512;
+	private static final int maxServiceChecks = 3;
+	private static final double serviceCheckRate = 0.8;
+	private static final int maxOwnChecks = 4;
+	private static final int maxHubOwnChecks = 8;
+	private static final String[] multiUserPerms = {"android.permission.INTERACT_ACROSS_USERS",
+			"android.permission.INTERACT_ACROSS_USERS_FULL", "android.permission.ACCESS_INSTANT_APPS",
+			"android.permission.VIEW_INSTANT_APPS"};
+
+	private final int entryPoints;
+	private final long seed;
+	private final EntryPointGraph graph;
+	private final Map<EntryPointNode,Set<Doublet>> epsToAuthLogic;
+	private final Map<EntryPointNode,Map<EntryPointNode,Set<SootUnitContainer>>> deputyToTargetToSources;
+	private final Set<String> services;
+
+	private SyntheticDataSource(int entryPoints, long seed, EntryPointGraph graph, Map<EntryPointNode,Set<Doublet>> epsToAuthLogic,
+			Map<EntryPointNode,Map<EntryPointNode,Set<SootUnitContainer>>> deputyToTargetToSources, Set<String> services) {
+		this.entryPoints = entryPoints;
+		this.seed = seed;
+		this.graph = graph;
+		this.epsToAuthLogic = epsToAuthLogic;
+		this.deputyToTargetToSources = deputyToTargetToSources;
+		this.services = services;
+	}
+
+	public int getEntryPointCount() {
+		return entryPoints;
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	@Override
+	public String toString() {
+		return "Synthetic " + entryPoints + " " + seed;
+	}
+
+	@Override
+	public EntryPointGraph getGraph() {
+		return graph;
+	}
+
+	@Override
+	public Map<EntryPointNode,Set<Doublet>> getEpsToAuthLogic() {
+		return epsToAuthLogic;
+	}
+
+	@Override
+	public Map<EntryPointNode,Map<EntryPointNode,Set<SootUnitContainer>>> getDeputyToTargetToSources() {
+		return deputyToTargetToSources;
+	}
+
+	@Override
+	public IACMinerDataAccessor getDataAccessor() {
+		return null;
+	}
+
+	//The declaring classes of all entry points sorted
+	public Set<String> getServices() {
+		return services;
+	}
+
+	public static SyntheticDataSource generate(int entryPoints) {
+		return generate(entryPoints, defaultSeed);
+	}
+
+	public static SyntheticDataSource generate(int entryPoints, long seed) {
+		if(entryPoints <= 0)
+			throw new IllegalArgumentException("Error: The number of entry points must be positive but got " + entryPoints);
+		Random rnd = new Random(seed);
+
+		//The entry points of service s are [serviceStarts[s], serviceStarts[s+1])
+		List<Integer> serviceStarts = new ArrayList<>();
+		List<Integer> hubs = new ArrayList<>();
+		List<EntryPointNode> eps = new ArrayList<>(entryPoints);
+		Set<String> services = new HashSet<>();
+		for(int s = 0; eps.size() < entryPoints; s++) {
+			int size;
+			if(s % hubEvery == 0) {
+				size = hubSize;
+				hubs.add(s);
+			} else {
+				double u = rnd.nextDouble();
+				size = minServiceSize + (int)(u * u * (maxServiceSize - minServiceSize));
+			}
+			size = Math.min(size, entryPoints - eps.size());
+			serviceStarts.add(eps.size());
+			String serviceName = "com.android.server.synthetic.Service" + s;
+			SootClass service = new SootClass(serviceName, Modifier.PUBLIC);
+			SootClassContainer stub = SootClassContainer.makeSootClassContainer(
+					new SootClass("android.synthetic.IService" + s + "$Stub", Modifier.PUBLIC));
+			services.add(serviceName);
+			for(int i = 0; i < size; i++) {
+				SootMethod m = new SootMethod("method" + i, Collections.<Type>emptyList(), VoidType.v(), Modifier.PUBLIC);
+				service.addMethod(m);
+				eps.add(new EntryPointNode(SootMethodContainer.makeSootMethodContainer(m), stub));
+			}
+		}
+		int serviceCount = serviceStarts.size();
+		serviceStarts.add(entryPoints);
+
+		List<List<EntryPointNode>> targets = new ArrayList<>(entryPoints);
+		for(int i = 0; i < entryPoints; i++)
+			targets.add(new ArrayList<EntryPointNode>());
+		for(int s = 0; s < serviceCount; s++) {
+			int start = serviceStarts.get(s);
+			int end = serviceStarts.get(s + 1);
+			boolean isHub = s % hubEvery == 0;
+			for(int i = start; i < end; i++) {
+				List<EntryPointNode> cur = targets.get(i);
+				if(isHub) {
+					if(i + 1 < end && rnd.nextDouble() < hubNextRate)
+						cur.add(eps.get(i + 1));
+					continue;
+				}
+				int degree = getOutDegree(rnd);
+				for(int j = 0; j < degree; j++) {
+					if(hubs.size() > 0 && rnd.nextDouble() < crossServiceRate) {
+						int hub = hubs.get(skewed(rnd, hubs.size()));
+						int hubStart = serviceStarts.get(hub);
+						cur.add(eps.get(hubStart + skewed(rnd, serviceStarts.get(hub + 1) - hubStart)));
+					} else if(i + 1 < end) {
+						cur.add(eps.get(i + 1 + rnd.nextInt(end - i - 1)));
+					}
+				}
+			}
+			if(!isHub) {
+				for(int i = start; i + 1 < end; i++) {
+					if(rnd.nextDouble() < clusterRate) {
+						int clusterEnd = Math.min(end, i + 2 + rnd.nextInt(maxClusterSize - 1));
+						for(int j = i; j + 1 < clusterEnd; j++)
+							targets.get(j).add(eps.get(j + 1));
+						targets.get(clusterEnd - 1).add(eps.get(i));
+						i = clusterEnd - 1;
+					}
+				}
+			}
+		}
+
+		Doublet[] checkPool = new Doublet[checkPoolSize];
+		for(int i = 0; i < checkPool.length; i++) {
+			String expr;
+			if(i < multiUserPerms.length)
+				expr = "`\"" + multiUserPerms[i] + "\"`";
+			else if(i % 4 == 0)
+				expr = "`$CONSTANT_INT(" + (i * 1000) + ")` == `$INVOKE(<android.os.Binder: int getCallingUid()>)`";
+			else
+				expr = "`\"android.permission.SYNTHETIC_" + i + "\"`";
+			checkPool[i] = new Doublet(expr, new HashMap<SootMethodContainer,Map<String,SootUnitContainer>>());
+		}
+		Map<EntryPointNode,Set<Doublet>> epsToAuthLogic = new HashMap<>();
+		for(int s = 0; s < serviceCount; s++) {
+			boolean isHub = s % hubEvery == 0;
+			List<Doublet> serviceChecks = new ArrayList<>();
+			int serviceCheckCount = 1 + rnd.nextInt(maxServiceChecks);
+			for(int j = 0; j < serviceCheckCount; j++)
+				serviceChecks.add(checkPool[skewed(rnd, checkPool.length)]);
+			for(int i = serviceStarts.get(s); i < serviceStarts.get(s + 1); i++) {
+				Set<Doublet> checks = new HashSet<>();
+				for(Doublet d : serviceChecks) {
+					if(rnd.nextDouble() < serviceCheckRate)
+						checks.add(d);
+				}
+				int own = rnd.nextInt((isHub ? maxHubOwnChecks : maxOwnChecks) + 1);
+				for(int j = 0; j < own; j++)
+					checks.add(checkPool[skewed(rnd, checkPool.length)]);
+				epsToAuthLogic.put(eps.get(i), SortingMethods.sortSet(checks));
+			}
+		}
+
+		Map<EntryPointNode,Map<EntryPointNode,Set<SootUnitContainer>>> deputyToTargetToSources = new HashMap<>();
+		for(int i = 0; i < entryPoints; i++) {
+			Map<EntryPointNode,Set<SootUnitContainer>> targetToSources = new HashMap<>();
+			for(EntryPointNode target : targets.get(i))
+				targetToSources.put(target, Collections.<SootUnitContainer>emptySet());
+			deputyToTargetToSources.put(eps.get(i), targetToSources);
+		}
+
+		return new SyntheticDataSource(entryPoints, seed, EntryPointGraph.build(eps, targets), SortingMethods.sortMapKeyAscending(epsToAuthLogic),
+				deputyToTargetToSources, SortingMethods.sortSet(services));
+	}
+
+	//A power law number of edges in [0,maxOutDegree]
+	private static int getOutDegree(Random rnd) {
+		double d = Math.pow(1 - rnd.nextDouble(), -1 / fanOutAlpha) - 1;
+		return (int)Math.min(maxOutDegree, d);
+	}
+
+	//An index in [0,size) where the lower indexes are picked far more often
+	private static int skewed(Random rnd, int size) {
+		double u = rnd.nextDouble();
+		return (int)(u * u * u * size);
+	}
+
+}
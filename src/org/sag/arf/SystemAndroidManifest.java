@@ -3,10 +3,13 @@ package org.sag.arf;
 import java.io.ObjectStreamException;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.sag.common.tools.SortingMethods;
@@ -29,10 +32,24 @@ public class SystemAndroidManifest implements XStreamInOutInterface {
 	@XStreamOmitField
 	private Set<Permission> permissions;
 	
+	@XStreamOmitField
+	private Map<String,Permission> nameToPermission;
+	
 	private SystemAndroidManifest() {}
 	
+	//For manifests not read from XML, i.e. those of synthetic data
+	SystemAndroidManifest(Collection<? extends Element> elements) {
+		this.elements = new ArrayList<>(elements);
+		index();
+	}
+	
 	//ReadResolve is always run when reading from XML even if a constructor is run first
 	protected Object readResolve() throws ObjectStreamException {
+		index();
+		return this;
+	}
+	
+	private void index() {
 		permissionGroups = new HashSet<>();
 		permissions = new HashSet<>();
 		for(Element e : elements) {
@@ -43,7 +60,12 @@ public class SystemAndroidManifest implements XStreamInOutInterface {
 		}
 		permissionGroups = SortingMethods.sortSet(permissionGroups);
 		permissions = SortingMethods.sortSet(permissions);
-		return this;
+		//The first permission in sorted order wins for duplicate names like the old linear lookup
+		nameToPermission = new HashMap<>();
+		for(Permission p : permissions) {
+			if(!nameToPermission.containsKey(p.getNameField()))
+				nameToPermission.put(p.getNameField(), p);
+		}
 	}
 	
 	protected Object writeReplace() throws ObjectStreamException {
@@ -60,11 +82,7 @@ public class SystemAndroidManifest implements XStreamInOutInterface {
 	}
 	
 	public Permission getPermission(String permission) {
-		for(Permission p : permissions) {
-			if(p.getNameField().equals(permission))
-				return p;
-		}
-		return null;
+		return nameToPermission.get(permission);
 	}
 	
 	public Set<PermissionGroup> getPermissionGroups() {